@@ -0,0 +1,81 @@
+package pl.dk.wypozyczalnia;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Eksport syntetycznej historii (domyślnie 10 mln wierszy) do pliku: przepustowość i pamięć.
+// Sterta celowo mała (-Xmx64m) - eksport w stałej pamięci musi się zmieścić niezależnie od liczby wierszy.
+// Szczytowe zajęcie sterty wypisywane po każdej iteracji; alokacje na wiersz: -prof gc.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx64m")
+@State(Scope.Benchmark)
+public class ExportBenchmark {
+
+    @Param({"10000000"})
+    public int rows;
+
+    @Param({"CSV", "COLUMNAR"})
+    public RentalExport.Format format;
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    private static final String[][] CARS = {{"Toyota", "Corolla"}, {"Skoda", "Octavia"}, {"Volkswagen", "Golf"},
+            {"Ford", "Focus"}, {"Opel", "Astra"}, {"Kia", "Ceed"}, {"Dacia", "Duster"}};
+    private static final String[] FIRST = {"Anna", "Piotr", "Katarzyna", "Tomasz", "Małgorzata", "Paweł"};
+    private static final String[] LAST = {"Nowak", "Kowalski", "Wiśniewska", "Wójcik", "Kamińska", "Żak"};
+
+    private Path target;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        target = Files.createTempFile("export", format.extension);
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) pool.resetPeakUsage();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        System.out.printf("%n  plik %.1f MB, szczyt sterty %.1f MB%n", Files.size(target) / 1e6, peak / 1e6);
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public long export() throws Exception {
+        RentalExport export = new RentalExport(target, format, gzip, n -> { });
+        return export.run(sink -> {
+            RentalExport.Row row = new RentalExport.Row();
+            int day = 18_000;
+            for (int i = 1; i <= rows; i++) {
+                String[] car = CARS[i % CARS.length];
+                if (i % 300 == 0) day++;
+                row.rentalId = i;
+                row.clientId = 1 + i % 50_000;
+                row.firstName = FIRST[i % FIRST.length];
+                row.lastName = LAST[(i / 7) % LAST.length];
+                row.carId = 1 + i % 2_000;
+                row.brand = car[0];
+                row.model = car[1];
+                row.year = 2012 + i % 13;
+                row.startDay = day;
+                row.endDay = day + 1 + i % 14;
+                row.status = (i % 10 == 0) ? "ACTIVE" : "RETURNED";
+                row.totalMinor = 9_000 + (i % 250) * 100L;
+                sink.accept(row);
+            }
+        }).rows();
+    }
+}
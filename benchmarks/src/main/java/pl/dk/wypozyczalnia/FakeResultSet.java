@@ -0,0 +1,68 @@
+package pl.dk.wypozyczalnia;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.Map;
+
+// ResultSet w pamięci (kolumny jako tablice) - mierzymy samo mapowanie wierszy, bez sieci i sterownika.
+final class FakeResultSet {
+
+    private FakeResultSet() {}
+
+    static ResultSet of(int rows, Map<String, Object[]> columns) {
+        Map<String, Object[]> cols = new HashMap<>(columns);
+        int[] cursor = {-1};
+
+        return (ResultSet) Proxy.newProxyInstance(
+                FakeResultSet.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next":
+                            return ++cursor[0] < rows;
+                        case "close":
+                            return null;
+                        case "wasNull":
+                            return false;
+                        case "getInt": {
+                            Object v = cols.get((String) args[0])[cursor[0]];
+                            return v == null ? 0 : (Integer) v;
+                        }
+                        case "getString":
+                        case "getBigDecimal":
+                            return cols.get((String) args[0])[cursor[0]];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    static ResultSet cars(int rows) {
+        Object[] id = new Object[rows], brand = new Object[rows], model = new Object[rows];
+        Object[] year = new Object[rows], price = new Object[rows], status = new Object[rows];
+        String[] brands = {"Toyota", "Skoda", "Volkswagen", "Ford", "Opel", "Kia"};
+        String[] statuses = {"AVAILABLE", "RENTED", "SERVICE"};
+        for (int i = 0; i < rows; i++) {
+            id[i] = i + 1;
+            brand[i] = brands[i % brands.length];
+            model[i] = "Model " + (i % 50);
+            year[i] = 2010 + i % 15;
+            price[i] = BigDecimal.valueOf(9000 + i % 20000, 2);
+            status[i] = statuses[i % statuses.length];
+        }
+        return of(rows, Map.of("car_id", id, "brand", brand, "model", model,
+                "year", year, "daily_price", price, "status", status));
+    }
+
+    static ResultSet clients(int rows) {
+        Object[] id = new Object[rows], first = new Object[rows], last = new Object[rows];
+        for (int i = 0; i < rows; i++) {
+            id[i] = i + 1;
+            first[i] = "Imię" + (i % 300);
+            last[i] = "Nazwisko" + i;
+        }
+        return of(rows, Map.of("client_id", id, "first_name", first, "last_name", last));
+    }
+}
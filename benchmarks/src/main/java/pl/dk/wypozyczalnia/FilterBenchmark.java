@@ -0,0 +1,76 @@
+package pl.dk.wypozyczalnia;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Koszt filtra tabeli aut: dawny predykat (toLowerCase + contains na każdym wierszu)
+// kontra CarSearchIndex (maska bitowa + odczyt bitu na wiersz).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FilterBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"to", "octav", "zzz"})
+    public String query;
+
+    private List<CarRow> cars;
+    private CarSearchIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[][] models = {{"Toyota", "Corolla"}, {"Skoda", "Octavia"}, {"Volkswagen", "Golf"},
+                {"Ford", "Focus"}, {"Opel", "Astra"}, {"Kia", "Ceed"}};
+        CarStatus[] statuses = {CarStatus.AVAILABLE, CarStatus.RENTED, CarStatus.SERVICE};
+        cars = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String[] m = models[i % models.length];
+            cars.add(new CarRow(i, m[0], m[1] + " " + (i % 97), 2015, 15000, statuses[i % 3]));
+        }
+        index = new CarSearchIndex();
+        index.rebuild(cars);
+    }
+
+    @Benchmark
+    public int naivePredicate() {
+        String q = query.toLowerCase();
+        int n = 0;
+        for (CarRow car : cars) {
+            String s = car.getStatus().name().toUpperCase();
+            if (!s.equals("AVAILABLE")) continue;
+            String brand = car.getBrand().toLowerCase();
+            String model = car.getModel().toLowerCase();
+            if (brand.contains(q) || model.contains(q)) n++;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int indexedPredicate() {
+        BitSet allowed = (BitSet) index.match(TextNorm.fold(query)).clone();
+        allowed.and(index.statusMask(CarStatus.AVAILABLE));
+        int n = 0;
+        for (CarRow car : cars) {
+            if (allowed.get(car.searchPos)) n++;
+        }
+        return n;
+    }
+
+    // rebuild przy zmianie masterCars (np. pierwsze ładowanie)
+    @Benchmark
+    @Measurement(iterations = 3, time = 1)
+    public CarSearchIndex rebuildIndex() {
+        CarSearchIndex fresh = new CarSearchIndex();
+        fresh.rebuild(cars);
+        return fresh;
+    }
+}
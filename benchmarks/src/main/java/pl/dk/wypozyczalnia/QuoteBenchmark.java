@@ -0,0 +1,57 @@
+package pl.dk.wypozyczalnia;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Wycena w oknie wypożyczenia: cena dzienna (String) -> BigDecimal * liczba dni,
+// jak dawniej w runnable "validate" w App.buildRentDialog, kontra arytmetyka na groszach (long, CarRow.dailyPriceMinor).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QuoteBenchmark {
+
+    @Param({"149.99", "1234,50"})
+    public String dailyPrice;
+
+    @Param({"3", "30"})
+    public int days;
+
+    private long dailyMinor;
+    private RateTable rates;
+    private long startDay;
+
+    @Setup
+    public void setUp() {
+        dailyMinor = Money.parse(dailyPrice);
+        LocalDate today = LocalDate.now();
+        rates = new RateTable(today, 366, 12_000,
+                List.of(new RateTable.Season(today, today.plusDays(60), 13_000)),
+                List.of(new RateTable.LongTerm(7, 1_000), new RateTable.LongTerm(30, 2_000)),
+                List.of(new RateTable.Contract(1, 1_500, null)));
+        startDay = today.plusDays(10).toEpochDay();
+    }
+
+    @Benchmark
+    public String bigDecimalQuote() {
+        BigDecimal daily = new BigDecimal(dailyPrice.trim().replace(",", "."));
+        return daily.multiply(BigDecimal.valueOf(days)).toPlainString();
+    }
+
+    @Benchmark
+    public long minorUnitsQuote() {
+        return Math.multiplyExact(dailyMinor, days);
+    }
+
+    // pełna wycena z cennika: sezon + weekend + rabat za długi najem + umowa klienta
+    @Benchmark
+    public long rateTableQuote() {
+        return rates.total(1, dailyMinor, startDay, startDay + days - 1);
+    }
+}
@@ -0,0 +1,83 @@
+package pl.dk.wypozyczalnia;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Przepustowość wypożyczenie + zwrot przy 1..N wątkach (-t N).
+// backend=memory: InMemoryRentalRepository, backend=jdbc: lokalny PostgreSQL z Db.
+// Kolizje ("Auto nie jest dostępne") są liczone jako zwykłe wykonanie - mierzymy rywalizację.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RentReturnBenchmark {
+
+    @Param({"memory"})
+    public String backend;
+
+    // mała flota = duża rywalizacja o te same auta
+    @Param({"50", "5000"})
+    public int fleet;
+
+    private RentalRepository repo;
+    private int[] carIds;
+    private int clientId;
+    private final Date start = Date.valueOf(LocalDate.now());
+    private final Date end = Date.valueOf(LocalDate.now().plusDays(2));
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        if ("jdbc".equals(backend)) {
+            repo = new JdbcRentalRepository();
+        } else {
+            InMemoryRentalRepository mem = new InMemoryRentalRepository();
+            for (int i = 1; i <= fleet; i++) {
+                mem.addCar(new CarRow(i, "Toyota", "Corolla", 2020, 15000, CarStatus.AVAILABLE));
+            }
+            mem.addClient(new ClientRow(1, "Jan", "Testowy"));
+            repo = mem;
+        }
+
+        List<CarRow> available = repo.listCars().stream()
+                .filter(c -> c.getStatus() == CarStatus.AVAILABLE)
+                .limit(fleet)
+                .toList();
+        carIds = available.stream().mapToInt(CarRow::getCarId).toArray();
+        clientId = repo.listClients().get(0).getClientId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        repo.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Rnd {
+        final SplittableRandom rnd = new SplittableRandom();
+    }
+
+    @Benchmark
+    public void rentAndReturn(Rnd r, Blackhole bh) {
+        int carId = carIds[r.rnd.nextInt(carIds.length)];
+        try {
+            repo.rentCar(clientId, carId, start, end);
+            repo.returnCar(carId);
+        } catch (SQLException conflict) {
+            bh.consume(conflict);
+        }
+    }
+
+    @Benchmark
+    public void listCars(Blackhole bh) throws SQLException {
+        bh.consume(repo.listCars());
+    }
+}
@@ -0,0 +1,40 @@
+package pl.dk.wypozyczalnia;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+// Koszt mapowania wierszy w Db.listCars / Db.listClients (bez sieci).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RowMappingBenchmark {
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private ResultSet cars;
+    private ResultSet clients;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        cars = FakeResultSet.cars(rows);
+        clients = FakeResultSet.clients(rows);
+    }
+
+    @Benchmark
+    public void mapCars(Blackhole bh) throws SQLException {
+        while (cars.next()) bh.consume(Db.mapCar(cars));
+    }
+
+    @Benchmark
+    public void mapClients(Blackhole bh) throws SQLException {
+        while (clients.next()) bh.consume(Db.mapClient(clients));
+    }
+}
@@ -0,0 +1,162 @@
+package pl.dk.wypozyczalnia;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Zapytania z gorącej ścieżki na dużej syntetycznej historii: LEGACY (tabele jak przed migracjami,
+// bez indeksów na rental) vs MIGRATED (te same dane po SchemaMigrations: indeksy, partycje, archiwum).
+// Każdy układ w osobnym schemacie (bench_legacy / bench_migrated), zakładanym od nowa przy starcie;
+// plany (EXPLAIN ANALYZE, BUFFERS) wypisywane po załadowaniu danych. Wymaga lokalnego PostgreSQL:
+//   java -jar benchmarks.jar SchemaPlanBenchmark -p rows=5000000
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SchemaPlanBenchmark {
+
+    @Param({"LEGACY", "MIGRATED"})
+    public String layout;
+
+    @Param({"5000000"})
+    public int rows;
+
+    @Param({"2000"})
+    public int cars;
+
+    @Param({"50000"})
+    public int clients;
+
+    @Param({"jdbc:postgresql://localhost:5432/wypozyczalnia"})
+    public String url;
+
+    private Connection conn;
+    private PreparedStatement returnLookup;
+    private PreparedStatement listCars;
+    private PreparedStatement monthReport;
+    private PreparedStatement activeRentals;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        boolean migrated = layout.equals("MIGRATED");
+        String schema = migrated ? "bench_migrated" : "bench_legacy";
+        conn = DriverManager.getConnection(url, "app_user", "app_pass");
+        try (Statement st = conn.createStatement()) {
+            st.execute("DROP SCHEMA IF EXISTS " + schema + " CASCADE");
+            st.execute("CREATE SCHEMA " + schema);
+            st.execute("SET search_path = " + schema + ", public");
+            // układ sprzed migracji: tabele z README, bez indeksów na rental
+            for (SchemaMigrations.Migration m : SchemaMigrations.ALL) {
+                if (m.version() <= 3) m.step().apply(conn);
+            }
+            long t0 = System.nanoTime();
+            load(st);
+            System.out.printf("%n%s: %d wypożyczeń załadowane w %d ms%n", layout, rows,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+            if (migrated) {
+                t0 = System.nanoTime();
+                SchemaMigrations.migrate(conn);
+                System.out.printf("Migracje w %d ms%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+            }
+            st.execute("ANALYZE");
+        }
+
+        returnLookup = conn.prepareStatement("SELECT rental_id FROM rental WHERE car_id=? AND status='ACTIVE'");
+        listCars = conn.prepareStatement(
+                "SELECT car_id, brand, model, year, daily_price, status, updated_at FROM car ORDER BY brand, model");
+        monthReport = conn.prepareStatement(
+                "SELECT car_id, start_date - DATE '1970-01-01' AS s, end_date - DATE '1970-01-01' AS e, " +
+                "  (coalesce(total_price, 0) * 100)::bigint AS total " +
+                "FROM " + (migrated ? "rental_history" : "rental") + " WHERE start_date <= ? AND end_date >= ?");
+        LocalDate month = LocalDate.now().minusMonths(1).withDayOfMonth(1);
+        monthReport.setDate(1, Date.valueOf(month.plusMonths(1).minusDays(1)));
+        monthReport.setDate(2, Date.valueOf(month));
+        activeRentals = conn.prepareStatement("SELECT car_id, start_date, end_date FROM rental WHERE status='ACTIVE'");
+
+        returnLookup.setInt(1, 1);
+        explain("zwrot (car_id + ACTIVE)", returnLookup);
+        explain("lista aut", listCars);
+        explain("raport miesięczny", monthReport);
+        explain("aktywne wypożyczenia", activeRentals);
+    }
+
+    // Historia z ostatnich 6 lat; aktywne tylko pierwsze cars/10 wypożyczeń (każde na inne auto)
+    private void load(Statement st) throws SQLException {
+        st.execute("INSERT INTO car(brand, model, year, daily_price) " +
+                "SELECT 'Marka ' || (i % 40), 'Model ' || (i % 200), 2010 + i % 15, 100 + i % 400 " +
+                "FROM generate_series(1, " + cars + ") i");
+        st.execute("INSERT INTO client(first_name, last_name) " +
+                "SELECT 'Imię ' || i, 'Nazwisko ' || (i % 5000) FROM generate_series(1, " + clients + ") i");
+        int active = Math.max(1, cars / 10);
+        st.execute("INSERT INTO rental(client_id, car_id, start_date, end_date, status, total_price) " +
+                "SELECT 1 + i % " + clients + ", " +
+                "  CASE WHEN i <= " + active + " THEN i ELSE 1 + (i * 7919) % " + cars + " END, " +
+                "  current_date - (i % 2190), " +
+                "  CASE WHEN i <= " + active + " THEN current_date + 7 ELSE current_date - (i % 2190) + 1 + i % 14 END, " +
+                "  CASE WHEN i <= " + active + " THEN 'ACTIVE' ELSE 'RETURNED' END, " +
+                "  (1 + i % 14) * 150 " +
+                "FROM generate_series(1, " + rows + ") i");
+        st.execute("UPDATE car SET status='RENTED' WHERE car_id <= " + active);
+    }
+
+    private void explain(String label, PreparedStatement query) throws SQLException {
+        // toString() sterownika PostgreSQL zwraca zapytanie z podstawionymi parametrami
+        String sql = query.toString();
+        StringBuilder out = new StringBuilder("--- " + layout + ": " + label + " ---\n");
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("EXPLAIN (ANALYZE, BUFFERS) " + sql)) {
+            while (rs.next()) out.append(rs.getString(1)).append('\n');
+        }
+        System.out.print(out);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        conn.close();
+    }
+
+    @Benchmark
+    public int returnLookup() throws SQLException {
+        returnLookup.setInt(1, 1 + ThreadLocalRandom.current().nextInt(Math.max(1, cars / 10)));
+        try (ResultSet rs = returnLookup.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    @Benchmark
+    public void listCars(Blackhole bh) throws SQLException {
+        try (ResultSet rs = listCars.executeQuery()) {
+            while (rs.next()) bh.consume(Db.mapCar(rs));
+        }
+    }
+
+    @Benchmark
+    public long monthReport() throws SQLException {
+        long sum = 0;
+        try (ResultSet rs = monthReport.executeQuery()) {
+            while (rs.next()) sum += rs.getLong(4);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int activeRentals() throws SQLException {
+        int n = 0;
+        try (ResultSet rs = activeRentals.executeQuery()) {
+            while (rs.next()) n++;
+        }
+        return n;
+    }
+}
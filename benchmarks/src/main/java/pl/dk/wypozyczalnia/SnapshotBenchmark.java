@@ -0,0 +1,75 @@
+package pl.dk.wypozyczalnia;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Start aplikacji: wczytanie floty i klientów z lokalnej kopii (FleetSnapshot, jeden odczyt pliku)
+// kontra samo mapowanie tych samych wierszy z ResultSet (Db.listCars/listClients bez sieci -
+// przez VPN dochodzi do tego czas zapytania i transferu). Pełny czas do tabeli w aplikacji:
+// wskaźnik "Start: tabela" w panelu Diagnostyka, z -Dwypozyczalnia.snapshot=false i bez.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SnapshotBenchmark {
+
+    @Param({"2000", "50000"})
+    public int fleet;
+
+    @Param({"100000"})
+    public int clientCount;
+
+    private Path file;
+    private FleetSnapshot snapshot;
+    private ResultSet cars;
+    private ResultSet clients;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<CarRow> carList = new ArrayList<>();
+        ResultSet rs = FakeResultSet.cars(fleet);
+        while (rs.next()) carList.add(Db.mapCar(rs));
+        List<ClientRow> clientList = new ArrayList<>();
+        rs = FakeResultSet.clients(clientCount);
+        while (rs.next()) clientList.add(Db.mapClient(rs));
+
+        file = Files.createTempFile("fleet", ".snapshot");
+        snapshot = new FleetSnapshot(file);
+        snapshot.save(carList, clientList, new Timestamp(System.currentTimeMillis()));
+        System.out.printf("%n  kopia: %.1f MB%n", Files.size(file) / 1e6);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Setup(Level.Invocation)
+    public void resultSets() {
+        cars = FakeResultSet.cars(fleet);
+        clients = FakeResultSet.clients(clientCount);
+    }
+
+    @Benchmark
+    public FleetSnapshot.Data loadSnapshot() {
+        return snapshot.load();
+    }
+
+    @Benchmark
+    public void mapFromResultSet(Blackhole bh) throws SQLException {
+        while (cars.next()) bh.consume(Db.mapCar(cars));
+        while (clients.next()) bh.consume(Db.mapClient(clients));
+    }
+}
@@ -0,0 +1,48 @@
+package pl.dk.wypozyczalnia;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+// CLASSIC (kilka poleceń w transakcji) vs SINGLE_STATEMENT (jedno CTE) vs OPTIMISTIC (kolumna version) na żywej bazie.
+// Wymaga lokalnego PostgreSQL z dostępnym autem i klientem:
+//   java -jar benchmarks.jar TxModeBenchmark -p carId=1 -p clientId=1
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TxModeBenchmark {
+
+    @Param({"CLASSIC", "SINGLE_STATEMENT", "OPTIMISTIC"})
+    public Db.TxMode mode;
+
+    @Param({"1"})
+    public int carId;
+
+    @Param({"1"})
+    public int clientId;
+
+    private final Date start = Date.valueOf(LocalDate.now());
+    private final Date end = Date.valueOf(LocalDate.now().plusDays(1));
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Db.setTxMode(mode);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Db.shutdown();
+    }
+
+    @Benchmark
+    public void rentAndReturn() throws SQLException {
+        Db.rentCar(clientId, carId, start, end);
+        Db.returnCar(carId);
+    }
+}
@@ -2,6 +2,10 @@ module pl.dk.wypozyczalnia {
     requires javafx.controls;
     requires javafx.graphics;
     requires java.sql;
+    requires jdk.jfr;
+    requires jdk.httpserver;
+    requires java.net.http;
+    requires org.postgresql.jdbc;
 
     exports pl.dk.wypozyczalnia;
 }
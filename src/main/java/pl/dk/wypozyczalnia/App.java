@@ -1,7 +1,16 @@
 package pl.dk.wypozyczalnia;
 
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
+import javafx.animation.Timeline;
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.collections.transformation.FilteredList;
 import javafx.collections.transformation.SortedList;
@@ -13,26 +22,92 @@ import javafx.scene.control.*;
 import javafx.scene.control.ButtonBar.ButtonData;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.*;
+import javafx.scene.text.Font;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
-import java.math.BigDecimal;
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
 
 public class App extends Application {
 
     // Table + status
     private final TableView<CarRow> table = new TableView<CarRow>();
     private final Label status = new Label("Gotowe.");
+    private final ProgressIndicator busyIndicator = new ProgressIndicator();
+    private final Button cancelExport = new Button("Przerwij eksport");
+    private RentalExport runningExport;
+    private int busyCount = 0;
+
+    // Odświeżanie w tle: jedno naraz, kolejne żądania są scalane
+    private boolean refreshInFlight = false;
+    private boolean refreshPending = false;
+
+    // Znacznik ostatniej synchronizacji (updated_at); null = jeszcze nie ładowano
+    private Timestamp carsWatermark = null;
+
+    // Lokalna kopia floty i klientów na szybki start (-Dwypozyczalnia.snapshot.file); null = wyłączona
+    private FleetSnapshot fleetSnapshot;
+    private long startNanos;
+    private boolean tableReady = false;
+    private boolean snapshotSaved = false;
+
+    // Zmiany innych stanowisk (LISTEN/NOTIFY)
+    private AutoCloseable changeFeed;
+
+    // Dziennik wypożyczeń i zwrotów (tylko PostgreSQL w trybie CLASSIC; -Dwypozyczalnia.journal=false wyłącza);
+    // null = zapis bezpośrednio do bazy. Przyjęte operacje czekające na wynik z bazy: id -> opis
+    private JournalReplayer journal;
+    private final Map<UUID, String> journalPending = new HashMap<UUID, String>();
+    private boolean journalFailureShown;
+
+    // Okresowy zrzut metryk do pliku (-Dwypozyczalnia.metrics.file); null = wyłączony
+    private final Path metricsFile = System.getProperty("wypozyczalnia.metrics.file") == null
+            ? null : Path.of(System.getProperty("wypozyczalnia.metrics.file"));
+    private Stage diagnostics;
+    private ReportView reports;
 
     // Filtering
     private final ObservableList<CarRow> masterCars = FXCollections.observableArrayList();
     private final FilteredList<CarRow> filteredCars = new FilteredList<CarRow>(masterCars, c -> true);
     private final TextField searchField = new TextField();
+    private final CarSearchIndex searchIndex = new CarSearchIndex();
+    private final PauseTransition searchDebounce = new PauseTransition(Duration.millis(120));
     private final ComboBox<String> statusFilter = new ComboBox<String>();
+    private final DatePicker freeFrom = new DatePicker();
+    private final DatePicker freeTo = new DatePicker();
+
+    // Terminy aktywnych wypożyczeń i rezerwacji (filtr "wolne w terminie" + kontrola w oknie wypożyczenia)
+    private final AvailabilityIndex availability = new AvailabilityIndex();
+
+    // Klienci: cache z indeksem (okno wypożyczenia otwiera się bez zapytania do bazy)
+    private static final int CLIENT_SUGGESTIONS = 50;
+    private final ClientDirectory clients = new ClientDirectory(
+            Long.getLong("wypozyczalnia.clients.ttlMs", 300_000L),
+            Integer.getInteger("wypozyczalnia.clients.maxCached", 100_000));
+
+    // Stałe wartości kolumny statusu (jedna na status) - fabryka wartości nie tworzy obiektu per komórkę
+    private static final ObservableValue<CarStatus>[] STATUS_VALUES = statusValues();
 
     // Details panel (no status here)
     private final Label dTitle = new Label("Wybierz auto");
@@ -43,6 +118,40 @@ public class App extends Application {
 
     @Override
     public void start(Stage stage) {
+        startNanos = System.nanoTime();
+
+        // Demo mode: in-memory data, no database needed
+        if (getParameters().getRaw().contains("--demo") || Boolean.getBoolean("wypozyczalnia.demo")) {
+            DbAsync.use(InMemoryRentalRepository.demo(
+                    Integer.getInteger("wypozyczalnia.demo.cars", 2_000),
+                    Integer.getInteger("wypozyczalnia.demo.clients", 500),
+                    42));
+        } else if (apiUrl() != null) {
+            // Tryb klienta: terminal rozmawia z RentalServer zamiast bezpośrednio z bazą
+            DbAsync.use(new HttpRentalRepository(apiUrl(), System.getProperty("wypozyczalnia.api.token")));
+        }
+        if (!(DbAsync.repository() instanceof InMemoryRentalRepository)
+                && !"false".equals(System.getProperty("wypozyczalnia.snapshot"))) {
+            fleetSnapshot = new FleetSnapshot(Path.of(System.getProperty("wypozyczalnia.snapshot.file",
+                    Path.of(System.getProperty("user.home"), ".wypozyczalnia", "fleet.snapshot").toString())));
+        }
+        if (DbAsync.repository() instanceof JdbcRentalRepository
+                && !"false".equals(System.getProperty("wypozyczalnia.journal"))) {
+            if (Db.getTxMode() != Db.TxMode.CLASSIC) {
+                // odtwarzanie dziennika idzie zawsze ścieżką CLASSIC - nie omijamy wybranego trybu po cichu
+                System.out.println("WARN: dziennik operacji wyłączony przy -Dwypozyczalnia.tx="
+                        + System.getProperty("wypozyczalnia.tx") + " (działa tylko w trybie classic), zapis bezpośrednio do bazy.");
+            } else {
+                try {
+                    journal = new JournalReplayer(RentalJournal.open(), Db::applyJournal,
+                            Integer.getInteger("wypozyczalnia.journal.batch", 50),
+                            outcomes -> Platform.runLater(() -> reconcile(outcomes)));
+                } catch (IOException ex) {
+                    System.out.println("WARN: dziennik operacji niedostępny, zapis bezpośrednio do bazy (" + ex + ").");
+                }
+            }
+        }
+
         BorderPane root = new BorderPane();
 
         // Header
@@ -56,6 +165,7 @@ public class App extends Application {
 
         // Center: table + details panel
         configureTable();
+        table.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
 
         SortedList<CarRow> sortedCars = new SortedList<CarRow>(filteredCars);
         sortedCars.comparatorProperty().bind(table.comparatorProperty());
@@ -74,7 +184,10 @@ public class App extends Application {
         // Toolbar buttons
         Button btnRefresh = new Button("Odśwież");
         btnRefresh.getStyleClass().add("primary");
-        btnRefresh.setOnAction(e -> refreshCars());
+        btnRefresh.setOnAction(e -> {
+            DbAsync.repository().quotes().invalidate();
+            refreshCars();
+        });
 
         Button btnRent = new Button("Wypożycz…");
         btnRent.setOnAction(e -> rentSelected());
@@ -83,10 +196,39 @@ public class App extends Application {
         btnReturn.getStyleClass().add("danger");
         btnReturn.setOnAction(e -> returnSelected());
 
+        Button btnReports = new Button("Raporty");
+        btnReports.setOnAction(e -> showReports(stage));
+
+        Button btnImport = new Button("Import…");
+        btnImport.setOnAction(e -> importCsv(stage));
+
+        Button btnExport = new Button("Eksport…");
+        btnExport.setOnAction(e -> exportHistory(stage));
+
+        Button btnDiagnostics = new Button("Diagnostyka");
+        btnDiagnostics.setOnAction(e -> showDiagnostics(stage));
+
         // Search field
         searchField.setPromptText("Szukaj: marka lub model...");
         searchField.setPrefWidth(240);
-        searchField.textProperty().addListener((obs, a, b) -> applyFilter());
+        searchDebounce.setOnFinished(e -> applyFilter());
+        searchField.textProperty().addListener((obs, a, b) -> searchDebounce.playFromStart());
+
+        // Search index follows masterCars: status-only replacements are patched, anything else rebuilds
+        masterCars.addListener((ListChangeListener<CarRow>) change -> {
+            boolean patched = true;
+            while (change.next()) {
+                if (change.wasReplaced() && change.getAddedSize() == change.getRemovedSize()) {
+                    for (int i = change.getFrom(); i < change.getTo(); i++) {
+                        patched &= searchIndex.replace(i, masterCars.get(i));
+                    }
+                } else {
+                    patched = false;
+                }
+            }
+            if (!patched) searchIndex.rebuild(masterCars);
+            updatePredicate();
+        });
 
         // Dropdown status filter
         statusFilter.setItems(FXCollections.observableArrayList(
@@ -99,16 +241,24 @@ public class App extends Application {
         statusFilter.setPrefWidth(150);
         statusFilter.valueProperty().addListener((obs, a, b) -> applyFilter());
 
+        // Date range: cars free in the whole range
+        freeFrom.setPromptText("Wolne od");
+        freeFrom.setPrefWidth(130);
+        freeFrom.valueProperty().addListener((obs, a, b) -> applyFilter());
+        freeTo.setPromptText("do");
+        freeTo.setPrefWidth(130);
+        freeTo.valueProperty().addListener((obs, a, b) -> applyFilter());
+
         Region spacer = new Region();
         HBox.setHgrow(spacer, Priority.ALWAYS);
 
-        Label hint = new Label("Tip: podwójny klik na auto = Wypożycz…");
+        Label hint = new Label("Tip: podwójny klik na auto = Wypożycz…, Ctrl/Shift = wiele aut");
 
         HBox toolbar = new HBox(
                 10,
-                btnRefresh, btnRent, btnReturn,
+                btnRefresh, btnRent, btnReturn, btnReports, btnImport, btnExport, btnDiagnostics,
                 new Separator(),
-                searchField, statusFilter,
+                searchField, statusFilter, freeFrom, freeTo,
                 spacer,
                 hint
         );
@@ -117,6 +267,16 @@ public class App extends Application {
         // Status bar
         BorderPane statusBar = new BorderPane();
         statusBar.setLeft(status);
+        busyIndicator.setPrefSize(16, 16);
+        busyIndicator.setVisible(false);
+        cancelExport.setVisible(false);
+        cancelExport.setManaged(false);
+        cancelExport.setOnAction(e -> {
+            if (runningExport != null) runningExport.cancel();
+        });
+        HBox statusRight = new HBox(8, cancelExport, busyIndicator);
+        statusRight.setAlignment(Pos.CENTER_RIGHT);
+        statusBar.setRight(statusRight);
         statusBar.getStyleClass().add("statusbar");
 
         VBox bottom = new VBox(toolbar, statusBar);
@@ -150,7 +310,40 @@ public class App extends Application {
         // Update details panel on selection
         table.getSelectionModel().selectedItemProperty().addListener((obs, oldV, newV) -> updateDetails(newV));
 
-        refreshCars();
+        if (metricsFile != null) {
+            Metrics.startFileDump(metricsFile, Long.getLong("wypozyczalnia.metrics.periodMs", 60_000L));
+        }
+
+        restoreSnapshot();
+        // migracje schematu przed pierwszym zapytaniem; tabela z lokalnej kopii jest już widoczna
+        DbAsync.supply(() -> {
+            DbAsync.repository().open();
+            return null;
+        }).whenCompleteAsync((v, err) -> {
+            if (err != null) status.setText("Błąd przygotowania bazy: " + DbAsync.unwrap(err).getMessage());
+            if (journal != null) journal.start(); // także operacje z poprzedniej sesji
+            refreshCars();
+            loadAvailability();
+            clients.warmUp();
+            DbAsync.repository().quotes().warmUp();
+
+            changeFeed = DbAsync.repository().subscribe(
+                    changes -> Platform.runLater(() -> applyChanges(changes)),
+                    () -> Platform.runLater(this::refreshCars) // po zerwaniu nadrabiamy deltą
+            );
+        }, DbAsync.FX);
+    }
+
+    @Override
+    public void stop() {
+        if (changeFeed != null) {
+            try { changeFeed.close(); } catch (Exception ignored) {}
+        }
+        if (metricsFile != null) Metrics.stopFileDump(metricsFile);
+        if (journal != null) journal.close(); // nieodtworzone operacje zostają w pliku do następnego startu
+        saveSnapshot(false);
+        DbAsync.shutdown();
+        DbAsync.repository().close();
     }
 
     private void configureTable() {
@@ -163,48 +356,13 @@ public class App extends Application {
         colModel.setCellValueFactory(new PropertyValueFactory<CarRow, String>("model"));
         colModel.setPrefWidth(260);
 
-        TableColumn<CarRow, String> colStatus = new TableColumn<CarRow, String>("Status");
-        colStatus.setCellValueFactory(new PropertyValueFactory<CarRow, String>("status"));
+        TableColumn<CarRow, CarStatus> colStatus = new TableColumn<CarRow, CarStatus>("Status");
+        colStatus.setCellValueFactory(c -> STATUS_VALUES[c.getValue().getStatus().ordinal()]);
+        colStatus.setComparator(Comparator.naturalOrder());
         colStatus.setPrefWidth(90);
 
         // Icon (dot) + tooltip instead of text
-        colStatus.setCellFactory(col -> new TableCell<CarRow, String>() {
-            @Override
-            protected void updateItem(String st, boolean empty) {
-                super.updateItem(st, empty);
-
-                if (empty || st == null) {
-                    setGraphic(null);
-                    setText(null);
-                    return;
-                }
-
-                Label dot = new Label("●");
-                dot.setStyle("-fx-font-size: 16px;");
-
-                Tooltip tip;
-                String up = st.toUpperCase();
-
-                if (up.equals("AVAILABLE")) {
-                    dot.setStyle("-fx-font-size: 16px; -fx-text-fill: #2ecc71;");
-                    tip = new Tooltip("Dostępne");
-                } else if (up.equals("RENTED")) {
-                    dot.setStyle("-fx-font-size: 16px; -fx-text-fill: #e74c3c;");
-                    tip = new Tooltip("Wypożyczone");
-                } else if (up.equals("SERVICE")) {
-                    dot.setStyle("-fx-font-size: 16px; -fx-text-fill: #95a5a6;");
-                    tip = new Tooltip("Serwis");
-                } else {
-                    dot.setStyle("-fx-font-size: 16px; -fx-text-fill: black;");
-                    tip = new Tooltip(st);
-                }
-
-                Tooltip.install(dot, tip);
-                setGraphic(dot);
-                setText(null);
-                setAlignment(Pos.CENTER);
-            }
-        });
+        colStatus.setCellFactory(col -> new StatusCell());
 
         table.getColumns().clear();
         table.getColumns().addAll(colBrand, colModel, colStatus);
@@ -263,6 +421,176 @@ public class App extends Application {
         return box;
     }
 
+    private void showReports(Stage owner) {
+        if (reports == null) reports = new ReportView(owner);
+        reports.show();
+    }
+
+    // Import CSV (auta lub klienci). Lista odświeża się po każdej zapisanej paczce, nie dopiero na końcu.
+    private void importCsv(Stage owner) {
+        ChoiceDialog<CsvImport.Kind> kindDialog = new ChoiceDialog<CsvImport.Kind>(CsvImport.Kind.CARS, CsvImport.Kind.values());
+        kindDialog.setTitle("Import CSV");
+        kindDialog.setHeaderText("Auta: marka, model, rok, cena dzienna [, status]\nKlienci: imię, nazwisko");
+        kindDialog.setContentText("Co importować:");
+        CsvImport.Kind kind = kindDialog.showAndWait().orElse(null);
+        if (kind == null) return;
+
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Import: " + kind);
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("CSV", "*.csv", "*.txt"),
+                new FileChooser.ExtensionFilter("Wszystkie pliki", "*.*"));
+        File file = chooser.showOpenDialog(owner);
+        if (file == null) return;
+
+        beginBusy("Import: sprawdzanie pliku…");
+        DbAsync.supply(() -> DbAsync.repository().importCsv(kind, file.toPath(), saved -> Platform.runLater(() -> {
+            status.setText("Import: zapisano " + saved + " wierszy…");
+            if (kind == CsvImport.Kind.CARS) refreshCars();
+            else clients.invalidate();
+        }))).whenCompleteAsync((result, err) -> {
+            endBusy();
+            if (err != null) {
+                Throwable ex = DbAsync.unwrap(err);
+                status.setText("Błąd importu: " + ex.getMessage());
+                showError(ex);
+                if (kind == CsvImport.Kind.CARS) refreshCars();
+                return;
+            }
+            if (kind == CsvImport.Kind.CLIENTS) {
+                clients.invalidate();
+                clients.warmUp();
+            }
+            reportImport(result);
+        }, DbAsync.FX);
+    }
+
+    // Eksport historii wypożyczeń do pliku (CSV lub kolumnowy). Postęp w pasku stanu, można przerwać.
+    private void exportHistory(Stage owner) {
+        if (runningExport != null) {
+            status.setText("Eksport już trwa.");
+            return;
+        }
+
+        DatePicker from = new DatePicker(LocalDate.now().minusMonths(1).withDayOfMonth(1));
+        DatePicker to = new DatePicker(LocalDate.now().withDayOfMonth(1).minusDays(1));
+        ChoiceBox<RentalExport.Format> format = new ChoiceBox<RentalExport.Format>(
+                FXCollections.observableArrayList(RentalExport.Format.values()));
+        format.setValue(RentalExport.Format.CSV);
+        CheckBox gzip = new CheckBox("Kompresja gzip");
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(8);
+        grid.addRow(0, new Label("Początek od:"), from);
+        grid.addRow(1, new Label("do:"), to);
+        grid.addRow(2, new Label("Format:"), format);
+        grid.add(gzip, 1, 3);
+
+        Dialog<ButtonType> dialog = new Dialog<ButtonType>();
+        dialog.setTitle("Eksport historii wypożyczeń");
+        dialog.setHeaderText("Wypożyczenia z danymi klienta i auta (data rozpoczęcia w okresie)");
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        if (dialog.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) return;
+
+        LocalDate f = from.getValue();
+        LocalDate t = to.getValue();
+        if (f == null || t == null || t.isBefore(f)) {
+            status.setText("Niepoprawny okres eksportu.");
+            return;
+        }
+
+        RentalExport.Format fmt = format.getValue();
+        String ext = fmt.extension + (gzip.isSelected() ? ".gz" : "");
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Zapisz eksport");
+        chooser.setInitialFileName("wypozyczenia_" + f + "_" + t + ext);
+        File file = chooser.showSaveDialog(owner);
+        if (file == null) return;
+
+        RentalExport export = new RentalExport(file.toPath(), fmt, gzip.isSelected(),
+                rows -> Platform.runLater(() -> status.setText("Eksport: " + rows + " wierszy…")));
+        runningExport = export;
+        cancelExport.setVisible(true);
+        cancelExport.setManaged(true);
+        beginBusy("Eksport: start…");
+        DbAsync.supply(() -> {
+            try {
+                return export.run(sink -> DbAsync.repository().streamRentalHistory(f, t, sink));
+            } catch (IOException ex) {
+                throw new SQLException("Błąd zapisu pliku: " + ex.getMessage(), ex);
+            }
+        }).whenCompleteAsync((result, err) -> {
+            endBusy();
+            runningExport = null;
+            cancelExport.setVisible(false);
+            cancelExport.setManaged(false);
+            if (err != null) {
+                Throwable ex = DbAsync.unwrap(err);
+                if (ex instanceof CancellationException) {
+                    status.setText("Eksport przerwany - plik nie został zapisany.");
+                    return;
+                }
+                status.setText("Błąd eksportu: " + ex.getMessage());
+                showError(ex);
+                return;
+            }
+            status.setText(String.format("Eksport: %d wierszy, %.1f MB w %d ms -> %s",
+                    result.rows(), result.bytes() / 1e6, result.elapsedMillis(), file.getName()));
+        }, DbAsync.FX);
+    }
+
+    private void reportImport(CsvImport.Result result) {
+        String summary = "Import (" + result.kind() + "): zapisano " + result.imported() + " z " + result.lines()
+                + " wierszy w " + result.elapsedMillis() + " ms.";
+        status.setText(summary);
+        if (result.rejected() == 0) return;
+
+        StringBuilder sb = new StringBuilder();
+        for (CsvImport.Rejected r : result.samples()) {
+            sb.append("Linia ").append(r.line()).append(": ").append(r.reason()).append("\n");
+        }
+        if (result.rejected() > result.samples().size()) {
+            sb.append("… oraz ").append(result.rejected() - result.samples().size()).append(" kolejnych.\n");
+        }
+
+        Alert alert = new Alert(Alert.AlertType.WARNING);
+        alert.setTitle("Import CSV");
+        alert.setHeaderText(summary + "\nOdrzucono " + result.rejected() + " wierszy:");
+        TextArea details = new TextArea(sb.toString());
+        details.setEditable(false);
+        details.setPrefRowCount(14);
+        alert.getDialogPane().setContent(details);
+        alert.showAndWait();
+    }
+
+    // Okno z bieżącymi metrykami operacji (odświeżane co sekundę, tylko gdy otwarte)
+    private void showDiagnostics(Stage owner) {
+        if (diagnostics != null) {
+            diagnostics.toFront();
+            return;
+        }
+
+        TextArea text = new TextArea(Metrics.report());
+        text.setEditable(false);
+        text.setFont(Font.font("Monospaced", 12));
+
+        Timeline tick = new Timeline(new KeyFrame(Duration.seconds(1), e -> text.setText(Metrics.report())));
+        tick.setCycleCount(Animation.INDEFINITE);
+        tick.play();
+
+        diagnostics = new Stage();
+        diagnostics.initOwner(owner);
+        diagnostics.setTitle("Diagnostyka - czasy operacji");
+        diagnostics.setScene(new Scene(new BorderPane(text), 860, 320));
+        diagnostics.setOnHidden(e -> {
+            tick.stop();
+            diagnostics = null;
+        });
+        diagnostics.show();
+    }
+
     private void updateDetails(CarRow car) {
         if (car == null) {
             dTitle.setText("Wybierz auto");
@@ -277,85 +605,476 @@ public class App extends Application {
         dYear.setText(String.valueOf(car.getYear()));
         dPrice.setText(car.getDailyPrice() + " PLN");
 
-        boolean available = "AVAILABLE".equalsIgnoreCase(car.getStatus());
-        boolean rented = "RENTED".equalsIgnoreCase(car.getStatus());
+        boolean rented = car.getStatus() == CarStatus.RENTED;
 
-        dRent.setDisable(!available);
+        // wypożyczyć (zarezerwować na przyszły termin) można każde auto; termin sprawdza okno wypożyczenia
+        dRent.setDisable(false);
         dReturn.setDisable(!rented);
     }
 
     private void applyFilter() {
-        final String q = (searchField.getText() == null) ? "" : searchField.getText().trim().toLowerCase();
+        searchDebounce.stop();
+        updatePredicate();
+        status.setText("Pokazuję: " + filteredCars.size() + " aut (z " + masterCars.size() + ").");
+    }
+
+    private void updatePredicate() {
+        final String q = TextNorm.fold((searchField.getText() == null) ? "" : searchField.getText().trim());
         final String choice = (statusFilter.getValue() == null) ? "Wszystkie" : statusFilter.getValue();
+        final CarStatus statusCode = statusCode(choice);
+        final LocalDate from = freeFrom.getValue();
+        final LocalDate to = (freeTo.getValue() == null) ? from : freeTo.getValue();
+        final boolean byDate = from != null && !to.isBefore(from);
+
+        // text + status from the index as one bitmask
+        final BitSet allowed = (BitSet) searchIndex.match(q).clone();
+        if (statusCode != null) allowed.and(searchIndex.statusMask(statusCode));
 
         filteredCars.setPredicate(car -> {
             if (car == null) return false;
 
-            // status filter
-            if (!"Wszystkie".equals(choice)) {
-                String s = (car.getStatus() == null) ? "" : car.getStatus().toUpperCase();
+            boolean ok = searchIndex.isIndexed(car)
+                    ? allowed.get(car.searchPos)
+                    : matchesDirectly(car, q, statusCode); // row not indexed yet (mid-update)
+            if (!ok) return false;
 
-                if ("Dostępne".equals(choice) && !s.equals("AVAILABLE")) return false;
-                if ("Wypożyczone".equals(choice) && !s.equals("RENTED")) return false;
-                if ("Serwis".equals(choice) && !s.equals("SERVICE")) return false;
+            // date range filter
+            return !byDate || availability.isFree(car.getCarId(), from, to);
+        });
+    }
+
+    private static CarStatus statusCode(String choice) {
+        switch (choice) {
+            case "Dostępne": return CarStatus.AVAILABLE;
+            case "Wypożyczone": return CarStatus.RENTED;
+            case "Serwis": return CarStatus.SERVICE;
+            default: return null;
+        }
+    }
+
+    private static boolean matchesDirectly(CarRow car, String q, CarStatus statusCode) {
+        if (statusCode != null && statusCode != car.getStatus()) return false;
+        if (q.isEmpty()) return true;
+        return TextNorm.fold(car.getBrand()).contains(q) || TextNorm.fold(car.getModel()).contains(q);
+    }
+
+    private void refreshCars() {
+        if (refreshInFlight) {
+            refreshPending = true;
+            return;
+        }
+        refreshInFlight = true;
+        beginBusy("Ładowanie aut…");
+
+        final boolean full = (carsWatermark == null);
+        DbAsync.listCarsChangedSince(carsWatermark).whenCompleteAsync((delta, err) -> {
+            endBusy();
+            refreshInFlight = false;
+
+            if (err != null) {
+                Throwable ex = DbAsync.unwrap(err);
+                status.setText("Błąd: " + ex.getMessage());
+                if (!refreshPending) showError(ex);
+            } else {
+                // wynik stosujemy zawsze - przy ciągłych powiadomieniach odrzucanie go zagłodziłoby tabelę
+                keepSelection(() -> {
+                    if (full) CarListSync.replaceAll(masterCars, delta.cars());
+                    else CarListSync.merge(masterCars, delta.cars());
+                });
+                carsWatermark = delta.watermark();
+                applyFilter();
+                updateDetails(table.getSelectionModel().getSelectedItem());
+                markTableReady("baza");
+                if (!snapshotSaved) saveSnapshot(true);
             }
 
-            // text filter
-            if (q.isEmpty()) return true;
+            if (refreshPending) {
+                // w międzyczasie ktoś poprosił o odświeżenie - kolejna delta od nowego znacznika
+                refreshPending = false;
+                refreshCars();
+            }
+        }, DbAsync.FX);
+    }
 
-            String brand = (car.getBrand() == null) ? "" : car.getBrand().toLowerCase();
-            String model = (car.getModel() == null) ? "" : car.getModel().toLowerCase();
-            return brand.contains(q) || model.contains(q);
-        });
+    // Tabela z lokalnej kopii zanim odpowie baza; refreshCars() dociąga potem deltę od zapisanego znacznika.
+    // Kopia starsza niż -Dwypozyczalnia.snapshot.maxAgeHours (domyślnie 24) jest tylko pokazywana,
+    // a uzgadnianie robi pełne przeładowanie (delta nie widzi usuniętych aut).
+    private void restoreSnapshot() {
+        if (fleetSnapshot == null) return;
+        FleetSnapshot.Data data = fleetSnapshot.load();
+        if (data == null || data.cars().isEmpty()) return;
+
+        CarListSync.replaceAll(masterCars, data.cars());
+        clients.seed(data.clients());
+        long ageMs = System.currentTimeMillis() - data.savedAtMillis();
+        boolean fresh = ageMs < TimeUnit.HOURS.toMillis(Long.getLong("wypozyczalnia.snapshot.maxAgeHours", 24L));
+        carsWatermark = fresh ? data.watermark() : null;
+        applyFilter();
+        markTableReady("kopia lokalna");
+        status.setText("Dane z lokalnej kopii (" + data.cars().size() + " aut) - uzgadnianie z bazą…");
+    }
 
-        status.setText("Pokazuję: " + filteredCars.size() + " aut (z " + masterCars.size() + ").");
+    // Zapis kopii: po pierwszym uzgodnieniu z bazą (w tle) i przy zamknięciu
+    private void saveSnapshot(boolean async) {
+        if (fleetSnapshot == null || carsWatermark == null || masterCars.isEmpty()) return;
+        snapshotSaved = true;
+        List<CarRow> cars = new ArrayList<CarRow>(masterCars);
+        List<ClientRow> clientList = clients.cached();
+        Timestamp watermark = carsWatermark;
+        Runnable write = () -> {
+            try {
+                fleetSnapshot.save(cars, clientList, watermark);
+            } catch (IOException ex) {
+                System.out.println("WARN: nie zapisano lokalnej kopii floty (" + ex.getMessage() + ").");
+            }
+        };
+        if (async) DbAsync.supply(() -> { write.run(); return null; });
+        else write.run();
     }
 
-    private void refreshCars() {
-        try {
-            List<CarRow> cars = Db.listCars();
-            masterCars.setAll(cars);
+    // Czas od startu do pierwszej wypełnionej tabeli (panel Diagnostyka i konsola)
+    private void markTableReady(String source) {
+        if (tableReady || masterCars.isEmpty()) return;
+        tableReady = true;
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        Metrics.gauge("Start: tabela", () -> ms + " ms (" + source + ")");
+        System.out.println("Start: tabela gotowa po " + ms + " ms (" + source + ", " + masterCars.size() + " aut).");
+    }
+
+    private void loadAvailability() {
+        DbAsync.supply(() -> DbAsync.repository().listActiveRentals()).whenCompleteAsync((bookings, err) -> {
+            if (err != null) {
+                status.setText("Błąd wczytywania terminów: " + DbAsync.unwrap(err).getMessage());
+                return;
+            }
+            availability.load(bookings);
+            applyFilter();
+        }, DbAsync.FX);
+    }
+
+    // Terminy zmienionych aut dociągamy z bazy (zmiana mogła przyjść z innego stanowiska)
+    private void reloadAvailability(List<Integer> carIds) {
+        DbAsync.supply(() -> DbAsync.repository().listActiveRentals(carIds)).whenCompleteAsync((bookings, err) -> {
+            if (err != null) return;
+            availability.reload(carIds, bookings);
             applyFilter();
+        }, DbAsync.FX);
+    }
+
+    private void applyChanges(List<CarChangeFeed.CarChange> changes) {
+        List<CarRow> changed = new ArrayList<CarRow>();
+        List<Integer> ids = new ArrayList<Integer>();
+        boolean unknown = false;
+
+        for (CarChangeFeed.CarChange ch : changes) {
+            ids.add(ch.carId());
+            CarRow current = findCar(ch.carId());
+            if (current == null) unknown = true;
+            else changed.add(current.withStatus(ch.status()));
+        }
+
+        keepSelection(() -> CarListSync.merge(masterCars, changed));
+        updateDetails(table.getSelectionModel().getSelectedItem());
+
+        reloadAvailability(ids);
+
+        // auto, którego jeszcze nie znamy - dociągamy deltą
+        if (unknown) refreshCars();
+    }
+
+    private CarRow findCar(int carId) {
+        for (CarRow c : masterCars) {
+            if (c.getCarId() == carId) return c;
+        }
+        return null;
+    }
+
+    // Po operacji na jednym aucie odświeżamy tylko jego wiersz
+    private void refreshCar(int carId) {
+        DbAsync.getCar(carId).whenCompleteAsync((row, err) -> {
+            if (err != null) {
+                refreshCars();
+                return;
+            }
+            keepSelection(() -> CarListSync.update(masterCars, carId, row));
             updateDetails(table.getSelectionModel().getSelectedItem());
-        } catch (Exception ex) {
-            status.setText("Błąd: " + ex.getMessage());
-            showError(ex);
+        }, DbAsync.FX);
+    }
+
+    // Podmiana wiersza w liście gubi zaznaczenie - przywracamy je po car_id
+    private void keepSelection(Runnable change) {
+        Set<Integer> before = selectedCarIds();
+        change.run();
+        if (before.isEmpty() || before.equals(selectedCarIds())) return;
+
+        table.getSelectionModel().clearSelection();
+        List<CarRow> items = table.getItems();
+        for (int i = 0; i < items.size(); i++) {
+            if (before.contains(items.get(i).getCarId())) {
+                table.getSelectionModel().select(i);
+            }
         }
     }
 
+    private Set<Integer> selectedCarIds() {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (CarRow c : table.getSelectionModel().getSelectedItems()) {
+            if (c != null) ids.add(c.getCarId());
+        }
+        return ids;
+    }
+
+    private void beginBusy(String message) {
+        busyCount++;
+        busyIndicator.setVisible(true);
+        status.setText(message);
+    }
+
+    private void endBusy() {
+        busyCount = Math.max(0, busyCount - 1);
+        busyIndicator.setVisible(busyCount > 0);
+    }
+
     private void rentSelected() {
-        CarRow selected = table.getSelectionModel().getSelectedItem();
-        if (selected == null) {
-            status.setText("Wybierz auto w tabeli.");
+        List<CarRow> selection = new ArrayList<CarRow>(table.getSelectionModel().getSelectedItems());
+        if (selection.size() > 1) {
+            rentSelectedBulk(selection);
             return;
         }
 
-        if (!"AVAILABLE".equalsIgnoreCase(selected.getStatus())) {
-            status.setText("To auto nie jest dostępne (status=" + selected.getStatus() + ").");
+        CarRow selected = table.getSelectionModel().getSelectedItem();
+        if (selected == null) {
+            status.setText("Wybierz auto w tabeli.");
             return;
         }
 
-        Dialog<RentData> dialog = buildRentDialog(selected);
+        Dialog<RentData> dialog = buildRentDialog(List.of(selected));
         dialog.showAndWait().ifPresent(data -> {
-            try {
-                Db.rentCar(data.clientId, data.carId, data.startDate, data.endDate);
-                status.setText("Wypożyczono: " + selected.getBrand() + " " + selected.getModel() + " (" + selected.getYear() + ").");
-                refreshCars();
-            } catch (Exception ex) {
+            if (journal != null && !journal.failed()) rentJournaled(selected, data);
+            else rentDirect(selected, data);
+        });
+    }
+
+    private void rentDirect(CarRow selected, RentData data) {
+        beginBusy("Wypożyczanie…");
+        DbAsync.rentCar(data.clientId, selected.getCarId(), data.startDate, data.endDate).whenCompleteAsync((v, err) -> {
+            endBusy();
+            if (err != null) {
+                Throwable ex = DbAsync.unwrap(err);
                 status.setText("Błąd wypożyczenia: " + ex.getMessage());
                 showError(ex);
+                return;
+            }
+            availability.add(selected.getCarId(), data.startDate.toLocalDate(), data.endDate.toLocalDate());
+            status.setText("Wypożyczono: " + selected.getBrand() + " " + selected.getModel() + " (" + selected.getYear() + ").");
+            refreshCar(selected.getCarId());
+        }, DbAsync.FX);
+    }
+
+    // Przez dziennik: odpowiedź po zapisie na lokalny dysk, widok zmieniony od razu;
+    // zapis do bazy w tle, jej wynik (także odrzucenie) poprawia widok w reconcile()
+    private void rentJournaled(CarRow car, RentData data) {
+        LocalDate start = data.startDate.toLocalDate();
+        LocalDate end = data.endDate.toLocalDate();
+        String name = car.getBrand() + " " + car.getModel() + " (" + car.getYear() + ")";
+        // cena według cennika, z którego wyceniono w dialogu (bez niego - wycena przy zapisie do bazy)
+        RateTable rates = DbAsync.repository().quotes().cached();
+        RentalJournal.Entry entry = RentalJournal.rent(data.clientId, car.getCarId(), start, end,
+                rates == null ? null : rates.terms(data.clientId, start, end));
+        journalPending.put(entry.id(), "Wypożyczenie " + name);
+        journal.submit(entry).whenCompleteAsync((e, err) -> {
+            if (err != null) {
+                journalPending.remove(entry.id());
+                if (journalFailed(err)) {
+                    rentDirect(car, data);
+                    return;
+                }
+                status.setText("Błąd zapisu dziennika: " + DbAsync.unwrap(err).getMessage());
+                showError(DbAsync.unwrap(err));
+                return;
             }
+            if (!journalPending.containsKey(entry.id())) return; // baza odpowiedziała szybciej niż fsync
+            availability.add(car.getCarId(), start, end);
+            if (!start.isAfter(LocalDate.now())) markStatus(car.getCarId(), CarStatus.RENTED);
+            status.setText("Przyjęto: " + name + " (zapis do bazy w tle, oczekujące: " + journal.pendingCount() + ").");
+        }, DbAsync.FX);
+    }
+
+    private void returnJournaled(CarRow car) {
+        String name = car.getBrand() + " " + car.getModel() + " (" + car.getYear() + ")";
+        RentalJournal.Entry entry = RentalJournal.returnCar(car.getCarId());
+        journalPending.put(entry.id(), "Zwrot " + name);
+        journal.submit(entry).whenCompleteAsync((e, err) -> {
+            if (err != null) {
+                journalPending.remove(entry.id());
+                if (journalFailed(err)) {
+                    returnDirect(car);
+                    return;
+                }
+                status.setText("Błąd zapisu dziennika: " + DbAsync.unwrap(err).getMessage());
+                showError(DbAsync.unwrap(err));
+                return;
+            }
+            if (!journalPending.containsKey(entry.id())) return;
+            availability.release(car.getCarId(), LocalDate.now());
+            markStatus(car.getCarId(), CarStatus.AVAILABLE);
+            status.setText("Przyjęto zwrot: " + name + " (zapis do bazy w tle, oczekujące: " + journal.pendingCount() + ").");
+        }, DbAsync.FX);
+    }
+
+    // Dziennik wyłączony po błędach dysku: jednorazowe ostrzeżenie, operacja idzie bezpośrednio do bazy
+    private boolean journalFailed(Throwable err) {
+        if (!journal.failed()) return false;
+        if (!journalFailureShown) {
+            journalFailureShown = true;
+            Alert alert = new Alert(Alert.AlertType.WARNING);
+            alert.setTitle("Dziennik operacji");
+            alert.setHeaderText("Dziennik operacji wyłączony - operacje są zapisywane bezpośrednio w bazie.");
+            alert.setContentText(DbAsync.unwrap(err).getMessage());
+            alert.show();
+        }
+        return true;
+    }
+
+    private void markStatus(int carId, CarStatus newStatus) {
+        CarRow current = findCar(carId);
+        if (current == null) return;
+        keepSelection(() -> CarListSync.update(masterCars, carId, current.withStatus(newStatus)));
+        updateDetails(table.getSelectionModel().getSelectedItem());
+    }
+
+    // Wyniki z bazy dla operacji z dziennika (także z poprzedniej sesji): stan aut i terminy z bazy
+    // zastępują przyjęte lokalnie, odrzucone operacje - ostrzeżenie z powodem
+    private void reconcile(List<RentalJournal.Outcome> outcomes) {
+        StringBuilder rejected = new StringBuilder();
+        List<Integer> carIds = new ArrayList<Integer>();
+        for (RentalJournal.Outcome o : outcomes) {
+            String label = journalPending.remove(o.id());
+            if (!carIds.contains(o.carId())) carIds.add(o.carId());
+            if (o.ok()) continue;
+            if (label == null) {
+                CarRow car = findCar(o.carId());
+                label = "Operacja na " + (car == null ? "car_id=" + o.carId() : car.getBrand() + " " + car.getModel());
+            }
+            rejected.append(label).append(": ").append(o.message()).append("\n");
+        }
+
+        reloadAvailability(carIds);
+        if (carIds.size() == 1) refreshCar(carIds.get(0));
+        else refreshCars();
+
+        if (rejected.length() > 0) {
+            status.setText("Baza odrzuciła część przyjętych operacji.");
+            Alert alert = new Alert(Alert.AlertType.WARNING);
+            alert.setTitle("Dziennik operacji");
+            alert.setHeaderText("Baza odrzuciła operacje przyjęte przy stanowisku:");
+            alert.setContentText(rejected.toString());
+            alert.show();
+        } else if (journalPending.isEmpty()) {
+            status.setText("Wszystkie przyjęte operacje zapisane w bazie.");
+        }
+    }
+
+    // Wypożyczenie wielu aut jednemu klientowi (np. umowa firmowa)
+    private void rentSelectedBulk(List<CarRow> cars) {
+        Dialog<RentData> dialog = buildRentDialog(cars);
+        dialog.showAndWait().ifPresent(data -> {
+            List<Db.RentRequest> requests = new ArrayList<Db.RentRequest>();
+            for (CarRow c : cars) {
+                requests.add(new Db.RentRequest(data.clientId, c.getCarId(), data.startDate, data.endDate));
+            }
+
+            beginBusy("Wypożyczanie " + cars.size() + " aut…");
+            DbAsync.rentCars(requests).whenCompleteAsync((results, err) -> {
+                endBusy();
+                if (err != null) {
+                    Throwable ex = DbAsync.unwrap(err);
+                    status.setText("Błąd wypożyczenia: " + ex.getMessage());
+                    showError(ex);
+                    return;
+                }
+                for (Db.BulkResult r : results) {
+                    if (r.ok()) availability.add(r.carId(), data.startDate.toLocalDate(), data.endDate.toLocalDate());
+                }
+                reportBulk("Wypożyczono", results);
+                refreshCars();
+            }, DbAsync.FX);
         });
     }
 
+    private void returnSelectedBulk(List<CarRow> selection) {
+        List<Integer> carIds = new ArrayList<Integer>();
+        for (CarRow c : selection) {
+            if (c.getStatus() == CarStatus.RENTED) carIds.add(c.getCarId());
+        }
+        if (carIds.isEmpty()) {
+            status.setText("Żadne z zaznaczonych aut nie jest wypożyczone.");
+            return;
+        }
+
+        Alert confirm = new Alert(Alert.AlertType.CONFIRMATION);
+        confirm.setTitle("Potwierdzenie");
+        confirm.setHeaderText("Zwrot aut");
+        confirm.setContentText("Zwrócić " + carIds.size() + " aut?");
+
+        confirm.showAndWait().ifPresent(btn -> {
+            if (btn != ButtonType.OK) return;
+
+            beginBusy("Zwracanie " + carIds.size() + " aut…");
+            DbAsync.returnCars(carIds).whenCompleteAsync((results, err) -> {
+                endBusy();
+                if (err != null) {
+                    Throwable ex = DbAsync.unwrap(err);
+                    status.setText("Błąd zwrotu: " + ex.getMessage());
+                    showError(ex);
+                    return;
+                }
+                for (Db.BulkResult r : results) {
+                    if (r.ok()) availability.release(r.carId(), LocalDate.now());
+                }
+                reportBulk("Zwrócono", results);
+                refreshCars();
+            }, DbAsync.FX);
+        });
+    }
+
+    private void reportBulk(String verb, List<Db.BulkResult> results) {
+        int ok = 0;
+        StringBuilder failures = new StringBuilder();
+        for (Db.BulkResult r : results) {
+            if (r.ok()) {
+                ok++;
+            } else {
+                CarRow car = findCar(r.carId());
+                String name = (car == null) ? "car_id=" + r.carId() : car.getBrand() + " " + car.getModel();
+                failures.append(name).append(": ").append(r.message()).append("\n");
+            }
+        }
+
+        status.setText(verb + " " + ok + " z " + results.size() + " aut.");
+        if (failures.length() > 0) {
+            Alert alert = new Alert(Alert.AlertType.WARNING);
+            alert.setTitle("Operacja grupowa");
+            alert.setHeaderText(verb + " " + ok + " z " + results.size() + " aut. Nie udało się:");
+            alert.setContentText(failures.toString());
+            alert.showAndWait();
+        }
+    }
+
     private void returnSelected() {
+        List<CarRow> selection = new ArrayList<CarRow>(table.getSelectionModel().getSelectedItems());
+        if (selection.size() > 1) {
+            returnSelectedBulk(selection);
+            return;
+        }
+
         CarRow selected = table.getSelectionModel().getSelectedItem();
         if (selected == null) {
             status.setText("Wybierz auto w tabeli.");
             return;
         }
 
-        if (!"RENTED".equalsIgnoreCase(selected.getStatus())) {
+        if (selected.getStatus() != CarStatus.RENTED) {
             status.setText("To auto nie jest wypożyczone (status=" + selected.getStatus() + ").");
             return;
         }
@@ -366,34 +1085,67 @@ public class App extends Application {
         confirm.setContentText("Zwrócić auto: " + selected.getBrand() + " " + selected.getModel() + " (" + selected.getYear() + ")?");
 
         confirm.showAndWait().ifPresent(btn -> {
-            if (btn == ButtonType.OK) {
-                try {
-                    Db.returnCar(selected.getCarId());
-                    status.setText("Zwrócono: " + selected.getBrand() + " " + selected.getModel() + " (" + selected.getYear() + ").");
-                    refreshCars();
-                } catch (Exception ex) {
-                    status.setText("Błąd zwrotu: " + ex.getMessage());
-                    showError(ex);
-                }
-            }
+            if (btn != ButtonType.OK) return;
+            if (journal != null && !journal.failed()) returnJournaled(selected);
+            else returnDirect(selected);
         });
     }
 
-    private Dialog<RentData> buildRentDialog(CarRow car) {
+    private void returnDirect(CarRow selected) {
+        beginBusy("Zwracanie…");
+        DbAsync.returnCar(selected.getCarId()).whenCompleteAsync((v, err) -> {
+            endBusy();
+            if (err != null) {
+                Throwable ex = DbAsync.unwrap(err);
+                status.setText("Błąd zwrotu: " + ex.getMessage());
+                showError(ex);
+                return;
+            }
+            availability.release(selected.getCarId(), LocalDate.now());
+            status.setText("Zwrócono: " + selected.getBrand() + " " + selected.getModel() + " (" + selected.getYear() + ").");
+            refreshCar(selected.getCarId());
+        }, DbAsync.FX);
+    }
+
+    private Dialog<RentData> buildRentDialog(List<CarRow> cars) {
         Dialog<RentData> dialog = new Dialog<RentData>();
-        dialog.setTitle("Wypożycz auto");
-        dialog.setHeaderText("Auto: " + car.getBrand() + " " + car.getModel() + " (" + car.getYear() + ")");
+        if (cars.size() == 1) {
+            CarRow car = cars.get(0);
+            dialog.setTitle("Wypożycz auto");
+            dialog.setHeaderText("Auto: " + car.getBrand() + " " + car.getModel() + " (" + car.getYear() + ")");
+        } else {
+            dialog.setTitle("Wypożycz auta");
+            dialog.setHeaderText("Liczba aut: " + cars.size());
+        }
 
         ButtonType rentBtn = new ButtonType("Wypożycz", ButtonData.OK_DONE);
         dialog.getDialogPane().getButtonTypes().addAll(rentBtn, ButtonType.CANCEL);
 
-        ComboBox<ClientRow> clientBox = new ComboBox<ClientRow>();
-        clientBox.setPromptText("Wybierz klienta");
-        try {
-            clientBox.setItems(FXCollections.observableArrayList(Db.listClients()));
-        } catch (Exception ex) {
-            showError(ex);
-        }
+        // Typeahead: pole wyszukiwania + lista podpowiedzi z ClientDirectory
+        TextField clientSearch = new TextField();
+        clientSearch.setPromptText("Szukaj klienta: nazwisko lub imię…");
+        ListView<ClientRow> clientList = new ListView<ClientRow>();
+        clientList.setPrefHeight(160);
+        clientList.setPlaceholder(new Label("Brak klientów"));
+
+        Runnable lookup = () -> {
+            String q = clientSearch.getText();
+            clients.search(q, CLIENT_SUGGESTIONS).whenCompleteAsync((found, err) -> {
+                if (err != null) {
+                    showError(DbAsync.unwrap(err));
+                    return;
+                }
+                // odpowiedź na starsze zapytanie (wyszukiwanie po stronie serwera) - pomijamy
+                if (!Objects.equals(q, clientSearch.getText())) return;
+                ClientRow keep = clientList.getSelectionModel().getSelectedItem();
+                clientList.getItems().setAll(found);
+                if (keep != null && found.contains(keep)) clientList.getSelectionModel().select(keep);
+            }, DbAsync.FX);
+        };
+        clientSearch.textProperty().addListener((obs, a, b) -> lookup.run());
+        lookup.run();
+
+        VBox clientBox = new VBox(6, clientSearch, clientList);
 
         DatePicker startPicker = new DatePicker();
         DatePicker endPicker = new DatePicker();
@@ -423,18 +1175,29 @@ public class App extends Application {
         Node okButton = dialog.getDialogPane().lookupButton(rentBtn);
         okButton.setDisable(true);
 
+        ReadOnlyObjectProperty<ClientRow> selectedClient = clientList.getSelectionModel().selectedItemProperty();
+
         Runnable validate = () -> {
-            boolean valid =
-                    clientBox.getValue() != null &&
+            boolean datesOk =
                     startPicker.getValue() != null &&
                     endPicker.getValue() != null &&
                     !endPicker.getValue().isBefore(startPicker.getValue());
+            String problem = datesOk ? rentProblem(cars, startPicker.getValue(), endPicker.getValue()) : null;
+
+            boolean valid = selectedClient.get() != null && datesOk && problem == null;
 
-            if (startPicker.getValue() != null && endPicker.getValue() != null && !endPicker.getValue().isBefore(startPicker.getValue())) {
+            if (problem != null) {
+                totalLabel.setText(problem);
+            } else if (datesOk) {
+                // wycena z cennika w pamięci; ostateczną cenę zapisuje Db.rentCar według tych samych reguł
                 int days = daysInclusive(startPicker.getValue(), endPicker.getValue());
-                BigDecimal daily = parseMoney(car.getDailyPrice());
-                BigDecimal total = daily.multiply(BigDecimal.valueOf(days));
-                totalLabel.setText(total.toPlainString() + " PLN (" + days + " dni)");
+                RateTable rates = DbAsync.repository().quotes().current();
+                int clientId = selectedClient.get() == null ? 0 : selectedClient.get().getClientId();
+                long from = startPicker.getValue().toEpochDay();
+                long to = endPicker.getValue().toEpochDay();
+                long total = 0;
+                for (CarRow car : cars) total += rates.total(clientId, car.getDailyPriceMinor(), from, to);
+                totalLabel.setText(Money.format(total) + " PLN (" + days + " dni)");
             } else {
                 totalLabel.setText("0.00 PLN");
             }
@@ -442,16 +1205,16 @@ public class App extends Application {
             okButton.setDisable(!valid);
         };
 
-        clientBox.valueProperty().addListener((obs, a, b) -> validate.run());
+        selectedClient.addListener((obs, a, b) -> validate.run());
         startPicker.valueProperty().addListener((obs, a, b) -> validate.run());
         endPicker.valueProperty().addListener((obs, a, b) -> validate.run());
 
         dialog.setResultConverter(button -> {
             if (button == rentBtn) {
-                ClientRow client = clientBox.getValue();
+                ClientRow client = selectedClient.get();
                 Date start = Date.valueOf(startPicker.getValue());
                 Date end = Date.valueOf(endPicker.getValue());
-                return new RentData(client.getClientId(), car.getCarId(), start, end);
+                return new RentData(client.getClientId(), start, end);
             }
             return null;
         });
@@ -459,18 +1222,26 @@ public class App extends Application {
         return dialog;
     }
 
+    // Szybka kontrola po stronie klienta; ostatecznie decyduje kontrola w Db.rentCar
+    private String rentProblem(List<CarRow> cars, LocalDate start, LocalDate end) {
+        boolean startsNow = !start.isAfter(LocalDate.now());
+        for (CarRow c : cars) {
+            if (startsNow && c.getStatus() != CarStatus.AVAILABLE) {
+                return c.getBrand() + " " + c.getModel() + ": auto nie jest teraz dostępne.";
+            }
+            if (!availability.isFree(c.getCarId(), start, end)) {
+                return c.getBrand() + " " + c.getModel() + ": termin zajęty.";
+            }
+        }
+        return null;
+    }
+
     private int daysInclusive(LocalDate start, LocalDate end) {
         long days = ChronoUnit.DAYS.between(start, end) + 1;
         return (int) Math.max(days, 0);
     }
 
-    private BigDecimal parseMoney(String s) {
-        if (s == null) return BigDecimal.ZERO;
-        String normalized = s.trim().replace(",", ".");
-        return new BigDecimal(normalized);
-    }
-
-    private void showError(Exception ex) {
+    private void showError(Throwable ex) {
         Alert alert = new Alert(Alert.AlertType.ERROR);
         alert.setTitle("Błąd");
         alert.setHeaderText("Wystąpił błąd");
@@ -478,21 +1249,43 @@ public class App extends Application {
         alert.showAndWait();
     }
 
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ObservableValue<CarStatus>[] statusValues() {
+        CarStatus[] all = CarStatus.values();
+        ObservableValue<CarStatus>[] out = new ObservableValue[all.length];
+        for (CarStatus s : all) out[s.ordinal()] = new ReadOnlyObjectWrapper<CarStatus>(s).getReadOnlyProperty();
+        return out;
+    }
+
     private static class RentData {
         final int clientId;
-        final int carId;
         final Date startDate;
         final Date endDate;
 
-        RentData(int clientId, int carId, Date startDate, Date endDate) {
+        RentData(int clientId, Date startDate, Date endDate) {
             this.clientId = clientId;
-            this.carId = carId;
             this.startDate = startDate;
             this.endDate = endDate;
         }
     }
 
-    public static void main(String[] args) {
-        launch();
+    public static void main(String[] args) throws Exception {
+        // Test obciążeniowy bez okna (LoadGenerator)
+        if (List.of(args).contains("--load") || Boolean.getBoolean("wypozyczalnia.load")) {
+            LoadGenerator.main(args);
+            return;
+        }
+        // Serwer HTTP/JSON dla terminali w oddziałach (RentalServer), bez okna
+        if (List.of(args).contains("--server") || Boolean.getBoolean("wypozyczalnia.server")) {
+            RentalServer.main(args);
+            return;
+        }
+        launch(args);
+    }
+
+    // -Dwypozyczalnia.api=http://serwer:8080 albo --api=http://serwer:8080
+    private String apiUrl() {
+        String url = getParameters().getNamed().get("api");
+        return url != null ? url : System.getProperty("wypozyczalnia.api");
     }
 }
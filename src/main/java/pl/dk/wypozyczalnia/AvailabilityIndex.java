@@ -0,0 +1,121 @@
+package pl.dk.wypozyczalnia;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Indeks terminów wypożyczeń per auto (aktywne wypożyczenia + rezerwacje).
+// Dla każdego auta trzymamy posortowane tablice przedziałów [start, end] (dni epoki, obustronnie domknięte)
+// i prefiksowe maksimum końców - pytanie o kolizję to jedno wyszukiwanie binarne.
+// Tablice są niezmienne; zmiana podmienia cały wpis auta (czytanie bez blokad).
+public class AvailabilityIndex {
+
+    public record Booking(int carId, LocalDate start, LocalDate end) {}
+
+    private static final class Intervals {
+        static final Intervals EMPTY = new Intervals(new long[0], new long[0]);
+
+        final long[] starts;
+        final long[] ends;
+        final long[] maxEnd; // maxEnd[i] = max(ends[0..i]) - działa też dla nakładających się danych historycznych
+
+        Intervals(long[] starts, long[] ends) {
+            this.starts = starts;
+            this.ends = ends;
+            this.maxEnd = new long[ends.length];
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < ends.length; i++) {
+                max = Math.max(max, ends[i]);
+                maxEnd[i] = max;
+            }
+        }
+
+        static Intervals of(List<long[]> ranges) {
+            ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+            long[] s = new long[ranges.size()];
+            long[] e = new long[ranges.size()];
+            for (int i = 0; i < s.length; i++) {
+                s[i] = ranges.get(i)[0];
+                e[i] = ranges.get(i)[1];
+            }
+            return new Intervals(s, e);
+        }
+
+        boolean overlaps(long from, long to) {
+            // ostatni przedział z początkiem <= to
+            int idx = Arrays.binarySearch(starts, to);
+            if (idx < 0) idx = -idx - 2;
+            else while (idx + 1 < starts.length && starts[idx + 1] == to) idx++;
+            return idx >= 0 && maxEnd[idx] >= from;
+        }
+
+        Intervals with(long from, long to) {
+            List<long[]> ranges = toList();
+            ranges.add(new long[]{from, to});
+            return of(ranges);
+        }
+
+        // usuwa przedziały rozpoczęte najpóźniej w danym dniu (trwające wypożyczenie); przyszłe rezerwacje zostają
+        Intervals releasedOn(long day) {
+            List<long[]> ranges = toList();
+            ranges.removeIf(r -> r[0] <= day);
+            return of(ranges);
+        }
+
+        List<long[]> toList() {
+            List<long[]> out = new ArrayList<>(starts.length + 1);
+            for (int i = 0; i < starts.length; i++) out.add(new long[]{starts[i], ends[i]});
+            return out;
+        }
+    }
+
+    private final Map<Integer, Intervals> byCar = new ConcurrentHashMap<>();
+
+    public void load(Collection<Booking> bookings) {
+        byCar.clear();
+        byCar.putAll(build(bookings));
+    }
+
+    // Podmiana danych wybranych aut (np. po powiadomieniu o zmianie z innego stanowiska)
+    public void reload(Collection<Integer> carIds, Collection<Booking> bookings) {
+        Map<Integer, Intervals> fresh = build(bookings);
+        for (Integer id : carIds) {
+            Intervals iv = fresh.get(id);
+            if (iv == null) byCar.remove(id);
+            else byCar.put(id, iv);
+        }
+    }
+
+    public void add(int carId, LocalDate start, LocalDate end) {
+        byCar.compute(carId, (id, old) ->
+                (old == null ? Intervals.EMPTY : old).with(start.toEpochDay(), end.toEpochDay()));
+    }
+
+    public void release(int carId, LocalDate day) {
+        byCar.computeIfPresent(carId, (id, old) -> {
+            Intervals next = old.releasedOn(day.toEpochDay());
+            return next.starts.length == 0 ? null : next;
+        });
+    }
+
+    public boolean isFree(int carId, LocalDate start, LocalDate end) {
+        Intervals iv = byCar.get(carId);
+        return iv == null || !iv.overlaps(start.toEpochDay(), end.toEpochDay());
+    }
+
+    private static Map<Integer, Intervals> build(Collection<Booking> bookings) {
+        Map<Integer, List<long[]>> grouped = new HashMap<>();
+        for (Booking b : bookings) {
+            grouped.computeIfAbsent(b.carId(), k -> new ArrayList<>())
+                    .add(new long[]{b.start().toEpochDay(), b.end().toEpochDay()});
+        }
+        Map<Integer, Intervals> out = new HashMap<>(grouped.size() * 2);
+        grouped.forEach((id, ranges) -> out.put(id, Intervals.of(ranges)));
+        return out;
+    }
+}
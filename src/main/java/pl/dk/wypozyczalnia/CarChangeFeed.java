@@ -0,0 +1,149 @@
+package pl.dk.wypozyczalnia;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Nasłuch zmian floty (LISTEN/NOTIFY) na osobnym połączeniu.
+// Powiadomienia są zbierane w paczki i przekazywane do konsumenta;
+// po zerwaniu połączenia następuje ponowne połączenie i wywołanie onReconnect (nadrabianie).
+public class CarChangeFeed implements AutoCloseable {
+
+    public static final String CHANNEL = "car_changed";
+
+    private static final int POLL_MS = 500;
+    private static final long BATCH_WINDOW_MS = 100;
+    private static final long MAX_BACKOFF_MS = 30_000;
+    // bez ruchu na kanale sprawdzamy co jakiś czas, czy połączenie żyje
+    private static final long HEARTBEAT_MS = 30_000;
+
+    private final String url;
+    private final String user;
+    private final String pass;
+    private final Consumer<List<CarChange>> onChanges;
+    private final Runnable onReconnect;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+    private volatile Connection conn;
+
+    public record CarChange(int carId, CarStatus status) {
+
+        // format payloadu: "<car_id>:<status>"
+        static CarChange parse(String payload) {
+            int sep = payload.indexOf(':');
+            if (sep <= 0) return null;
+            try {
+                return new CarChange(Integer.parseInt(payload.substring(0, sep)), CarStatus.of(payload.substring(sep + 1)));
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+
+        static String payload(int carId, String status) {
+            return carId + ":" + status;
+        }
+    }
+
+    CarChangeFeed(String url, String user, String pass,
+                  Consumer<List<CarChange>> onChanges, Runnable onReconnect) {
+        this.url = url;
+        this.user = user;
+        this.pass = pass;
+        this.onChanges = onChanges;
+        this.onReconnect = onReconnect;
+        this.thread = new Thread(this::run, "car-change-feed");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+        Connection c = conn;
+        if (c != null) {
+            try { c.close(); } catch (SQLException ignored) {}
+        }
+    }
+
+    private void run() {
+        long backoff = 1_000;
+        boolean firstConnect = true;
+
+        while (running) {
+            try (Connection c = DriverManager.getConnection(url, user, pass)) {
+                conn = c;
+                try (Statement st = c.createStatement()) {
+                    st.execute("LISTEN " + CHANNEL);
+                }
+                backoff = 1_000;
+
+                if (!firstConnect) onReconnect.run();
+                firstConnect = false;
+
+                listen(c, c.unwrap(PGConnection.class));
+            } catch (SQLException ex) {
+                if (!running) return;
+                System.out.println("WARN: nasłuch zmian przerwany (" + ex.getMessage() + "), ponawiam za " + backoff + " ms.");
+            } finally {
+                conn = null;
+            }
+
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+        }
+    }
+
+    private void listen(Connection c, PGConnection pg) throws SQLException {
+        // ostatni status per auto w obrębie jednej paczki
+        Map<Integer, CarChange> batch = new LinkedHashMap<>();
+        long lastActivity = System.currentTimeMillis();
+
+        while (running) {
+            collect(pg.getNotifications(POLL_MS), batch);
+            if (batch.isEmpty()) {
+                if (System.currentTimeMillis() - lastActivity > HEARTBEAT_MS) {
+                    if (!c.isValid(5)) throw new SQLException("Połączenie nasłuchu nie odpowiada.");
+                    lastActivity = System.currentTimeMillis();
+                }
+                continue;
+            }
+            lastActivity = System.currentTimeMillis();
+
+            // krótkie okno na dozbieranie kolejnych powiadomień
+            long deadline = System.currentTimeMillis() + BATCH_WINDOW_MS;
+            long left;
+            while ((left = deadline - System.currentTimeMillis()) > 0) {
+                collect(pg.getNotifications((int) left), batch);
+            }
+
+            onChanges.accept(new ArrayList<>(batch.values()));
+            batch.clear();
+        }
+    }
+
+    private static void collect(PGNotification[] notifications, Map<Integer, CarChange> batch) {
+        if (notifications == null) return;
+        for (PGNotification n : notifications) {
+            CarChange change = CarChange.parse(n.getParameter());
+            if (change != null) batch.put(change.carId(), change);
+        }
+    }
+}
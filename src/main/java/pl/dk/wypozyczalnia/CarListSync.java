@@ -0,0 +1,73 @@
+package pl.dk.wypozyczalnia;
+
+import javafx.collections.ObservableList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Scalanie zmian w liście aut "w miejscu" (po car_id), bez setAll -
+// FilteredList/SortedList dostają drobne zmiany zamiast przebudowy.
+final class CarListSync {
+
+    private CarListSync() {}
+
+    // Podmienia/dopisuje zmienione wiersze. Zwraca liczbę faktycznych zmian.
+    static int merge(ObservableList<CarRow> target, Collection<CarRow> changed) {
+        if (changed.isEmpty()) return 0;
+
+        Map<Integer, Integer> index = indexById(target);
+        Map<Integer, CarRow> added = new LinkedHashMap<>();
+        int changes = 0;
+        for (CarRow row : changed) {
+            Integer pos = index.get(row.getCarId());
+            if (pos == null) {
+                added.put(row.getCarId(), row);
+            } else if (!target.get(pos).sameAs(row)) {
+                target.set(pos, row);
+                changes++;
+            }
+        }
+        // nowe wiersze jedną zmianą (słuchacze listy przebudowują się raz)
+        target.addAll(added.values());
+        return changes + added.size();
+    }
+
+    // Pełna synchronizacja: jak merge, ale dodatkowo usuwa auta, których już nie ma.
+    static int replaceAll(ObservableList<CarRow> target, List<CarRow> fresh) {
+        Set<Integer> ids = new HashSet<>();
+        for (CarRow row : fresh) ids.add(row.getCarId());
+
+        List<CarRow> gone = new ArrayList<>();
+        for (CarRow row : target) {
+            if (!ids.contains(row.getCarId())) gone.add(row);
+        }
+        target.removeAll(gone);
+        return gone.size() + merge(target, fresh);
+    }
+
+    // Aktualizacja jednego auta; row == null oznacza, że auto zniknęło z bazy.
+    static void update(ObservableList<CarRow> target, int carId, CarRow row) {
+        for (int i = 0; i < target.size(); i++) {
+            if (target.get(i).getCarId() == carId) {
+                if (row == null) target.remove(i);
+                else if (!target.get(i).sameAs(row)) target.set(i, row);
+                return;
+            }
+        }
+        if (row != null) target.add(row);
+    }
+
+    private static Map<Integer, Integer> indexById(List<CarRow> rows) {
+        Map<Integer, Integer> index = new HashMap<>(rows.size() * 2);
+        for (int i = 0; i < rows.size(); i++) {
+            index.put(rows.get(i).getCarId(), i);
+        }
+        return index;
+    }
+}
@@ -1,20 +1,52 @@
 package pl.dk.wypozyczalnia;
 
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class CarRow {
-    public int carId;
-    public String brand;
-    public String model;
-    public int year;
-    public String dailyPrice;
-    public String status;
-
-    public CarRow(int carId, String brand, String model, int year, String dailyPrice, String status) {
+    public final int carId;
+    public final String brand;        // internowane (do MAX_NAMES) - wiele aut dzieli te same napisy
+    public final String model;
+    public final int year;
+    public final long dailyPriceMinor; // grosze
+    public final CarStatus status;
+    public final String rawStatus;    // wartość z bazy tylko dla UNKNOWN (inaczej null) - do podpowiedzi w tabeli
+
+    // pozycja w CarSearchIndex (-1 = nie zaindeksowany)
+    int searchPos = -1;
+
+    // Słownik marek/modeli: zwykle kilkadziesiąt różnych wartości na całą flotę. Ograniczony - po
+    // MAX_NAMES nowe napisy (np. dziwne dane z importu) nie są już zapamiętywane, tylko używane wprost
+    private static final int MAX_NAMES = Integer.getInteger("wypozyczalnia.names.max", 4_096);
+    private static final Map<String, String> NAMES = new ConcurrentHashMap<>();
+
+    public CarRow(int carId, String brand, String model, int year, long dailyPriceMinor, CarStatus status) {
+        this(carId, brand, model, year, dailyPriceMinor, status, null);
+    }
+
+    // Status prosto z kolumny car.status (albo CSV/JSON); nierozpoznany zapis zostaje w rawStatus
+    public CarRow(int carId, String brand, String model, int year, long dailyPriceMinor, String status) {
+        this(carId, brand, model, year, dailyPriceMinor, CarStatus.of(status), status);
+    }
+
+    private CarRow(int carId, String brand, String model, int year, long dailyPriceMinor, CarStatus status, String raw) {
         this.carId = carId;
-        this.brand = brand;
-        this.model = model;
+        this.brand = intern(brand);
+        this.model = intern(model);
         this.year = year;
-        this.dailyPrice = dailyPrice;
+        this.dailyPriceMinor = dailyPriceMinor;
         this.status = status;
+        this.rawStatus = status == CarStatus.UNKNOWN ? raw : null;
+    }
+
+    static String intern(String s) {
+        if (s == null) return null;
+        String prev = NAMES.get(s);
+        if (prev != null) return prev;
+        if (NAMES.size() >= MAX_NAMES) return s;
+        prev = NAMES.putIfAbsent(s, s);
+        return prev == null ? s : prev;
     }
 
     // potrzebne dla PropertyValueFactory
@@ -22,6 +54,25 @@ public class CarRow {
     public String getBrand() { return brand; }
     public String getModel() { return model; }
     public int getYear() { return year; }
-    public String getDailyPrice() { return dailyPrice; }
-    public String getStatus() { return status; }
+    public long getDailyPriceMinor() { return dailyPriceMinor; }
+    public String getDailyPrice() { return Money.format(dailyPriceMinor); }
+    public CarStatus getStatus() { return status; }
+    public String getStatusText() { return rawStatus != null ? rawStatus : status.name(); }
+
+    public CarRow withStatus(CarStatus newStatus) {
+        return new CarRow(carId, brand, model, year, dailyPriceMinor, newStatus);
+    }
+
+    // porównanie zawartości - przy scalaniu delty pomijamy wiersze, które się nie zmieniły
+    // (marka/model zwykle internowane, więc equals kończy się na ==)
+    public boolean sameAs(CarRow o) {
+        return o != null
+                && carId == o.carId
+                && year == o.year
+                && dailyPriceMinor == o.dailyPriceMinor
+                && status == o.status
+                && Objects.equals(rawStatus, o.rawStatus)
+                && Objects.equals(brand, o.brand)
+                && Objects.equals(model, o.model);
+    }
 }
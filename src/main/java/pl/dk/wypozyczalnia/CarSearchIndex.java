@@ -0,0 +1,165 @@
+package pl.dk.wypozyczalnia;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Indeks wyszukiwania aut dla filtra w tabeli, budowany przy zmianie masterCars.
+// Klucze marka/model są znormalizowane raz (TextNorm), fragmenty szukane są przez listy
+// trigramów, a status przez mapy bitowe - filtrowanie nie tworzy napisów per wiersz.
+// Pozycja w indeksie = pozycja w masterCars (zapisywana w CarRow.searchPos).
+final class CarSearchIndex {
+
+    private CarRow[] rows = new CarRow[0];
+    private String[] keys = new String[0];   // "marka\nmodel" (separator nie wystąpi w zapytaniu)
+    private Map<Long, int[]> trigrams = new HashMap<>();
+    private final BitSet available = new BitSet();
+    private final BitSet rented = new BitSet();
+    private final BitSet service = new BitSet();
+    private final BitSet all = new BitSet();
+
+    private int version;             // zmienia się tylko przy przebudowie (klucze tekstowe)
+    // wynik poprzedniego zapytania - gdy nowe jest jego przedłużeniem, zawężamy zamiast liczyć od nowa
+    private String lastQuery;
+    private BitSet lastMatches;
+    private int lastVersion = -1;
+
+    void rebuild(List<CarRow> list) {
+        int n = list.size();
+        rows = list.toArray(new CarRow[0]);
+        keys = new String[n];
+        available.clear();
+        rented.clear();
+        service.clear();
+        all.clear();
+        all.set(0, n);
+
+        Map<Long, int[]> lists = new HashMap<>();
+        Map<Long, Integer> sizes = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            CarRow row = rows[i];
+            row.searchPos = i;
+            keys[i] = TextNorm.fold(row.getBrand()) + "\n" + TextNorm.fold(row.getModel());
+            setStatus(i, row.getStatus());
+
+            String k = keys[i];
+            for (int j = 0; j + 3 <= k.length(); j++) {
+                Long t = TextNorm.trigram(k, j);
+                int size = sizes.getOrDefault(t, 0);
+                int[] arr = lists.get(t);
+                if (size > 0 && arr[size - 1] == i) continue;
+                if (arr == null) arr = new int[4];
+                else if (size == arr.length) arr = Arrays.copyOf(arr, size * 2);
+                arr[size] = i;
+                lists.put(t, arr);
+                sizes.put(t, size + 1);
+            }
+        }
+
+        Map<Long, int[]> postings = new HashMap<>(lists.size() * 2);
+        lists.forEach((t, arr) -> postings.put(t, Arrays.copyOf(arr, sizes.get(t))));
+        trigrams = postings;
+        version++;
+    }
+
+    // Podmiana wiersza na tej samej pozycji. Gdy marka/model bez zmian, wystarczy przestawić bity statusu.
+    // Zwraca false, jeśli potrzebna jest pełna przebudowa.
+    boolean replace(int pos, CarRow row) {
+        if (pos < 0 || pos >= rows.length) return false;
+        CarRow old = rows[pos];
+        if (old.getBrand() != row.getBrand() || old.getModel() != row.getModel()) {
+            return false;
+        }
+        rows[pos] = row;
+        row.searchPos = pos;
+        available.clear(pos);
+        rented.clear(pos);
+        service.clear(pos);
+        setStatus(pos, row.getStatus());
+        return true;
+    }
+
+    int size() {
+        return rows.length;
+    }
+
+    // Czy wiersz jest w indeksie (nowy/podmieniony wiersz trafia tu dopiero po przebudowie)
+    boolean isIndexed(CarRow row) {
+        int pos = row.searchPos;
+        return pos >= 0 && pos < rows.length && rows[pos] == row;
+    }
+
+    // Maska pozycji pasujących do zapytania (zapytanie już po TextNorm.fold). Wynik tylko do odczytu.
+    BitSet match(String q) {
+        if (q.isEmpty()) return all;
+        if (lastVersion == version && q.equals(lastQuery)) return lastMatches;
+
+        BitSet result;
+        if (lastVersion == version && lastQuery != null && !lastQuery.isEmpty() && q.startsWith(lastQuery)) {
+            result = narrow(lastMatches, q);
+        } else if (q.length() >= 3) {
+            result = byTrigrams(q);
+        } else {
+            result = narrow(all, q);
+        }
+
+        lastQuery = q;
+        lastMatches = result;
+        lastVersion = version;
+        return result;
+    }
+
+    BitSet statusMask(CarStatus status) {
+        switch (status) {
+            case AVAILABLE: return available;
+            case RENTED: return rented;
+            case SERVICE: return service;
+            default: return all;
+        }
+    }
+
+    private BitSet narrow(BitSet candidates, String q) {
+        BitSet out = new BitSet(rows.length);
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (keys[i].contains(q)) out.set(i);
+        }
+        return out;
+    }
+
+    private BitSet byTrigrams(String q) {
+        int[] candidates = null;
+        for (int i = 0; i + 3 <= q.length(); i++) {
+            int[] postings = trigrams.get(TextNorm.trigram(q, i));
+            if (postings == null) return new BitSet();
+            candidates = (candidates == null) ? postings : intersect(candidates, postings);
+            if (candidates.length == 0) return new BitSet();
+        }
+        BitSet out = new BitSet(rows.length);
+        for (int c : candidates) {
+            if (keys[c].contains(q)) out.set(c);
+        }
+        return out;
+    }
+
+    private void setStatus(int pos, CarStatus status) {
+        switch (status) {
+            case AVAILABLE -> available.set(pos);
+            case RENTED -> rented.set(pos);
+            case SERVICE -> service.set(pos);
+            default -> { }
+        }
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else { out[n++] = a[i]; i++; j++; }
+        }
+        return Arrays.copyOf(out, n);
+    }
+}
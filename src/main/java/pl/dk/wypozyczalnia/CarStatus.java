@@ -0,0 +1,34 @@
+package pl.dk.wypozyczalnia;
+
+// Status auta jako stała - porównania przez ==, bez toUpperCase/equalsIgnoreCase przy każdym użyciu
+public enum CarStatus {
+    AVAILABLE("Dostępne"),
+    RENTED("Wypożyczone"),
+    SERVICE("Serwis"),
+    UNKNOWN("Nieznany status");
+
+    private final String label;
+
+    CarStatus(String label) {
+        this.label = label;
+    }
+
+    public String label() {
+        return label;
+    }
+
+    // Wartość z kolumny car.status (w bazie wielkimi literami; inne zapisy tylko awaryjnie)
+    public static CarStatus of(String db) {
+        if (db == null) return UNKNOWN;
+        switch (db) {
+            case "AVAILABLE": return AVAILABLE;
+            case "RENTED": return RENTED;
+            case "SERVICE": return SERVICE;
+            default:
+                for (CarStatus s : values()) {
+                    if (s.name().equalsIgnoreCase(db)) return s;
+                }
+                return UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package pl.dk.wypozyczalnia;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Pamięć podręczna klientów z indeksem do podpowiadania w oknie wypożyczenia.
+// - do maxCached klientów: cała lista w pamięci (TTL + invalidate), indeks prefiksowy
+//   (posortowane klucze "nazwisko imię" i "imię nazwisko") oraz trigramowy (wyszukiwanie w środku słowa)
+// - powyżej: wyszukiwanie po stronie serwera z LIMIT
+public class ClientDirectory {
+
+    private final long ttlNanos;
+    private final int maxCached;
+
+    private volatile Snapshot snapshot;              // null = brak danych w pamięci
+    private volatile boolean serverMode = false;
+    private CompletableFuture<Void> loading;         // ostatnie ładowanie (równoległe żądania dostają to samo)
+
+    public ClientDirectory(long ttlMillis, int maxCached) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxCached = maxCached;
+    }
+
+    // Ładuje (lub odświeża po TTL) w tle; do tego czasu search() korzysta z poprzednich danych.
+    public synchronized CompletableFuture<Void> warmUp() {
+        Snapshot s = snapshot;
+        boolean fresh = s != null && System.nanoTime() - s.loadedAt < ttlNanos;
+        if (fresh || serverMode) return CompletableFuture.completedFuture(null);
+        if (loading != null && !loading.isDone()) return loading;
+
+        loading = DbAsync.supply(() -> {
+            RentalRepository repo = DbAsync.repository();
+            if (repo.countClients() > maxCached) {
+                serverMode = true;
+                snapshot = null;
+            } else {
+                snapshot = new Snapshot(repo.listClients(), System.nanoTime());
+            }
+            return null;
+        }).thenApply(v -> null);
+        return loading;
+    }
+
+    // Dane z lokalnej kopii (start bez bazy): od razu do podpowiedzi, ale traktowane jak
+    // przeterminowane - pierwsze warmUp() wczyta aktualną listę w tle.
+    public synchronized void seed(List<ClientRow> list) {
+        if (snapshot == null && !serverMode && list.size() <= maxCached) {
+            snapshot = new Snapshot(list, System.nanoTime() - ttlNanos - 1);
+        }
+    }
+
+    // Aktualnie trzymana lista (do zapisu lokalnej kopii); pusta w trybie serwerowym
+    public List<ClientRow> cached() {
+        Snapshot s = snapshot;
+        return (s == null) ? List.of() : Arrays.asList(s.clients);
+    }
+
+    public synchronized void invalidate() {
+        snapshot = null;
+        serverMode = false;
+    }
+
+    public CompletableFuture<List<ClientRow>> search(String query, int limit) {
+        Snapshot s = snapshot;
+        if (s != null) {
+            warmUp(); // po TTL odśwież w tle
+            return CompletableFuture.completedFuture(s.search(query, limit));
+        }
+        if (serverMode) {
+            return DbAsync.supply(() -> DbAsync.repository().searchClients(query, limit));
+        }
+        return warmUp().thenCompose(v -> search(query, limit));
+    }
+
+    private static final class Snapshot {
+        final long loadedAt;
+        final ClientRow[] clients;      // kolejność jak z bazy (nazwisko, imię)
+        final String[] fullKeys;        // "imie nazwisko" znormalizowane, per klient
+        final String[] keys;            // posortowane klucze prefiksowe
+        final int[] keyOwner;           // keys[i] należy do clients[keyOwner[i]]
+        final Map<Long, int[]> trigrams;
+
+        Snapshot(List<ClientRow> list, long loadedAt) {
+            this.loadedAt = loadedAt;
+            clients = list.toArray(new ClientRow[0]);
+            fullKeys = new String[clients.length];
+
+            String[] rawKeys = new String[clients.length * 2];
+            for (int i = 0; i < clients.length; i++) {
+                String first = TextNorm.fold(clients[i].getFirstName());
+                String last = TextNorm.fold(clients[i].getLastName());
+                fullKeys[i] = first + " " + last;
+                rawKeys[2 * i] = last + " " + first;
+                rawKeys[2 * i + 1] = fullKeys[i];
+            }
+            Integer[] order = new Integer[rawKeys.length];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> rawKeys[a].compareTo(rawKeys[b]));
+
+            keys = new String[rawKeys.length];
+            keyOwner = new int[rawKeys.length];
+            for (int i = 0; i < order.length; i++) {
+                keys[i] = rawKeys[order[i]];
+                keyOwner[i] = order[i] / 2;
+            }
+
+            trigrams = buildTrigrams(fullKeys);
+        }
+
+        List<ClientRow> search(String query, int limit) {
+            String q = TextNorm.fold(query == null ? "" : query.trim());
+            List<ClientRow> out = new ArrayList<>(Math.min(limit, 64));
+
+            if (q.isEmpty()) {
+                for (int i = 0; i < clients.length && out.size() < limit; i++) out.add(clients[i]);
+                return out;
+            }
+
+            // 1) prefiks nazwiska lub imienia
+            BitSet taken = new BitSet(clients.length);
+            int pos = lowerBound(keys, q);
+            for (int i = pos; i < keys.length && out.size() < limit && keys[i].startsWith(q); i++) {
+                int owner = keyOwner[i];
+                if (!taken.get(owner)) {
+                    taken.set(owner);
+                    out.add(clients[owner]);
+                }
+            }
+
+            // 2) fragment w środku (trigramy), potwierdzany przez contains
+            if (out.size() < limit && q.length() >= 3) {
+                int[] candidates = null;
+                for (int i = 0; i + 3 <= q.length(); i++) {
+                    int[] postings = trigrams.get(TextNorm.trigram(q, i));
+                    if (postings == null) return out;
+                    candidates = (candidates == null) ? postings : intersect(candidates, postings);
+                    if (candidates.length == 0) return out;
+                }
+                for (int c : candidates) {
+                    if (out.size() >= limit) break;
+                    if (!taken.get(c) && fullKeys[c].contains(q)) {
+                        taken.set(c);
+                        out.add(clients[c]);
+                    }
+                }
+            }
+            return out;
+        }
+
+        private static Map<Long, int[]> buildTrigrams(String[] fullKeys) {
+            Map<Long, int[]> lists = new HashMap<>();
+            Map<Long, Integer> sizes = new HashMap<>();
+            for (int id = 0; id < fullKeys.length; id++) {
+                String k = fullKeys[id];
+                for (int i = 0; i + 3 <= k.length(); i++) {
+                    Long t = TextNorm.trigram(k, i);
+                    int[] arr = lists.get(t);
+                    int n = sizes.getOrDefault(t, 0);
+                    if (n > 0 && arr[n - 1] == id) continue; // ten sam trigram dwa razy w jednym kluczu
+                    if (arr == null) arr = new int[4];
+                    else if (n == arr.length) arr = Arrays.copyOf(arr, n * 2);
+                    arr[n] = id;
+                    lists.put(t, arr);
+                    sizes.put(t, n + 1);
+                }
+            }
+            Map<Long, int[]> out = new HashMap<>(lists.size() * 2);
+            lists.forEach((t, arr) -> out.put(t, Arrays.copyOf(arr, sizes.get(t))));
+            return out;
+        }
+
+        // obie listy rosnące (id klientów)
+        private static int[] intersect(int[] a, int[] b) {
+            int[] out = new int[Math.min(a.length, b.length)];
+            int i = 0, j = 0, n = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) i++;
+                else if (a[i] > b[j]) j++;
+                else { out[n++] = a[i]; i++; j++; }
+            }
+            return Arrays.copyOf(out, n);
+        }
+
+        private static int lowerBound(String[] sorted, String key) {
+            int lo = 0, hi = sorted.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sorted[mid].compareTo(key) < 0) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+}
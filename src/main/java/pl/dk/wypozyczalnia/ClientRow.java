@@ -15,6 +15,14 @@ public class ClientRow {
         return clientId;
     }
 
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
     public String getDisplayName() {
         return firstName + " " + lastName;
     }
@@ -0,0 +1,281 @@
+package pl.dk.wypozyczalnia;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Prosta pula połączeń JDBC: min/max, wygaszanie bezczynnych,
+// walidacja przy pobraniu, cache PreparedStatement per połączenie.
+public class ConnectionPool implements AutoCloseable {
+
+    // połączenie używane krócej niż to okno nie jest ponownie walidowane (oszczędzamy round trip)
+    private static final long VALIDATION_BYPASS_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String user;
+    private final String pass;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutNanos;
+    private final long borrowTimeoutMillis;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder borrowNanos = new LongAdder();
+    private final AtomicLong maxBorrowNanos = new AtomicLong();
+    private final ScheduledExecutorService housekeeper;
+
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, String user, String pass,
+                          int minSize, int maxSize,
+                          long idleTimeoutMillis, long borrowTimeoutMillis,
+                          int statementCacheSize) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Niepoprawny rozmiar puli: min=" + minSize + ", max=" + maxSize);
+        }
+        // Lease.prepare zwraca polecenie z cache, którego wywołujący nie zamyka - bez miejsca w cache
+        // removeEldestEntry zamknąłby właśnie dodane polecenie
+        if (statementCacheSize < 1) {
+            throw new IllegalArgumentException("Cache poleceń musi mieć co najmniej 1 miejsce (jest " + statementCacheSize + ").");
+        }
+        this.url = url;
+        this.user = user;
+        this.pass = pass;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public Lease borrow() throws SQLException {
+        if (closed) throw new SQLException("Pula połączeń jest zamknięta.");
+
+        long t0 = System.nanoTime();
+        boolean acquired;
+        waiters.incrementAndGet();
+        try {
+            acquired = permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Przerwano oczekiwanie na połączenie z bazą.", e);
+        } finally {
+            waiters.decrementAndGet();
+        }
+        if (!acquired) {
+            throw new SQLTimeoutException("Brak wolnego połączenia z bazą (czekano " + borrowTimeoutMillis + " ms).");
+        }
+
+        try {
+            PooledConnection pc;
+            while ((pc = idle.pollFirst()) != null) {
+                if (pc.isUsable(System.nanoTime())) break;
+                discard(pc);
+            }
+            if (pc == null) pc = open();
+
+            active.incrementAndGet();
+            recordBorrow(System.nanoTime() - t0);
+            return new Lease(pc);
+        } catch (SQLException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    public Stats stats() {
+        long n = borrows.sum();
+        double avgMicros = n == 0 ? 0 : borrowNanos.sum() / 1000.0 / n;
+        return new Stats(active.get(), idle.size(), total.get(), waiters.get(), n,
+                avgMicros, maxBorrowNanos.get() / 1000.0);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) discard(pc);
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection conn = DriverManager.getConnection(url, user, pass);
+        total.incrementAndGet();
+        return new PooledConnection(conn, statementCacheSize);
+    }
+
+    private void release(PooledConnection pc, boolean broken) {
+        active.decrementAndGet();
+        try {
+            if (broken || closed) {
+                discard(pc);
+            } else {
+                pc.lastUsedNanos = System.nanoTime();
+                idle.offerFirst(pc); // LIFO: najcieplejsze połączenie idzie pierwsze
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pc) {
+        total.decrementAndGet();
+        pc.closeQuietly();
+    }
+
+    private void recordBorrow(long nanos) {
+        borrows.increment();
+        borrowNanos.add(nanos);
+        maxBorrowNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private void housekeep() {
+        long now = System.nanoTime();
+
+        // wygaszanie: usuwamy najdłużej bezczynne (koniec kolejki), ale nie poniżej minSize
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext() && total.get() > minSize) {
+            PooledConnection pc = it.next();
+            if (now - pc.lastUsedNanos < idleTimeoutNanos) break;
+            if (idle.removeLastOccurrence(pc)) discard(pc);
+        }
+
+        // uzupełnienie do minSize (w tle, błędy ignorujemy - spróbujemy przy następnym cyklu)
+        while (!closed && total.get() < minSize) {
+            if (!permits.tryAcquire()) break;
+            try {
+                PooledConnection pc = open();
+                pc.lastUsedNanos = System.nanoTime();
+                idle.offerLast(pc);
+            } catch (SQLException ignored) {
+                break;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    public record Stats(int active, int idle, int total, int waiters,
+                        long borrows, double avgBorrowMicros, double maxBorrowMicros) {
+        @Override
+        public String toString() {
+            return String.format("aktywne=%d, wolne=%d, razem=%d, czekający=%d, pobrań=%d, śr. pobranie=%.1f µs, max=%.1f µs",
+                    active, idle, total, waiters, borrows, avgBorrowMicros, maxBorrowMicros);
+        }
+    }
+
+    // Wypożyczone połączenie; close() zwraca je do puli zamiast zamykać.
+    public final class Lease implements AutoCloseable {
+        private final PooledConnection pc;
+        private boolean released;
+
+        private Lease(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        public Connection connection() {
+            return pc.conn;
+        }
+
+        // Zwraca PreparedStatement z cache połączenia. NIE zamykać - należy do puli.
+        public PreparedStatement prepare(String sql) throws SQLException {
+            return pc.prepare(sql);
+        }
+
+        @Override
+        public void close() {
+            if (released) return;
+            released = true;
+
+            boolean broken = false;
+            try {
+                if (pc.conn.isClosed()) {
+                    broken = true;
+                } else if (!pc.conn.getAutoCommit()) {
+                    // nieskończona transakcja - wycofujemy, żeby nie trafiła do następnego użytkownika
+                    pc.conn.rollback();
+                    pc.conn.setAutoCommit(true);
+                }
+            } catch (SQLException ex) {
+                broken = true;
+            }
+            release(pc, broken);
+        }
+    }
+
+    private static final class PooledConnection {
+        final Connection conn;
+        final Map<String, PreparedStatement> statements;
+        volatile long lastUsedNanos = System.nanoTime();
+
+        PooledConnection(Connection conn, int cacheSize) {
+            this.conn = conn;
+            this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= cacheSize) return false;
+                    try { eldest.getValue().close(); } catch (SQLException ignored) {}
+                    return true;
+                }
+            };
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement ps = statements.get(sql);
+            if (ps == null || ps.isClosed()) {
+                ps = conn.prepareStatement(sql);
+                statements.put(sql, ps);
+            } else {
+                ps.clearParameters();
+            }
+            return ps;
+        }
+
+        boolean isUsable(long now) {
+            try {
+                if (conn.isClosed()) return false;
+                if (now - lastUsedNanos < VALIDATION_BYPASS_NANOS) return true;
+                return conn.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException ex) {
+                return false;
+            }
+        }
+
+        void closeQuietly() {
+            for (PreparedStatement ps : statements.values()) {
+                try { ps.close(); } catch (SQLException ignored) {}
+            }
+            statements.clear();
+            try { conn.close(); } catch (SQLException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package pl.dk.wypozyczalnia;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Year;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Import aut i klientów z CSV (UTF-8, separator ',' lub ';', pola w cudzysłowach z "" w środku).
+// 1) walidacja równolegle: plik dzielony na zakresy bajtów wyrównane do końca linii, każdy wątek
+//    czyta swój zakres kanałem i odrzuca błędne wiersze; wynik to mapa bitowa odrzuconych linii
+// 2) przebieg właściwy (COPY albo repozytorium w pamięci): sekwencyjny strumień poprawnych wierszy.
+// Wiersz z polem wielolinijkowym jest odrzucany (walidacja działa linia po linii).
+// Oba przebiegi dzielą plik tak samo: linia kończy się na '\n', końcowe '\r' jest obcinane
+// (samotne '\r' w środku linii zostaje w polu) - inaczej mapa odrzuconych linii by się rozjechała.
+public final class CsvImport {
+
+    public enum Kind {
+        CARS("Auta", 4, 5),        // marka, model, rok, cena dzienna [, status]
+        CLIENTS("Klienci", 2, 2);  // imię, nazwisko
+
+        final String label;
+        final int minFields;
+        final int maxFields;
+
+        Kind(String label, int minFields, int maxFields) {
+            this.label = label;
+            this.minFields = minFields;
+            this.maxFields = maxFields;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    public record Rejected(long line, String reason) {}
+
+    public record Result(Kind kind, long lines, long imported, long rejected,
+                         List<Rejected> samples, long elapsedMillis) {}
+
+    // Odbiorca poprawnych wierszy (pola już znormalizowane: cena "149.99", status wielkimi literami)
+    public interface RowSink {
+        void accept(String[] fields) throws IOException, SQLException;
+
+        // po ostatnim wierszu (np. domknięcie paczki COPY)
+        default void finish() throws IOException, SQLException {}
+    }
+
+    static final int MAX_SAMPLES = 200;
+    static final int WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final int MAX_TEXT = 100;
+    private static final int READ_BUFFER = 64 * 1024;
+
+    private CsvImport() {}
+
+    // Cały import: walidacja, poprawne wiersze do sink, wynik z próbką odrzuconych
+    static Result run(Path file, Kind kind, RowSink sink) throws IOException, SQLException {
+        long t0 = System.nanoTime();
+        Validation v = validate(file, kind, WORKERS);
+        long imported = forEachValid(file, kind, v, sink);
+        sink.finish();
+        return new Result(kind, v.lines - (v.header ? 1 : 0), imported, v.rejectedCount,
+                List.copyOf(v.samples), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+    }
+
+    // Wynik walidacji: odrzucone linie (numerowane od 1), przykładowe powody, nagłówek
+    static final class Validation {
+        final BitSet rejected = new BitSet();
+        final List<Rejected> samples = new ArrayList<>();
+        long lines;
+        long rejectedCount;
+        boolean header;
+        char separator = ',';
+    }
+
+    static Validation validate(Path file, Kind kind, int workers) throws IOException {
+        Validation v = new Validation();
+        try (LineReader r = new LineReader(file)) {
+            String first = r.next();
+            if (first == null) return v;
+            if (first.startsWith("﻿")) first = first.substring(1);
+            v.separator = first.indexOf(';') >= 0 && first.indexOf(',') < 0 ? ';' : ',';
+            v.header = isHeader(first, kind, v.separator);
+        }
+
+        long size = Files.size(file);
+        int n = (int) Math.max(1, Math.min(workers, size / (1024 * 1024) + 1));
+        ExecutorService pool = Executors.newFixedThreadPool(n);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<Future<Range>> parts = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                long from = size * i / n;
+                long to = size * (i + 1) / n;
+                char sep = v.separator;
+                parts.add(pool.submit((Callable<Range>) () -> scan(ch, from, to, kind, sep)));
+            }
+
+            long base = 0;
+            for (Future<Range> f : parts) {
+                Range part = f.get();
+                for (int i = 0; i < part.rejectedLines.length; i++) {
+                    long line = base + part.rejectedLines[i] + 1;
+                    if (line == 1 && v.header) continue;
+                    v.rejected.set((int) line);
+                    v.rejectedCount++;
+                    if (v.samples.size() < MAX_SAMPLES) v.samples.add(new Rejected(line, part.reasons.get(i)));
+                }
+                base += part.lines;
+            }
+            v.lines = base;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Przerwano walidację pliku.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException u) throw u.getCause();
+            throw new IOException("Błąd walidacji pliku: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        v.samples.sort((a, b) -> Long.compare(a.line(), b.line()));
+        return v;
+    }
+
+    // Linie zaczynające się w [from, to) - numeracja lokalna od 0
+    private static final class Range {
+        long lines;
+        int[] rejectedLines = new int[16];
+        final List<String> reasons = new ArrayList<>();
+    }
+
+    private static Range scan(FileChannel ch, long from, long to, Kind kind, char sep) {
+        Range out = new Range();
+        ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER);
+        byte[] line = new byte[256];
+        int len = 0;
+        long pos = from;
+        boolean skipping = from > 0 && byteAt(ch, from - 1) != '\n'; // początek należy do poprzedniego zakresu
+        boolean done = false;
+        int rejected = 0;
+
+        try {
+            while (!done) {
+                buf.clear();
+                int read = ch.read(buf, pos);
+                if (read <= 0) break;
+                buf.flip();
+                for (int i = 0; i < read; i++) {
+                    byte b = buf.get(i);
+                    long at = pos + i;
+                    if (skipping) {
+                        if (b == '\n') skipping = false;
+                        if (!skipping && at + 1 >= to) { done = true; break; }
+                        continue;
+                    }
+                    if (b == '\n') {
+                        rejected = check(out, line, len, kind, sep, rejected);
+                        len = 0;
+                        if (at + 1 >= to) { done = true; break; }
+                    } else {
+                        if (len == line.length) line = Arrays.copyOf(line, len * 2);
+                        line[len++] = b;
+                    }
+                }
+                pos += read;
+            }
+            if (!done && !skipping && len > 0) rejected = check(out, line, len, kind, sep, rejected);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        out.rejectedLines = Arrays.copyOf(out.rejectedLines, rejected);
+        return out;
+    }
+
+    private static int check(Range out, byte[] line, int len, Kind kind, char sep, int rejected) {
+        String reason = null;
+        String text = lineText(line, len);
+        if (out.lines == 0 && text.startsWith("﻿")) text = text.substring(1);
+        try {
+            normalize(kind, split(text, sep));
+        } catch (IllegalArgumentException ex) {
+            reason = ex.getMessage();
+        }
+        if (reason != null) {
+            if (rejected == out.rejectedLines.length) out.rejectedLines = Arrays.copyOf(out.rejectedLines, rejected * 2);
+            out.rejectedLines[rejected++] = (int) out.lines;
+            out.reasons.add(reason);
+        }
+        out.lines++;
+        return rejected;
+    }
+
+    private static byte byteAt(FileChannel ch, long pos) {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        try {
+            ch.read(one, pos);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return one.get(0);
+    }
+
+    // Drugi przebieg: poprawne wiersze po kolei (nagłówek i odrzucone pominięte)
+    static long forEachValid(Path file, Kind kind, Validation v, RowSink sink) throws IOException, SQLException {
+        long imported = 0;
+        long lineNo = 0;
+        try (LineReader r = new LineReader(file)) {
+            for (String text; (text = r.next()) != null; ) {
+                lineNo++;
+                if (lineNo == 1) {
+                    if (v.header) continue;
+                    if (text.startsWith("﻿")) text = text.substring(1);
+                }
+                if (v.rejected.get((int) lineNo)) continue;
+                sink.accept(normalize(kind, split(text, v.separator)));
+                imported++;
+            }
+        }
+        return imported;
+    }
+
+    // Treść linii bez '\n' i końcowego '\r'
+    private static String lineText(byte[] line, int len) {
+        if (len > 0 && line[len - 1] == '\r') len--;
+        return new String(line, 0, len, StandardCharsets.UTF_8);
+    }
+
+    // Sekwencyjne czytanie linii tym samym podziałem co scan (BufferedReader.readLine dzieli też na '\r')
+    private static final class LineReader implements AutoCloseable {
+        private final InputStream in;
+        private final byte[] buf = new byte[READ_BUFFER];
+        private int pos;
+        private int end;
+        private byte[] line = new byte[256];
+
+        LineReader(Path file) throws IOException {
+            in = Files.newInputStream(file);
+        }
+
+        String next() throws IOException {
+            int len = 0;
+            while (true) {
+                if (pos == end) {
+                    end = in.read(buf);
+                    pos = 0;
+                    if (end <= 0) {
+                        end = 0;
+                        return len > 0 ? lineText(line, len) : null;
+                    }
+                }
+                byte b = buf[pos++];
+                if (b == '\n') return lineText(line, len);
+                if (len == line.length) line = Arrays.copyOf(line, len * 2);
+                line[len++] = b;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static boolean isHeader(String line, Kind kind, char sep) {
+        String first = split(line, sep)[0].trim().toLowerCase();
+        return kind == Kind.CARS
+                ? first.equals("brand") || first.equals("marka")
+                : first.equals("first_name") || first.equals("imie") || first.equals("imię");
+    }
+
+    static String[] normalize(Kind kind, String[] f) {
+        if (f.length < kind.minFields || f.length > kind.maxFields) {
+            throw new IllegalArgumentException("Oczekiwano " + kind.minFields
+                    + (kind.minFields == kind.maxFields ? "" : "-" + kind.maxFields) + " pól, jest " + f.length + ".");
+        }
+        if (kind == Kind.CLIENTS) {
+            return new String[]{text(f[0], "imię"), text(f[1], "nazwisko")};
+        }
+
+        String brand = text(f[0], "marka");
+        String model = text(f[1], "model");
+        int year;
+        try {
+            year = Integer.parseInt(f[2].trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Niepoprawny rok: " + f[2]);
+        }
+        if (year < 1950 || year > Year.now().getValue() + 1) throw new IllegalArgumentException("Rok spoza zakresu: " + year);
+
+        long price;
+        try {
+            price = Money.parse(f[3]);
+        } catch (NumberFormatException | ArithmeticException ex) {
+            throw new IllegalArgumentException("Niepoprawna cena: " + f[3]);
+        }
+        if (price <= 0) throw new IllegalArgumentException("Cena musi być dodatnia: " + f[3]);
+
+        CarStatus status = CarStatus.AVAILABLE;
+        if (f.length > 4 && !f[4].isBlank()) {
+            status = CarStatus.of(f[4].trim());
+            if (status == CarStatus.UNKNOWN) throw new IllegalArgumentException("Nieznany status: " + f[4]);
+        }
+        return new String[]{brand, model, String.valueOf(year), Money.format(price), status.name()};
+    }
+
+    private static String text(String s, String field) {
+        String t = s.trim();
+        if (t.isEmpty()) throw new IllegalArgumentException("Puste pole: " + field + ".");
+        if (t.length() > MAX_TEXT) throw new IllegalArgumentException("Za długie pole: " + field + ".");
+        return t;
+    }
+
+    // Podział linii CSV; cudzysłów niezamknięty w obrębie linii = błąd
+    static String[] split(String line, char sep) {
+        List<String> out = new ArrayList<>(6);
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') { cur.append('"'); i++; }
+                    else quoted = false;
+                } else {
+                    cur.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == sep) {
+                out.add(cur.toString());
+                cur.setLength(0);
+            } else {
+                cur.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("Niezamknięty cudzysłów.");
+        out.add(cur.toString());
+        return out.toArray(new String[0]);
+    }
+
+    // Pole w formacie CSV dla COPY (cudzysłów zawsze - bezpiecznie dla separatorów i cudzysłowów)
+    static void appendCsv(StringBuilder sb, String[] fields) {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append('"').append(fields[i].replace("\"", "\"\"")).append('"');
+        }
+        sb.append('\n');
+    }
+}
@@ -1,8 +1,27 @@
 package pl.dk.wypozyczalnia;
 
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.sql.*;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 public class Db {
 
@@ -10,136 +29,1184 @@ public class Db {
     private static final String USER = "app_user";
     private static final String PASS = "app_pass";
 
+    // Pula połączeń (parametry można nadpisać przez -Dwypozyczalnia.pool.*)
+    private static final ConnectionPool POOL = new ConnectionPool(
+            URL, USER, PASS,
+            Integer.getInteger("wypozyczalnia.pool.min", 1),
+            Integer.getInteger("wypozyczalnia.pool.max", 8),
+            Long.getLong("wypozyczalnia.pool.idleTimeoutMs", 300_000L),
+            Long.getLong("wypozyczalnia.pool.borrowTimeoutMs", 5_000L),
+            Integer.getInteger("wypozyczalnia.pool.statementCache", 32)
+    );
+
+    // Listy i raporty przez replikę, jeśli skonfigurowana (-Dwypozyczalnia.replica.*); zapisy tylko POOL
+    private static final ReadRouter READS = ReadRouter.fromProperties(POOL, USER, PASS);
+
+    static {
+        Metrics.gauge("Pula połączeń", () -> POOL.stats().toString());
+    }
+
+    public static ConnectionPool.Stats poolStats() {
+        return POOL.stats();
+    }
+
+    // Nasłuch zmian floty na osobnym (spoza puli) połączeniu
+    public static CarChangeFeed startChangeFeed(Consumer<List<CarChangeFeed.CarChange>> onChanges, Runnable onReconnect) {
+        CarChangeFeed feed = new CarChangeFeed(URL, USER, PASS, onChanges, onReconnect);
+        feed.start();
+        return feed;
+    }
+
+    public static void shutdown() {
+        READS.close();
+        POOL.close();
+    }
+
+    // Uzgodnienie schematu przy starcie (SchemaMigrations); -Dwypozyczalnia.migrate=false wyłącza,
+    // np. gdy aplikacja nie ma uprawnień do DDL, a schemat zakłada administrator
+    public static void migrate() throws SQLException {
+        if (!Boolean.parseBoolean(System.getProperty("wypozyczalnia.migrate", "true"))) return;
+        try (ConnectionPool.Lease lease = POOL.borrow()) {
+            SchemaMigrations.migrate(lease.connection());
+        }
+    }
+
+    // Partycje rental na kolejne miesiące i archiwizacja starych (tryb serwera: raz na dobę)
+    static RentalPartitions.Result maintainPartitions() throws SQLException {
+        try (ConnectionPool.Lease lease = POOL.borrow()) {
+            return RentalPartitions.fromProperties().maintain(lease.connection(), LocalDate.now());
+        }
+    }
+
+    // Zapas przy zapytaniu delta: now() w Postgresie to czas startu transakcji,
+    // więc zmiana zatwierdzona później może mieć updated_at nieco starszy niż znacznik.
+    static final long DELTA_OVERLAP_MS = 5_000;
+
     public static List<CarRow> listCars() throws SQLException {
-        ArrayList<CarRow> out = new ArrayList<>();
+        return listCarsChangedSince(null).cars();
+    }
 
-        try (Connection conn = DriverManager.getConnection(URL, USER, PASS);
-             PreparedStatement ps = conn.prepareStatement(
-                     "SELECT car_id, brand, model, year, daily_price, status " +
-                     "FROM car ORDER BY brand, model"
-             );
-             ResultSet rs = ps.executeQuery()) {
+    // Auta zmienione od podanego znacznika (null = wszystkie), plus nowy znacznik.
+    public static CarDelta listCarsChangedSince(Timestamp since) throws SQLException {
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try {
+            CarDelta delta = READS.read(lease -> queryCarsChangedSince(lease, since));
+            ok = true;
+            return delta;
+        } finally {
+            Metrics.record(Metrics.Op.LIST_CARS, t0, ok);
+        }
+    }
 
+    private static CarDelta queryCarsChangedSince(ConnectionPool.Lease lease, Timestamp since) throws SQLException {
+        ArrayList<CarRow> out = new ArrayList<>();
+        Timestamp watermark = since;
+        PreparedStatement ps;
+        if (since == null) {
+            ps = lease.prepare(
+                    "SELECT car_id, brand, model, year, daily_price, status, updated_at " +
+                    "FROM car ORDER BY brand, model");
+        } else {
+            ps = lease.prepare(
+                    "SELECT car_id, brand, model, year, daily_price, status, updated_at " +
+                    "FROM car WHERE updated_at > ? ORDER BY car_id");
+            ps.setTimestamp(1, new Timestamp(since.getTime() - DELTA_OVERLAP_MS));
+        }
+        try (ResultSet rs = ps.executeQuery()) {
             while (rs.next()) {
-                out.add(new CarRow(
-                        rs.getInt("car_id"),
-                        rs.getString("brand"),
-                        rs.getString("model"),
-                        rs.getInt("year"),
-                        rs.getBigDecimal("daily_price").toPlainString(),
-                        rs.getString("status")
-                ));
+                out.add(mapCar(rs));
+                Timestamp ts = rs.getTimestamp("updated_at");
+                if (ts != null && (watermark == null || ts.after(watermark))) watermark = ts;
             }
         }
+        return new CarDelta(out, watermark);
+    }
 
-        return out;
+    // Pojedyncze auto (po wypożyczeniu/zwrocie); null gdy zostało usunięte.
+    public static CarRow getCar(int carId) throws SQLException {
+        return READS.read(lease -> {
+            PreparedStatement ps = lease.prepare(
+                    "SELECT car_id, brand, model, year, daily_price, status FROM car WHERE car_id=?");
+            ps.setInt(1, carId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? mapCar(rs) : null;
+            }
+        });
     }
 
-    // Transakcja + blokada (FOR UPDATE)
-    public static void rentCar(int clientId, int carId, Date start, Date end) throws SQLException {
-        Connection conn = DriverManager.getConnection(URL, USER, PASS);
-        try {
-            conn.setAutoCommit(false);
+    // Termin nie może nachodzić na inne aktywne wypożyczenie/rezerwację tego auta
+    private static void checkNoOverlap(ConnectionPool.Lease lease, int carId, Date start, Date end) throws SQLException {
+        PreparedStatement ps = lease.prepare(
+                "SELECT 1 FROM rental WHERE car_id=? AND status='ACTIVE' AND start_date <= ? AND end_date >= ? LIMIT 1");
+        ps.setInt(1, carId);
+        ps.setDate(2, end);
+        ps.setDate(3, start);
+        try (ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) throw overlapError(start, end);
+        }
+    }
 
-            // Blokujemy rekord auta, żeby nie dało się wypożyczyć go równolegle
-            try (PreparedStatement lock = conn.prepareStatement(
-                    "SELECT status FROM car WHERE car_id=? FOR UPDATE")) {
-                lock.setInt(1, carId);
-                try (ResultSet rs = lock.executeQuery()) {
-                    if (!rs.next()) throw new SQLException("Nie ma takiego auta (car_id=" + carId + ").");
-                    String status = rs.getString("status");
-                    if (!"AVAILABLE".equals(status)) throw new SQLException("Auto nie jest dostępne (status=" + status + ").");
-                }
+    private static SQLException overlapError(Date start, Date end) {
+        return new SQLException("Auto jest już zarezerwowane w terminie " + start + " – " + end + ".");
+    }
+
+    private static Date currentDate(ConnectionPool.Lease lease) throws SQLException {
+        try (ResultSet rs = lease.prepare("SELECT current_date").executeQuery()) {
+            rs.next();
+            return rs.getDate(1);
+        }
+    }
+
+    // Aktywne wypożyczenia i rezerwacje - źródło dla AvailabilityIndex
+    public static List<AvailabilityIndex.Booking> listActiveRentals() throws SQLException {
+        return READS.read(lease -> {
+            List<AvailabilityIndex.Booking> out = new ArrayList<>();
+            PreparedStatement ps = lease.prepare(
+                    "SELECT car_id, start_date, end_date FROM rental WHERE status='ACTIVE'");
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(mapBooking(rs));
             }
+            return out;
+        });
+    }
 
-            try (PreparedStatement upd = conn.prepareStatement(
-                    "UPDATE car SET status='RENTED' WHERE car_id=?")) {
-                upd.setInt(1, carId);
-                upd.executeUpdate();
+    // Zawsze z głównej: wołane po powiadomieniu o zmianie (także z innego stanowiska),
+    // którego replika może jeszcze nie mieć
+    public static List<AvailabilityIndex.Booking> listActiveRentals(Collection<Integer> carIds) throws SQLException {
+        List<AvailabilityIndex.Booking> out = new ArrayList<>();
+        try (ConnectionPool.Lease lease = POOL.borrow()) {
+            PreparedStatement ps = lease.prepare(
+                    "SELECT car_id, start_date, end_date FROM rental WHERE status='ACTIVE' AND car_id = ANY(?)");
+            ps.setArray(1, lease.connection().createArrayOf("int4", carIds.toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(mapBooking(rs));
             }
+        }
+        return out;
+    }
+
+    private static AvailabilityIndex.Booking mapBooking(ResultSet rs) throws SQLException {
+        return new AvailabilityIndex.Booking(
+                rs.getInt("car_id"),
+                rs.getDate("start_date").toLocalDate(),
+                rs.getDate("end_date").toLocalDate());
+    }
 
-            try (PreparedStatement ins = conn.prepareStatement(
-                    "INSERT INTO rental(client_id, car_id, start_date, end_date, status) " +
-                    "VALUES (?,?,?,?, 'ACTIVE')")) {
-                ins.setInt(1, clientId);
-                ins.setInt(2, carId);
-                ins.setDate(3, start);
-                ins.setDate(4, end);
-                ins.executeUpdate();
+    // NOTIFY jest doręczane dopiero po COMMIT (i znika przy ROLLBACK)
+    private static void notifyCarChanged(ConnectionPool.Lease lease, int carId, String status) throws SQLException {
+        PreparedStatement ps = lease.prepare("SELECT pg_notify('" + CarChangeFeed.CHANNEL + "', ?)");
+        ps.setString(1, CarChangeFeed.CarChange.payload(carId, status));
+        ps.execute();
+    }
+
+    private static void notifyCarsChanged(ConnectionPool.Lease lease, List<Integer> carIds, String status) throws SQLException {
+        PreparedStatement ps = lease.prepare(
+                "SELECT pg_notify('" + CarChangeFeed.CHANNEL + "', id || ':' || ?) FROM unnest(?::int4[]) AS id");
+        ps.setString(1, status);
+        ps.setArray(2, lease.connection().createArrayOf("int4", carIds.toArray()));
+        ps.execute();
+    }
+
+    // Cena łączna liczona w bazie z aktualnej ceny dziennej auta; zaokrąglenia jak w RateTable.total
+    private static String totalPriceSql(String dailyPrice, String factorBpDays, String longTermBp, String contractBp) {
+        return "round(round(round(" + dailyPrice + " * 100 * " + factorBpDays + " / 10000)" +
+               " * (10000 - " + longTermBp + ") / 10000)" +
+               " * (10000 - " + contractBp + ") / 10000) / 100";
+    }
+
+    private static final String INSERT_RENTAL_SQL =
+            "INSERT INTO rental(client_id, car_id, start_date, end_date, status, total_price) " +
+            "SELECT ?, c.car_id, ?, ?, 'ACTIVE', " + totalPriceSql("c.daily_price", "?::bigint", "?::int", "?::int") + " " +
+            "FROM car c WHERE c.car_id=?";
+
+    private static void bindRental(PreparedStatement ins, int clientId, int carId, Date start, Date end,
+                                   RateTable.Terms terms) throws SQLException {
+        ins.setInt(1, clientId);
+        ins.setDate(2, start);
+        ins.setDate(3, end);
+        ins.setLong(4, terms.factorBpDays());
+        ins.setInt(5, terms.longTermBp());
+        ins.setInt(6, terms.contractBp());
+        ins.setInt(7, carId);
+    }
+
+    // Cennik (sezony, weekend, rabaty za długi najem, umowy klientów) - TTL -Dwypozyczalnia.rates.ttlMs
+    private static final QuoteEngine QUOTES = new QuoteEngine(Db::loadRateTable,
+            Long.getLong("wypozyczalnia.rates.ttlMs", 300_000L));
+
+    public static QuoteEngine quotes() {
+        return QUOTES;
+    }
+
+    // Horyzont rozpisania sezonów na dni (dalsze terminy: tylko reguła weekendowa)
+    private static final int RATE_HORIZON_DAYS = 2 * 366;
+
+    static RateTable loadRateTable() throws SQLException {
+        List<RateTable.Season> seasons = new ArrayList<>();
+        List<RateTable.LongTerm> longTerm = new ArrayList<>();
+        List<RateTable.Contract> contracts = new ArrayList<>();
+        int weekendBp = RateTable.ONE;
+        Date today;
+
+        try (ConnectionPool.Lease lease = POOL.borrow()) {
+            if (!tableExists(lease, "rate_setting")) {
+                System.out.println("WARN: brak tabel cennika (rate_*), ceny liczone bez reguł.");
+                return RateTable.FLAT;
+            }
+            today = currentDate(lease);
+            try (ResultSet rs = lease.prepare(
+                    "SELECT value_bp FROM rate_setting WHERE key='weekend'").executeQuery()) {
+                if (rs.next()) weekendBp = rs.getInt(1);
+            }
+            try (ResultSet rs = lease.prepare(
+                    "SELECT start_date, end_date, multiplier_bp FROM rate_season WHERE end_date >= current_date - 31").executeQuery()) {
+                while (rs.next()) {
+                    seasons.add(new RateTable.Season(rs.getDate(1).toLocalDate(), rs.getDate(2).toLocalDate(), rs.getInt(3)));
+                }
+            }
+            try (ResultSet rs = lease.prepare("SELECT min_days, discount_bp FROM rate_long_term").executeQuery()) {
+                while (rs.next()) longTerm.add(new RateTable.LongTerm(rs.getInt(1), rs.getInt(2)));
+            }
+            try (ResultSet rs = lease.prepare(
+                    "SELECT client_id, discount_bp, valid_to FROM client_contract " +
+                    "WHERE valid_to IS NULL OR valid_to >= current_date").executeQuery()) {
+                while (rs.next()) {
+                    Date validTo = rs.getDate(3);
+                    contracts.add(new RateTable.Contract(rs.getInt(1), rs.getInt(2), validTo == null ? null : validTo.toLocalDate()));
+                }
             }
+        }
+
+        return new RateTable(today.toLocalDate(), RATE_HORIZON_DAYS, weekendBp, seasons, longTerm, contracts);
+    }
+
+    private static boolean tableExists(ConnectionPool.Lease lease, String table) throws SQLException {
+        PreparedStatement ps = lease.prepare("SELECT to_regclass(?) IS NOT NULL");
+        ps.setString(1, table);
+        try (ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getBoolean(1);
+        }
+    }
+
+    static CarRow mapCar(ResultSet rs) throws SQLException {
+        return new CarRow(
+                rs.getInt("car_id"),
+                rs.getString("brand"),
+                rs.getString("model"),
+                rs.getInt("year"),
+                Money.fromDecimal(rs.getBigDecimal("daily_price")),
+                rs.getString("status")
+        );
+    }
+
+    static ClientRow mapClient(ResultSet rs) throws SQLException {
+        return new ClientRow(
+                rs.getInt("client_id"),
+                rs.getString("first_name"),
+                rs.getString("last_name")
+        );
+    }
+
+    public record CarDelta(List<CarRow> cars, Timestamp watermark) {}
+
+    // Sposób wykonania wypożyczenia/zwrotu:
+    // CLASSIC - kilka poleceń w transakcji, SINGLE_STATEMENT - jedno polecenie (CTE), jeden round trip,
+    // OPTIMISTIC - odczyt bez blokady i warunkowy UPDATE po kolumnie version (ponawiany przy konflikcie)
+    public enum TxMode { CLASSIC, SINGLE_STATEMENT, OPTIMISTIC }
 
-            conn.commit();
+    private static volatile TxMode txMode = txModeFromProperty(System.getProperty("wypozyczalnia.tx"));
+
+    // Tryb optymistyczny: liczba prób i odstęp między nimi (wykładniczy z losowym rozrzutem)
+    private static final int OPTIMISTIC_ATTEMPTS = Integer.getInteger("wypozyczalnia.optimistic.attempts", 5);
+    private static final long OPTIMISTIC_BACKOFF_MS = Long.getLong("wypozyczalnia.optimistic.backoffMs", 5L);
+    private static final long OPTIMISTIC_MAX_BACKOFF_MS = 200;
+
+    static {
+        Metrics.gauge("Tryb transakcji", () -> txMode.name());
+    }
+
+    private static TxMode txModeFromProperty(String value) {
+        if ("single".equalsIgnoreCase(value)) return TxMode.SINGLE_STATEMENT;
+        if ("optimistic".equalsIgnoreCase(value)) return TxMode.OPTIMISTIC;
+        return TxMode.CLASSIC;
+    }
+
+    public static TxMode getTxMode() {
+        return txMode;
+    }
+
+    public static void setTxMode(TxMode mode) {
+        txMode = mode;
+    }
+
+    public static void rentCar(int clientId, int carId, Date start, Date end) throws SQLException {
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try {
+            // cennik przed pobraniem połączenia (ewentualne wczytanie nie trzyma blokady auta)
+            RateTable.Terms terms = QUOTES.table().terms(clientId, start.toLocalDate(), end.toLocalDate());
+            switch (txMode) {
+                case SINGLE_STATEMENT -> rentCarSingle(clientId, carId, start, end, terms);
+                case OPTIMISTIC -> rentCarOptimistic(clientId, carId, start, end, terms);
+                default -> rentCarClassic(clientId, carId, start, end, terms);
+            }
+            ok = true;
         } catch (SQLException ex) {
-            try { conn.rollback(); } catch (SQLException ignored) {}
+            // EXCLUDE na partycjach (migracja 6): wyścig dwóch rezerwacji nakładających się terminów
+            if ("23P01".equals(ex.getSQLState())) throw overlapError(start, end);
             throw ex;
         } finally {
-            try { conn.close(); } catch (SQLException ignored) {}
+            Metrics.record(Metrics.Op.RENT_CAR, t0, ok);
         }
     }
 
-    // (BONUS) Zwrot auta w transakcji
     public static void returnCar(int carId) throws SQLException {
-        Connection conn = DriverManager.getConnection(URL, USER, PASS);
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try {
+            switch (txMode) {
+                case SINGLE_STATEMENT -> returnCarSingle(carId);
+                case OPTIMISTIC -> returnCarOptimistic(carId);
+                default -> returnCarClassic(carId);
+            }
+            ok = true;
+        } finally {
+            Metrics.record(Metrics.Op.RETURN_CAR, t0, ok);
+        }
+    }
+
+    // Czas oczekiwania na blokadę FOR UPDATE (razem z samym odczytem wiersza)
+    private static ResultSet executeLocking(PreparedStatement lock) throws SQLException {
+        long t0 = System.nanoTime();
+        boolean ok = false;
         try {
+            ResultSet rs = lock.executeQuery();
+            ok = true;
+            return rs;
+        } finally {
+            Metrics.record(Metrics.Op.LOCK_WAIT, t0, ok);
+        }
+    }
+
+    // Transakcja + blokada (FOR UPDATE)
+    static void rentCarClassic(int clientId, int carId, Date start, Date end, RateTable.Terms terms) throws SQLException {
+        try (ConnectionPool.Lease lease = POOL.borrow()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            try {
+                rentInTx(lease, clientId, carId, start, end, terms, null);
+                conn.commit();
+                READS.afterWrite(lease);
+            } catch (SQLException ex) {
+                try { conn.rollback(); } catch (SQLException ignored) {}
+                throw ex;
+            }
+        }
+    }
+
+    // Wypożyczenie w otwartej transakcji (tryb klasyczny i odtwarzanie dziennika).
+    // acceptedAt: chwila przyjęcia operacji z dziennika - "dziś" to dzień przyjęcia; null = current_date
+    private static void rentInTx(ConnectionPool.Lease lease, int clientId, int carId, Date start, Date end,
+                                 RateTable.Terms terms, Timestamp acceptedAt) throws SQLException {
+        // Blokujemy rekord auta, żeby nie dało się wypożyczyć go równolegle
+        PreparedStatement lock = lease.prepare(
+                "SELECT status, coalesce(CAST(? AS timestamptz), now())::date AS today FROM car WHERE car_id=? FOR UPDATE");
+        lock.setTimestamp(1, acceptedAt);
+        lock.setInt(2, carId);
+        boolean startsNow;
+        try (ResultSet rs = executeLocking(lock)) {
+            if (!rs.next()) throw new SQLException("Nie ma takiego auta (car_id=" + carId + ").");
+            String status = rs.getString("status");
+            // rezerwacja na przyszłość nie zależy od bieżącego statusu auta
+            startsNow = !start.after(rs.getDate("today"));
+            if (startsNow && !"AVAILABLE".equals(status)) throw new SQLException("Auto nie jest dostępne (status=" + status + ").");
+        }
+
+        checkNoOverlap(lease, carId, start, end);
+
+        if (startsNow) {
+            PreparedStatement upd = lease.prepare("UPDATE car SET status='RENTED', updated_at=now(), version=version+1 WHERE car_id=?");
+            upd.setInt(1, carId);
+            upd.executeUpdate();
+            notifyCarChanged(lease, carId, "RENTED");
+        } else {
+            // rezerwacja na przyszłość też zmienia wersję, żeby równoległe wypożyczenie optymistyczne wykryło konflikt
+            PreparedStatement bump = lease.prepare("UPDATE car SET version=version+1 WHERE car_id=?");
+            bump.setInt(1, carId);
+            bump.executeUpdate();
+        }
+
+        PreparedStatement ins = lease.prepare(INSERT_RENTAL_SQL);
+        bindRental(ins, clientId, carId, start, end, terms);
+        ins.executeUpdate();
+    }
+
+    // (BONUS) Zwrot auta w transakcji
+    static void returnCarClassic(int carId) throws SQLException {
+        try (ConnectionPool.Lease lease = POOL.borrow()) {
+            Connection conn = lease.connection();
             conn.setAutoCommit(false);
+            try {
+                returnInTx(lease, carId, null);
+                conn.commit();
+                READS.afterWrite(lease);
+            } catch (SQLException ex) {
+                try { conn.rollback(); } catch (SQLException ignored) {}
+                throw ex;
+            }
+        }
+    }
+
+    // acceptedAt: chwila przyjęcia zwrotu z dziennika (returned_at i "dziś"); null = now()
+    private static void returnInTx(ConnectionPool.Lease lease, int carId, Timestamp acceptedAt) throws SQLException {
+        // blokujemy auto
+        PreparedStatement lock = lease.prepare("SELECT status FROM car WHERE car_id=? FOR UPDATE");
+        lock.setInt(1, carId);
+        try (ResultSet rs = executeLocking(lock)) {
+            if (!rs.next()) throw new SQLException("Nie ma takiego auta (car_id=" + carId + ").");
+        }
+
+        // zamknij aktywne wypożyczenie dla auta (jeśli jest); przyszłe rezerwacje zostają
+        PreparedStatement updRental = lease.prepare(
+                "UPDATE rental SET status='RETURNED', returned_at=coalesce(CAST(? AS timestamptz), now()) " +
+                "WHERE car_id=? AND status='ACTIVE' AND start_date <= coalesce(CAST(? AS timestamptz), now())::date");
+        updRental.setTimestamp(1, acceptedAt);
+        updRental.setInt(2, carId);
+        updRental.setTimestamp(3, acceptedAt);
+        int updated = updRental.executeUpdate();
+
+        if (updated == 0) {
+            throw new SQLException("To auto nie ma aktywnego wypożyczenia.");
+        }
+
+        // ustaw auto jako dostępne
+        PreparedStatement updCar = lease.prepare("UPDATE car SET status='AVAILABLE', updated_at=now(), version=version+1 WHERE car_id=?");
+        updCar.setInt(1, carId);
+        updCar.executeUpdate();
+        notifyCarChanged(lease, carId, "AVAILABLE");
+    }
 
-            // blokujemy auto
-            try (PreparedStatement lock = conn.prepareStatement(
-                    "SELECT status FROM car WHERE car_id=? FOR UPDATE")) {
-                lock.setInt(1, carId);
-                try (ResultSet rs = lock.executeQuery()) {
+    // Wypożyczenie jednym poleceniem: blokada, zmiana statusu, wpis do rental i NOTIFY w jednym CTE.
+    // Całość wykonuje się atomowo w autocommit, więc blokada trwa tylko czas jednego polecenia.
+    // Uwaga: CTE "conflict" widzi migawkę z początku polecenia, więc wyścig dwóch rezerwacji
+    // na przyszłość tego samego auta musi dodatkowo zatrzymać ograniczenie EXCLUDE na rental.
+    static void rentCarSingle(int clientId, int carId, Date start, Date end, RateTable.Terms terms) throws SQLException {
+        try (ConnectionPool.Lease lease = POOL.borrow()) {
+            PreparedStatement ps = lease.prepare(
+                    "WITH params AS (" +
+                    "  SELECT ?::int AS car_id, ?::int AS client_id, ?::date AS s, ?::date AS e," +
+                    "    ?::bigint AS f, ?::int AS lt, ?::int AS cd" +
+                    "), target AS (" +
+                    "  SELECT c.car_id, c.status, p.s <= current_date AS starts_now" +
+                    "  FROM car c JOIN params p ON p.car_id=c.car_id FOR UPDATE OF c" +
+                    "), conflict AS (" +
+                    "  SELECT count(*) AS n FROM rental r, params p" +
+                    "  WHERE r.car_id=p.car_id AND r.status='ACTIVE' AND r.start_date <= p.e AND r.end_date >= p.s" +
+                    "), ok AS (" +
+                    "  SELECT t.car_id, t.starts_now FROM target t, conflict k" +
+                    "  WHERE k.n = 0 AND (t.status='AVAILABLE' OR NOT t.starts_now)" +
+                    "), upd AS (" +
+                    "  UPDATE car c SET version=c.version+1," +
+                    "    status=CASE WHEN ok.starts_now THEN 'RENTED' ELSE c.status END," +
+                    "    updated_at=CASE WHEN ok.starts_now THEN now() ELSE c.updated_at END" +
+                    "  FROM ok WHERE c.car_id=ok.car_id" +
+                    "  RETURNING c.car_id, ok.starts_now" +
+                    "), ins AS (" +
+                    "  INSERT INTO rental(client_id, car_id, start_date, end_date, status, total_price)" +
+                    "  SELECT p.client_id, ok.car_id, p.s, p.e, 'ACTIVE', " +
+                    totalPriceSql("c.daily_price", "p.f", "p.lt", "p.cd") +
+                    "  FROM ok JOIN car c ON c.car_id=ok.car_id, params p" +
+                    "  RETURNING car_id" +
+                    ") " +
+                    "SELECT t.status, t.starts_now, (SELECT n FROM conflict) AS conflicts, " +
+                    "  (SELECT count(*) FROM ins) AS rented, " +
+                    "  (SELECT count(*) FROM (SELECT pg_notify('" + CarChangeFeed.CHANNEL + "', car_id || ':RENTED') FROM upd WHERE starts_now) n) AS notified " +
+                    "FROM target t");
+            ps.setInt(1, carId);
+            ps.setInt(2, clientId);
+            ps.setDate(3, start);
+            ps.setDate(4, end);
+            ps.setLong(5, terms.factorBpDays());
+            ps.setInt(6, terms.longTermBp());
+            ps.setInt(7, terms.contractBp());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) throw new SQLException("Nie ma takiego auta (car_id=" + carId + ").");
+                if (rs.getInt("rented") == 0) {
+                    if (rs.getBoolean("starts_now") && !"AVAILABLE".equals(rs.getString("status"))) {
+                        throw new SQLException("Auto nie jest dostępne (status=" + rs.getString("status") + ").");
+                    }
+                    throw overlapError(start, end);
+                }
+            }
+            READS.afterWrite(lease);
+        }
+    }
+
+    // Zwrot jednym poleceniem; bez aktywnego wypożyczenia nic nie jest modyfikowane.
+    static void returnCarSingle(int carId) throws SQLException {
+        try (ConnectionPool.Lease lease = POOL.borrow()) {
+            PreparedStatement ps = lease.prepare(
+                    "WITH target AS (" +
+                    "  SELECT car_id FROM car WHERE car_id=? FOR UPDATE" +
+                    "), closed AS (" +
+                    "  UPDATE rental SET status='RETURNED', returned_at=now()" +
+                    "  WHERE car_id IN (SELECT car_id FROM target) AND status='ACTIVE' AND start_date <= current_date" +
+                    "  RETURNING car_id" +
+                    "), freed AS (" +
+                    "  UPDATE car SET status='AVAILABLE', updated_at=now(), version=version+1" +
+                    "  WHERE car_id IN (SELECT car_id FROM closed)" +
+                    "  RETURNING car_id" +
+                    ") " +
+                    "SELECT (SELECT count(*) FROM target) AS found, " +
+                    "  (SELECT count(*) FROM closed) AS closed, " +
+                    "  (SELECT count(*) FROM (SELECT pg_notify('" + CarChangeFeed.CHANNEL + "', car_id || ':AVAILABLE') FROM freed) n) AS notified");
+            ps.setInt(1, carId);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                if (rs.getInt("found") == 0) throw new SQLException("Nie ma takiego auta (car_id=" + carId + ").");
+                if (rs.getInt("closed") == 0) throw new SQLException("To auto nie ma aktywnego wypożyczenia.");
+            }
+            READS.afterWrite(lease);
+        }
+    }
+
+    // Wypożyczenie optymistyczne: status i termin sprawdzane bez blokady, potem krótka transakcja
+    // z UPDATE ... WHERE version=? (każda zmiana auta podbija version, także rezerwacja na przyszłość,
+    // więc równoległa rezerwacja tego samego auta zawsze kończy się konfliktem wersji i ponowieniem).
+    static void rentCarOptimistic(int clientId, int carId, Date start, Date end, RateTable.Terms terms) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            long t0 = System.nanoTime();
+            try (ConnectionPool.Lease lease = POOL.borrow()) {
+                PreparedStatement read = lease.prepare(
+                        "SELECT status, version, current_date AS today FROM car WHERE car_id=?");
+                read.setInt(1, carId);
+                String status;
+                int version;
+                boolean startsNow;
+                try (ResultSet rs = read.executeQuery()) {
                     if (!rs.next()) throw new SQLException("Nie ma takiego auta (car_id=" + carId + ").");
+                    status = rs.getString("status");
+                    version = rs.getInt("version");
+                    startsNow = !start.after(rs.getDate("today"));
+                }
+                if (startsNow && !"AVAILABLE".equals(status)) throw new SQLException("Auto nie jest dostępne (status=" + status + ").");
+                checkNoOverlap(lease, carId, start, end);
+
+                Connection conn = lease.connection();
+                conn.setAutoCommit(false);
+                try {
+                    PreparedStatement claim = lease.prepare(
+                            "UPDATE car SET version=version+1, " +
+                            "  status=CASE WHEN ? THEN 'RENTED' ELSE status END, " +
+                            "  updated_at=CASE WHEN ? THEN now() ELSE updated_at END " +
+                            "WHERE car_id=? AND version=?");
+                    claim.setBoolean(1, startsNow);
+                    claim.setBoolean(2, startsNow);
+                    claim.setInt(3, carId);
+                    claim.setInt(4, version);
+                    if (claim.executeUpdate() == 1) {
+                        PreparedStatement ins = lease.prepare(INSERT_RENTAL_SQL);
+                        bindRental(ins, clientId, carId, start, end, terms);
+                        ins.executeUpdate();
+                        if (startsNow) notifyCarChanged(lease, carId, "RENTED");
+                        conn.commit();
+                        READS.afterWrite(lease);
+                        return;
+                    }
+                    conn.rollback();
+                } catch (SQLException ex) {
+                    try { conn.rollback(); } catch (SQLException ignored) {}
+                    throw ex;
                 }
             }
+            versionConflict(attempt, t0);
+        }
+    }
+
+    // Zwrot optymistyczny: warunkowy UPDATE auta po wersji, potem zamknięcie wypożyczenia w tej samej transakcji.
+    static void returnCarOptimistic(int carId) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            long t0 = System.nanoTime();
+            try (ConnectionPool.Lease lease = POOL.borrow()) {
+                PreparedStatement read = lease.prepare("SELECT version FROM car WHERE car_id=?");
+                read.setInt(1, carId);
+                int version;
+                try (ResultSet rs = read.executeQuery()) {
+                    if (!rs.next()) throw new SQLException("Nie ma takiego auta (car_id=" + carId + ").");
+                    version = rs.getInt("version");
+                }
 
-            // zamknij aktywne wypożyczenie dla auta (jeśli jest)
-            int updated;
-            try (PreparedStatement updRental = conn.prepareStatement(
-                    "UPDATE rental SET status='RETURNED', returned_at=now() " +
-                    "WHERE car_id=? AND status='ACTIVE'")) {
-                updRental.setInt(1, carId);
-                updated = updRental.executeUpdate();
+                Connection conn = lease.connection();
+                conn.setAutoCommit(false);
+                try {
+                    PreparedStatement claim = lease.prepare(
+                            "UPDATE car SET status='AVAILABLE', updated_at=now(), version=version+1 " +
+                            "WHERE car_id=? AND version=?");
+                    claim.setInt(1, carId);
+                    claim.setInt(2, version);
+                    if (claim.executeUpdate() == 1) {
+                        PreparedStatement updRental = lease.prepare(
+                                "UPDATE rental SET status='RETURNED', returned_at=now() " +
+                                "WHERE car_id=? AND status='ACTIVE' AND start_date <= current_date");
+                        updRental.setInt(1, carId);
+                        if (updRental.executeUpdate() == 0) {
+                            throw new SQLException("To auto nie ma aktywnego wypożyczenia.");
+                        }
+                        notifyCarChanged(lease, carId, "AVAILABLE");
+                        conn.commit();
+                        READS.afterWrite(lease);
+                        return;
+                    }
+                    conn.rollback();
+                } catch (SQLException ex) {
+                    try { conn.rollback(); } catch (SQLException ignored) {}
+                    throw ex;
+                }
             }
+            versionConflict(attempt, t0);
+        }
+    }
+
+    // Konflikt wersji: zapis w metrykach i odczekanie przed kolejną próbą (lub błąd po ostatniej)
+    private static void versionConflict(int attempt, long attemptStart) throws SQLException {
+        Metrics.record(Metrics.Op.VERSION_CONFLICT, attemptStart, attempt < OPTIMISTIC_ATTEMPTS);
+        if (attempt >= OPTIMISTIC_ATTEMPTS) {
+            throw new SQLException("Auto jest właśnie zmieniane na innym stanowisku. Spróbuj ponownie.");
+        }
+        long cap = Math.min(OPTIMISTIC_MAX_BACKOFF_MS, OPTIMISTIC_BACKOFF_MS << (attempt - 1));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Przerwano ponawianie operacji.", e);
+        }
+    }
+
+    public record RentRequest(int clientId, int carId, Date start, Date end) {}
+
+    // Wynik operacji grupowej dla jednego auta
+    public record BulkResult(int carId, boolean ok, String message) {}
+
+    // Wypożyczenie wielu aut w jednej transakcji. Auta blokowane są w kolejności car_id
+    // (brak zakleszczeń między stanowiskami), zmiany idą paczkami. Auta niedostępne
+    // są pomijane i zgłaszane w wyniku - nie blokują pozostałych.
+    public static List<BulkResult> rentCars(List<RentRequest> requests) throws SQLException {
+        List<RentRequest> sorted = new ArrayList<>(requests);
+        sorted.sort(Comparator.comparingInt(RentRequest::carId));
+
+        Set<Integer> seen = new HashSet<>();
+        Set<Integer> duplicated = new HashSet<>();
+        for (RentRequest r : sorted) {
+            if (!seen.add(r.carId())) duplicated.add(r.carId());
+        }
+
+        Map<Integer, BulkResult> results = new HashMap<>();
+        for (Integer id : duplicated) {
+            results.put(id, new BulkResult(id, false, "Auto podane więcej niż raz."));
+        }
+        List<RentRequest> toLock = sorted.stream().filter(r -> !duplicated.contains(r.carId())).toList();
+
+        RateTable rates = QUOTES.table();
+        Map<RentRequest, RateTable.Terms> terms = new HashMap<>();
+        for (RentRequest r : toLock) {
+            terms.put(r, rates.terms(r.clientId(), r.start().toLocalDate(), r.end().toLocalDate()));
+        }
+
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try (ConnectionPool.Lease lease = POOL.borrow()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            try {
+                Map<Integer, String> statuses = lockCars(lease, toLock.stream().map(RentRequest::carId).toList());
+                Set<Integer> overlapping = findOverlaps(lease, toLock);
+                Date today = currentDate(lease);
+
+                List<RentRequest> accepted = new ArrayList<>();
+                List<Integer> startingNow = new ArrayList<>();
+                for (RentRequest r : toLock) {
+                    String st = statuses.get(r.carId());
+                    boolean startsNow = !r.start().after(today);
+                    if (st == null) {
+                        results.put(r.carId(), new BulkResult(r.carId(), false, "Nie ma takiego auta (car_id=" + r.carId() + ")."));
+                    } else if (startsNow && !"AVAILABLE".equals(st)) {
+                        results.put(r.carId(), new BulkResult(r.carId(), false, "Auto nie jest dostępne (status=" + st + ")."));
+                    } else if (overlapping.contains(r.carId())) {
+                        results.put(r.carId(), new BulkResult(r.carId(), false, overlapError(r.start(), r.end()).getMessage()));
+                    } else {
+                        accepted.add(r);
+                        if (startsNow) startingNow.add(r.carId());
+                    }
+                }
+
+                if (!accepted.isEmpty()) {
+                    // każda rezerwacja (także na przyszłość) zmienia wersję auta
+                    PreparedStatement bump = lease.prepare("UPDATE car SET version=version+1 WHERE car_id = ANY(?)");
+                    bump.setArray(1, conn.createArrayOf("int4", accepted.stream().map(RentRequest::carId).toArray()));
+                    bump.executeUpdate();
+
+                    if (!startingNow.isEmpty()) {
+                        PreparedStatement upd = lease.prepare(
+                                "UPDATE car SET status='RENTED', updated_at=now() WHERE car_id = ANY(?)");
+                        upd.setArray(1, conn.createArrayOf("int4", startingNow.toArray()));
+                        upd.executeUpdate();
+                        notifyCarsChanged(lease, startingNow, "RENTED");
+                    }
+
+                    PreparedStatement ins = lease.prepare(INSERT_RENTAL_SQL);
+                    for (RentRequest r : accepted) {
+                        bindRental(ins, r.clientId(), r.carId(), r.start(), r.end(), terms.get(r));
+                        ins.addBatch();
+                    }
+                    ins.executeBatch();
 
-            if (updated == 0) {
-                throw new SQLException("To auto nie ma aktywnego wypożyczenia.");
+                    for (RentRequest r : accepted) {
+                        results.put(r.carId(), new BulkResult(r.carId(), true, "Wypożyczono."));
+                    }
+                }
+
+                conn.commit();
+                READS.afterWrite(lease);
+                ok = true;
+            } catch (SQLException ex) {
+                try { conn.rollback(); } catch (SQLException ignored) {}
+                throw ex;
             }
+        } finally {
+            Metrics.record(Metrics.Op.RENT_CARS, t0, ok);
+        }
+
+        return inRequestOrder(requests.stream().map(RentRequest::carId).toList(), results);
+    }
+
+    // Zwrot wielu aut w jednej transakcji (blokady w kolejności car_id).
+    public static List<BulkResult> returnCars(List<Integer> carIds) throws SQLException {
+        List<Integer> ids = carIds.stream().distinct().sorted().toList();
+        Map<Integer, BulkResult> results = new HashMap<>();
+
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try (ConnectionPool.Lease lease = POOL.borrow()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            try {
+                Map<Integer, String> statuses = lockCars(lease, ids);
+
+                PreparedStatement updRental = lease.prepare(
+                        "UPDATE rental SET status='RETURNED', returned_at=now() " +
+                        "WHERE car_id = ANY(?) AND status='ACTIVE' AND start_date <= current_date RETURNING car_id");
+                updRental.setArray(1, conn.createArrayOf("int4", ids.toArray()));
+                Set<Integer> closed = new HashSet<>();
+                try (ResultSet rs = updRental.executeQuery()) {
+                    while (rs.next()) closed.add(rs.getInt(1));
+                }
+
+                if (!closed.isEmpty()) {
+                    List<Integer> freed = closed.stream().sorted().toList();
+                    PreparedStatement updCar = lease.prepare(
+                            "UPDATE car SET status='AVAILABLE', updated_at=now(), version=version+1 WHERE car_id = ANY(?)");
+                    updCar.setArray(1, conn.createArrayOf("int4", freed.toArray()));
+                    updCar.executeUpdate();
+                    notifyCarsChanged(lease, freed, "AVAILABLE");
+                }
+
+                for (Integer id : ids) {
+                    if (!statuses.containsKey(id)) {
+                        results.put(id, new BulkResult(id, false, "Nie ma takiego auta (car_id=" + id + ")."));
+                    } else if (!closed.contains(id)) {
+                        results.put(id, new BulkResult(id, false, "To auto nie ma aktywnego wypożyczenia."));
+                    } else {
+                        results.put(id, new BulkResult(id, true, "Zwrócono."));
+                    }
+                }
 
-            // ustaw auto jako dostępne
-            try (PreparedStatement updCar = conn.prepareStatement(
-                    "UPDATE car SET status='AVAILABLE' WHERE car_id=?")) {
-                updCar.setInt(1, carId);
-                updCar.executeUpdate();
+                conn.commit();
+                READS.afterWrite(lease);
+                ok = true;
+            } catch (SQLException ex) {
+                try { conn.rollback(); } catch (SQLException ignored) {}
+                throw ex;
             }
+        } finally {
+            Metrics.record(Metrics.Op.RETURN_CARS, t0, ok);
+        }
 
-            conn.commit();
-        } catch (SQLException ex) {
-            try { conn.rollback(); } catch (SQLException ignored) {}
-            throw ex;
+        return inRequestOrder(carIds, results);
+    }
+
+    // Blokuje auta w kolejności car_id (ORDER BY przed FOR UPDATE) i zwraca ich statusy
+    private static Map<Integer, String> lockCars(ConnectionPool.Lease lease, List<Integer> ids) throws SQLException {
+        Map<Integer, String> statuses = new HashMap<>();
+        if (ids.isEmpty()) return statuses;
+
+        PreparedStatement lock = lease.prepare(
+                "SELECT car_id, status FROM car WHERE car_id = ANY(?) ORDER BY car_id FOR UPDATE");
+        lock.setArray(1, lease.connection().createArrayOf("int4", ids.toArray()));
+        try (ResultSet rs = executeLocking(lock)) {
+            while (rs.next()) statuses.put(rs.getInt("car_id"), rs.getString("status"));
+        }
+        return statuses;
+    }
+
+    // Auta, dla których żądany termin nachodzi na aktywne wypożyczenie/rezerwację (jedno zapytanie dla całej paczki)
+    private static Set<Integer> findOverlaps(ConnectionPool.Lease lease, List<RentRequest> requests) throws SQLException {
+        Set<Integer> out = new HashSet<>();
+        if (requests.isEmpty()) return out;
+
+        Connection conn = lease.connection();
+        PreparedStatement ps = lease.prepare(
+                "SELECT DISTINCT r.car_id FROM rental r " +
+                "JOIN unnest(?::int4[], ?::date[], ?::date[]) AS q(car_id, s, e) ON r.car_id=q.car_id " +
+                "WHERE r.status='ACTIVE' AND r.start_date <= q.e AND r.end_date >= q.s");
+        ps.setArray(1, conn.createArrayOf("int4", requests.stream().map(RentRequest::carId).toArray()));
+        ps.setArray(2, conn.createArrayOf("date", requests.stream().map(RentRequest::start).toArray()));
+        ps.setArray(3, conn.createArrayOf("date", requests.stream().map(RentRequest::end).toArray()));
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) out.add(rs.getInt(1));
+        }
+        return out;
+    }
+
+    private static List<BulkResult> inRequestOrder(List<Integer> carIds, Map<Integer, BulkResult> results) {
+        List<BulkResult> out = new ArrayList<>(carIds.size());
+        Set<Integer> seen = new HashSet<>();
+        for (Integer id : carIds) {
+            if (seen.add(id)) out.add(results.get(id));
+        }
+        return out;
+    }
+
+    // Odtworzenie paczki operacji z dziennika stanowiska (RentalJournal) w jednej transakcji.
+    // Każda operacja pod własnym punktem zapisu; jej id trafia do journal_applied razem ze zmianą,
+    // więc paczka ponowiona po zerwanym połączeniu (commit doszedł, odpowiedź nie) niczego nie dubluje.
+    // Odrzucenie (auto niedostępne, termin zajęty, brak klienta, uszkodzony wpis) to wynik operacji,
+    // nie błąd paczki; błąd przejściowy (połączenie, zakleszczenie) wycofuje całą paczkę do ponowienia.
+    // Cena według warunków zapisanych przy przyjęciu; bieżący cennik tylko dla wpisów bez nich.
+    // Data i godzina też z chwili przyjęcia (returned_at, czy wypożyczenie już się zaczęło).
+    // Zawsze ścieżka CLASSIC (rentInTx/returnInTx) - operacja i znacznik w journal_applied muszą być
+    // w jednej transakcji; dlatego App włącza dziennik tylko przy -Dwypozyczalnia.tx=classic.
+    static List<RentalJournal.Outcome> applyJournal(List<RentalJournal.Entry> batch) throws SQLException {
+        RateTable rates = null;
+        List<RentalJournal.Outcome> out = new ArrayList<>(batch.size());
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try (ConnectionPool.Lease lease = POOL.borrow()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement seen = lease.prepare("SELECT ok, message FROM journal_applied WHERE op_id=?");
+                PreparedStatement mark = lease.prepare("INSERT INTO journal_applied(op_id, ok, message) VALUES (?, ?, ?)");
+                for (RentalJournal.Entry e : batch) {
+                    seen.setObject(1, e.id());
+                    try (ResultSet rs = seen.executeQuery()) {
+                        if (rs.next()) {
+                            out.add(new RentalJournal.Outcome(e.id(), e.carId(), rs.getBoolean(1), rs.getString(2)));
+                            continue;
+                        }
+                    }
+                    Savepoint sp = conn.setSavepoint();
+                    String message;
+                    boolean applied;
+                    try {
+                        if (e.kind() == RentalJournal.Kind.RENT) {
+                            RateTable.Terms terms = e.terms();
+                            if (terms == null) {
+                                if (rates == null) rates = QUOTES.table();
+                                terms = rates.terms(e.clientId(), e.start(), e.end());
+                            }
+                            rentInTx(lease, e.clientId(), e.carId(), Date.valueOf(e.start()), Date.valueOf(e.end()), terms,
+                                    acceptedAt(e));
+                            message = "Wypożyczono.";
+                        } else {
+                            returnInTx(lease, e.carId(), acceptedAt(e));
+                            message = "Zwrócono.";
+                        }
+                        applied = true;
+                    } catch (SQLException ex) {
+                        if (transientError(ex)) throw ex;
+                        conn.rollback(sp);
+                        message = "23P01".equals(ex.getSQLState()) && e.kind() == RentalJournal.Kind.RENT
+                                ? overlapError(Date.valueOf(e.start()), Date.valueOf(e.end())).getMessage()
+                                : ex.getMessage();
+                        applied = false;
+                    } catch (RuntimeException ex) {
+                        // wpis, którego nie da się wykonać (np. niepoprawna data) - odrzucony, nie blokuje kolejnych
+                        conn.rollback(sp);
+                        message = "Niepoprawna operacja w dzienniku: " + ex;
+                        applied = false;
+                    }
+                    mark.setObject(1, e.id());
+                    mark.setBoolean(2, applied);
+                    mark.setString(3, message);
+                    mark.executeUpdate();
+                    out.add(new RentalJournal.Outcome(e.id(), e.carId(), applied, message));
+                }
+                conn.commit();
+                READS.afterWrite(lease);
+                ok = true;
+            } catch (SQLException ex) {
+                try { conn.rollback(); } catch (SQLException ignored) {}
+                throw ex;
+            }
         } finally {
-            try { conn.close(); } catch (SQLException ignored) {}
+            Metrics.record(Metrics.Op.JOURNAL_REPLAY, t0, ok);
+        }
+        return out;
+    }
+
+    private static Timestamp acceptedAt(RentalJournal.Entry e) {
+        return e.acceptedAt() == null ? null : Timestamp.from(e.acceptedAt());
+    }
+
+    // Połączenie, wycofanie transakcji (zakleszczenie, serializacja), zasoby i restart serwera,
+    // limit czasu - warto ponowić; pozostałe (błąd domenowy, naruszenie więzów) są ostateczne
+    static boolean transientError(SQLException ex) {
+        if (ex instanceof SQLTimeoutException) return true;
+        String state = ex.getSQLState();
+        return state != null && (state.startsWith("08") || state.startsWith("40") || state.startsWith("53")
+                || state.startsWith("57") || state.equals("55P03"));
+    }
+
+    // Raport floty: strumień wierszy przez kursor po stronie serwera i agregacja w pamięci,
+    // a dla długich okresów (-Dwypozyczalnia.reports.pushdownDays) agregacja w SQL.
+    private static final long REPORT_PUSHDOWN_DAYS = Long.getLong("wypozyczalnia.reports.pushdownDays", 366L);
+    private static final int REPORT_FETCH_SIZE = 5_000;
+
+    public static FleetReport fleetReport(LocalDate from, LocalDate to) throws SQLException {
+        long t0 = System.nanoTime();
+        FleetReportBuilder builder = new FleetReportBuilder(from, to, listCars());
+        boolean pushDown = ChronoUnit.DAYS.between(from, to) + 1 > REPORT_PUSHDOWN_DAYS;
+        if (pushDown) {
+            aggregateRentalsInDb(from, to, builder);
+        } else {
+            int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            builder.aggregateParallel(sink -> streamRentals(from, to, sink), workers);
+        }
+        return builder.build(pushDown, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+    }
+
+    // Wypożyczenia nachodzące na okres, wiersz po wierszu (bez listy w pamięci).
+    // Raporty i eksport czytają rental_history: bieżące partycje razem z zarchiwizowanymi.
+    // Kursor po stronie serwera wymaga wyłączonego autocommit i fetchSize > 0.
+    static void streamRentals(LocalDate from, LocalDate to, FleetReportBuilder.RentalSink sink) throws SQLException {
+        try (ConnectionPool.Lease lease = READS.borrowForStream()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT car_id, start_date - DATE '1970-01-01' AS s, end_date - DATE '1970-01-01' AS e, " +
+                    "  (coalesce(total_price, 0) * 100)::bigint AS total " +
+                    "FROM rental_history WHERE start_date <= ? AND end_date >= ?",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                ps.setFetchSize(REPORT_FETCH_SIZE);
+                ps.setDate(1, Date.valueOf(to));
+                ps.setDate(2, Date.valueOf(from));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) sink.accept(rs.getInt(1), rs.getLong(2), rs.getLong(3), rs.getLong(4));
+                }
+            } finally {
+                conn.rollback();
+            }
+        }
+    }
+
+    // Historia wypożyczeń z klientem i autem, kursorem po stronie serwera (jak streamRentals).
+    // Jeden obiekt Row na cały eksport - pamięć nie rośnie z liczbą wierszy.
+    static void streamRentalHistory(LocalDate from, LocalDate to, RentalExport.RowSink sink) throws SQLException, IOException {
+        try (ConnectionPool.Lease lease = READS.borrowForStream()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT r.rental_id, r.client_id, cl.first_name, cl.last_name, r.car_id, c.brand, c.model, c.year, " +
+                    "  r.start_date - DATE '1970-01-01', r.end_date - DATE '1970-01-01', r.status, " +
+                    "  (coalesce(r.total_price, 0) * 100)::bigint " +
+                    "FROM rental_history r JOIN client cl ON cl.client_id = r.client_id JOIN car c ON c.car_id = r.car_id " +
+                    "WHERE r.start_date BETWEEN ? AND ? ORDER BY r.rental_id",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                ps.setFetchSize(REPORT_FETCH_SIZE);
+                ps.setDate(1, Date.valueOf(from));
+                ps.setDate(2, Date.valueOf(to));
+                RentalExport.Row row = new RentalExport.Row();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        row.rentalId = rs.getLong(1);
+                        row.clientId = rs.getInt(2);
+                        row.firstName = rs.getString(3);
+                        row.lastName = rs.getString(4);
+                        row.carId = rs.getInt(5);
+                        row.brand = rs.getString(6);
+                        row.model = rs.getString(7);
+                        row.year = rs.getInt(8);
+                        row.startDay = rs.getInt(9);
+                        row.endDay = rs.getInt(10);
+                        row.status = rs.getString(11);
+                        row.totalMinor = rs.getLong(12);
+                        sink.accept(row);
+                    }
+                }
+            } finally {
+                conn.rollback();
+            }
         }
     }
 
+    // Ta sama macierz (auto x miesiąc) policzona w bazie; do aplikacji trafia tylko wynik GROUP BY.
+    static void aggregateRentalsInDb(LocalDate from, LocalDate to, FleetReportBuilder builder) throws SQLException {
+        // wynik trafia do buildera dopiero po całym zapytaniu, więc ponowienie na głównej niczego nie dubluje
+        List<long[]> cells = READS.read(lease -> {
+            List<long[]> out = new ArrayList<>();
+            PreparedStatement ps = lease.prepare(
+                    "WITH p AS (SELECT ?::date AS f, ?::date AS t), " +
+                    "m AS (" +
+                    "  SELECT (row_number() OVER (ORDER BY d) - 1)::int AS idx, " +
+                    "    greatest(d::date, p.f) AS ms, least((d + interval '1 month')::date - 1, p.t) AS me " +
+                    "  FROM p, generate_series(date_trunc('month', p.f), p.t, interval '1 month') d" +
+                    ") " +
+                    "SELECT r.car_id, m.idx, " +
+                    "  sum(least(r.end_date, m.me) - greatest(r.start_date, m.ms) + 1) AS days, " +
+                    "  sum(CASE WHEN r.start_date BETWEEN m.ms AND m.me " +
+                    "      THEN (coalesce(r.total_price, 0) * 100)::bigint ELSE 0 END) AS revenue, " +
+                    // n: każde wypożyczenie liczone raz - w pierwszym miesiącu okresu, w którym występuje
+                    "  count(*) FILTER (WHERE r.start_date >= m.ms OR m.idx = 0) AS n " +
+                    "FROM rental_history r JOIN m ON r.start_date <= m.me AND r.end_date >= m.ms " +
+                    "GROUP BY r.car_id, m.idx");
+            ps.setDate(1, Date.valueOf(from));
+            ps.setDate(2, Date.valueOf(to));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.add(new long[] {rs.getInt(1), rs.getInt(2), rs.getLong(3), rs.getLong(4), rs.getLong(5)});
+                }
+            }
+            return out;
+        });
+        for (long[] c : cells) builder.addCell((int) c[0], (int) c[1], c[2], c[3], c[4]);
+    }
+
+    public static int countClients() throws SQLException {
+        return READS.read(lease -> {
+            try (ResultSet rs = lease.prepare("SELECT count(*) FROM client").executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        });
+    }
+
+    // Wyszukiwanie po prefiksie nazwiska lub imienia - dla baz zbyt dużych na cache w pamięci
+    public static List<ClientRow> searchClients(String query, int limit) throws SQLException {
+        String q = (query == null) ? "" : query.trim();
+        String pattern = q.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+
+        return READS.read(lease -> {
+            List<ClientRow> out = new ArrayList<>();
+            PreparedStatement ps = lease.prepare(
+                    "SELECT client_id, first_name, last_name FROM client " +
+                    "WHERE last_name ILIKE ? OR first_name ILIKE ? " +
+                    "ORDER BY last_name, first_name LIMIT ?");
+            ps.setString(1, pattern);
+            ps.setString(2, pattern);
+            ps.setInt(3, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.add(mapClient(rs));
+                }
+            }
+            return out;
+        });
+    }
+
     public static List<ClientRow> listClients() throws SQLException {
-    List<ClientRow> out = new ArrayList<>();
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try {
+            List<ClientRow> out = READS.read(lease -> {
+                List<ClientRow> rows = new ArrayList<>();
+                PreparedStatement ps = lease.prepare(
+                        "SELECT client_id, first_name, last_name FROM client ORDER BY last_name, first_name"
+                );
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(mapClient(rs));
+                    }
+                }
+                return rows;
+            });
+            ok = true;
+            return out;
+        } finally {
+            Metrics.record(Metrics.Op.LIST_CLIENTS, t0, ok);
+        }
+    }
+
+    // Import CSV przez COPY FROM STDIN (bez INSERT per wiersz). Wiersze idą paczkami po
+    // -Dwypozyczalnia.import.batchRows; każda paczka to osobne COPY zatwierdzane od razu,
+    // więc onBatch (liczba zaimportowanych) może odświeżać listy w trakcie importu.
+    // Błąd w środku zostawia wcześniejsze paczki w bazie - komunikat podaje, ile ich weszło.
+    private static final int IMPORT_BATCH_ROWS = Integer.getInteger("wypozyczalnia.import.batchRows", 50_000);
 
-    try (Connection conn = DriverManager.getConnection(URL, USER, PASS);
-         PreparedStatement ps = conn.prepareStatement(
-                 "SELECT client_id, first_name, last_name FROM client ORDER BY last_name, first_name"
-         );
-         ResultSet rs = ps.executeQuery()) {
+    public static CsvImport.Result importCsv(CsvImport.Kind kind, Path file, LongConsumer onBatch) throws SQLException {
+        String sql = (kind == CsvImport.Kind.CARS)
+                ? "COPY car(brand, model, year, daily_price, status) FROM STDIN WITH (FORMAT csv)"
+                : "COPY client(first_name, last_name) FROM STDIN WITH (FORMAT csv)";
 
-        while (rs.next()) {
-            out.add(new ClientRow(
-                    rs.getInt("client_id"),
-                    rs.getString("first_name"),
-                    rs.getString("last_name")
-            ));
+        try (ConnectionPool.Lease lease = POOL.borrow()) {
+            // odświeżenie list po paczce ma już widzieć zaimportowane wiersze (odczyt przez replikę)
+            LongConsumer afterBatch = n -> {
+                READS.afterWrite(lease);
+                onBatch.accept(n);
+            };
+            CopySink sink = new CopySink(lease.connection().unwrap(PGConnection.class).getCopyAPI(), sql, afterBatch);
+            try {
+                return CsvImport.run(file, kind, sink);
+            } catch (IOException | SQLException | RuntimeException ex) {
+                // każdy błąd (także niesprawdzany) kończy otwarte COPY, zanim połączenie wróci do puli
+                sink.cancel();
+                throw new SQLException("Import przerwany (zapisano " + sink.committed + " wierszy): " + ex.getMessage(), ex);
+            }
         }
     }
 
-    return out;
-}
+    private static final class CopySink implements CsvImport.RowSink {
+        private final CopyManager copy;
+        private final String sql;
+        private final LongConsumer onBatch;
+        private final StringBuilder line = new StringBuilder(128);
+        private CopyIn current;
+        private int inBatch;
+        long committed;
+
+        CopySink(CopyManager copy, String sql, LongConsumer onBatch) {
+            this.copy = copy;
+            this.sql = sql;
+            this.onBatch = onBatch;
+        }
+
+        @Override
+        public void accept(String[] fields) throws SQLException {
+            if (current == null) current = copy.copyIn(sql);
+            line.setLength(0);
+            CsvImport.appendCsv(line, fields);
+            byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            current.writeToCopy(bytes, 0, bytes.length);
+            if (++inBatch >= IMPORT_BATCH_ROWS) finish();
+        }
+
+        @Override
+        public void finish() throws SQLException {
+            if (current == null) return;
+            committed += current.endCopy();
+            current = null;
+            inBatch = 0;
+            onBatch.accept(committed);
+        }
+
+        void cancel() {
+            if (current == null || !current.isActive()) return;
+            try {
+                current.cancelCopy();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
 
 }
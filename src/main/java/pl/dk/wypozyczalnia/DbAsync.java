@@ -0,0 +1,99 @@
+package pl.dk.wypozyczalnia;
+
+import javafx.application.Platform;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Asynchroniczna warstwa nad Db: zapytania idą na wirtualne wątki,
+// wyniki wracają na wątek JavaFX przez FX executor.
+public class DbAsync {
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    // do thenAcceptAsync(..., DbAsync.FX) - wykonuje na wątku aplikacji JavaFX
+    public static final Executor FX = Platform::runLater;
+
+    // Źródło danych (domyślnie PostgreSQL; tryb demo podmienia na repozytorium w pamięci)
+    private static volatile RentalRepository repository = new JdbcRentalRepository();
+
+    public static RentalRepository repository() {
+        return repository;
+    }
+
+    public static void use(RentalRepository repo) {
+        repository = repo;
+    }
+
+    @FunctionalInterface
+    public interface SqlCall<T> {
+        T call() throws SQLException;
+    }
+
+    public static <T> CompletableFuture<T> supply(SqlCall<T> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return call.call();
+            } catch (SQLException ex) {
+                throw new CompletionException(ex);
+            }
+        }, EXECUTOR);
+    }
+
+    public static CompletableFuture<List<CarRow>> listCars() {
+        return supply(() -> repository.listCars());
+    }
+
+    public static CompletableFuture<Db.CarDelta> listCarsChangedSince(Timestamp since) {
+        return supply(() -> repository.listCarsChangedSince(since));
+    }
+
+    public static CompletableFuture<CarRow> getCar(int carId) {
+        return supply(() -> repository.getCar(carId));
+    }
+
+    public static CompletableFuture<List<ClientRow>> listClients() {
+        return supply(() -> repository.listClients());
+    }
+
+    public static CompletableFuture<Void> rentCar(int clientId, int carId, Date start, Date end) {
+        return supply(() -> {
+            repository.rentCar(clientId, carId, start, end);
+            return null;
+        });
+    }
+
+    public static CompletableFuture<Void> returnCar(int carId) {
+        return supply(() -> {
+            repository.returnCar(carId);
+            return null;
+        });
+    }
+
+    public static CompletableFuture<List<Db.BulkResult>> rentCars(List<Db.RentRequest> requests) {
+        return supply(() -> repository.rentCars(requests));
+    }
+
+    public static CompletableFuture<List<Db.BulkResult>> returnCars(List<Integer> carIds) {
+        return supply(() -> repository.returnCars(carIds));
+    }
+
+    // Rozpakowuje CompletionException, żeby w UI pokazać właściwy komunikat
+    public static Throwable unwrap(Throwable t) {
+        while (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    public static void shutdown() {
+        EXECUTOR.shutdownNow();
+    }
+}
@@ -0,0 +1,28 @@
+package pl.dk.wypozyczalnia;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// Zdarzenie JFR dla operacji na bazie (jdk.jfr: np. -XX:StartFlightRecording, JDK Mission Control)
+@Name("pl.dk.wypozyczalnia.DbOperation")
+@Label("Operacja bazy danych")
+@Category({"Wypożyczalnia", "Baza danych"})
+@Description("Czas i wynik operacji Db (listCars, rentCar, oczekiwanie na FOR UPDATE, ...)")
+@StackTrace(false)
+public class DbOperationEvent extends Event {
+
+    @Label("Operacja")
+    String operation;
+
+    @Label("Powodzenie")
+    boolean success;
+
+    @Label("Czas")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+}
@@ -0,0 +1,19 @@
+package pl.dk.wypozyczalnia;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+
+// Wynik raportu wykorzystania floty i przychodu za okres [from, to].
+// Dni najmu przycięte do okresu; przychód (rental.total_price) liczony w miesiącu rozpoczęcia najmu.
+public record FleetReport(LocalDate from, LocalDate to,
+                          List<CarLine> cars, List<BrandLine> brands, List<MonthLine> months,
+                          long rentedDays, double utilisation, long revenueMinor,
+                          long rowsScanned, boolean pushedDown, long elapsedMillis) {
+
+    public record CarLine(int carId, String brand, String model, long rentedDays, double utilisation, long revenueMinor) {}
+
+    public record BrandLine(String brand, int cars, long rentedDays, double utilisation, long revenueMinor) {}
+
+    public record MonthLine(YearMonth month, long rentedDays, double utilisation, long revenueMinor) {}
+}
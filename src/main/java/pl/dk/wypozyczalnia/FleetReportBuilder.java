@@ -0,0 +1,259 @@
+package pl.dk.wypozyczalnia;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Agregacja raportu floty: macierz (auto x miesiąc) dni najmu i przychodu.
+// Pamięć zależy od liczby aut i miesięcy w okresie, nie od długości historii -
+// wiersze wypożyczeń przechodzą strumieniem i nie są nigdzie zbierane.
+final class FleetReportBuilder {
+
+    // Odbiorca wierszy z kursora (dni jako epochDay, kwota w groszach)
+    @FunctionalInterface
+    interface RentalSink {
+        void accept(int carId, long startDay, long endDay, long totalMinor);
+    }
+
+    private static final int BATCH = 4096;
+
+    private final LocalDate from;
+    private final LocalDate to;
+    private final long fromDay;
+    private final long toDay;
+    private final List<CarRow> cars;
+    private final int[] slotById;        // car_id -> wiersz macierzy (-1 = brak auta)
+    private final long[] monthStart;     // epochDay początku kolejnych miesięcy (+ granica za ostatnim)
+    private final int months;
+
+    private final long[] days;
+    private final long[] revenue;
+    private long rows;
+
+    FleetReportBuilder(LocalDate from, LocalDate to, List<CarRow> cars) {
+        this.from = from;
+        this.to = to;
+        this.fromDay = from.toEpochDay();
+        this.toDay = to.toEpochDay();
+        this.cars = cars;
+
+        int maxId = 0;
+        for (CarRow c : cars) maxId = Math.max(maxId, c.getCarId());
+        slotById = new int[maxId + 1];
+        Arrays.fill(slotById, -1);
+        for (int i = 0; i < cars.size(); i++) slotById[cars.get(i).getCarId()] = i;
+
+        YearMonth first = YearMonth.from(from);
+        months = (int) ChronoUnit.MONTHS.between(first, YearMonth.from(to)) + 1;
+        monthStart = new long[months + 1];
+        for (int m = 0; m <= months; m++) monthStart[m] = first.plusMonths(m).atDay(1).toEpochDay();
+
+        days = new long[cars.size() * months];
+        revenue = new long[cars.size() * months];
+    }
+
+    int months() {
+        return months;
+    }
+
+    // Jeden wiersz wypożyczenia (ścieżka strumieniowa)
+    void add(int carId, long startDay, long endDay, long totalMinor) {
+        addTo(days, revenue, carId, startDay, endDay, totalMinor);
+        rows++;
+    }
+
+    // Gotowa komórka macierzy (agregacja wykonana w SQL)
+    void addCell(int carId, int month, long rentedDays, long revenueMinor, long sourceRows) {
+        int slot = slotOf(carId);
+        rows += sourceRows;
+        if (slot < 0 || month < 0 || month >= months) return;
+        days[slot * months + month] += rentedDays;
+        revenue[slot * months + month] += revenueMinor;
+    }
+
+    private void addTo(long[] d, long[] r, int carId, long startDay, long endDay, long totalMinor) {
+        int slot = slotOf(carId);
+        if (slot < 0) return;
+        long s = Math.max(startDay, fromDay);
+        long e = Math.min(endDay, toDay);
+        if (s > e) return;
+
+        int base = slot * months;
+        int m = monthOf(s);
+        while (s <= e) {
+            long monthEnd = monthStart[m + 1] - 1;
+            long upTo = Math.min(e, monthEnd);
+            d[base + m] += upTo - s + 1;
+            s = upTo + 1;
+            m++;
+        }
+        if (startDay >= fromDay && startDay <= toDay) r[base + monthOf(startDay)] += totalMinor;
+    }
+
+    private int slotOf(int carId) {
+        return carId >= 0 && carId < slotById.length ? slotById[carId] : -1;
+    }
+
+    private int monthOf(long day) {
+        int i = Arrays.binarySearch(monthStart, day);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    // Czytnik kursora wypełnia paczki prymitywów, wątki robocze agregują do własnych macierzy,
+    // na końcu macierze są sumowane. Liczba paczek w obiegu jest stała (pamięć nie rośnie z historią).
+    interface Source {
+        void stream(RentalSink sink) throws SQLException;
+    }
+
+    void aggregateParallel(Source source, int workers) throws SQLException {
+        final class Batch {
+            final int[] car = new int[BATCH];
+            final long[] start = new long[BATCH];
+            final long[] end = new long[BATCH];
+            final long[] total = new long[BATCH];
+            int n;
+        }
+        Batch poison = new Batch();
+        BlockingQueue<Batch> full = new ArrayBlockingQueue<>(workers * 2);
+        BlockingQueue<Batch> free = new ArrayBlockingQueue<>(workers * 2 + 1);
+        for (int i = 0; i < workers * 2 + 1; i++) free.add(new Batch());
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<long[][]> partials = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            long[][] acc = {new long[days.length], new long[revenue.length]};
+            partials.add(acc);
+            threads.add(Thread.ofPlatform().daemon().name("report-worker-" + w).start(() -> {
+                try {
+                    for (Batch b; (b = full.take()) != poison; ) {
+                        // po błędzie dalej zwracamy paczki, żeby czytnik się nie zablokował
+                        if (failure.get() == null) {
+                            try {
+                                for (int i = 0; i < b.n; i++) addTo(acc[0], acc[1], b.car[i], b.start[i], b.end[i], b.total[i]);
+                            } catch (RuntimeException e) {
+                                failure.compareAndSet(null, e);
+                            }
+                        }
+                        b.n = 0;
+                        free.put(b);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+
+        Batch[] current = {take(free)};
+        try {
+            source.stream((carId, s, e, total) -> {
+                Batch b = current[0];
+                b.car[b.n] = carId;
+                b.start[b.n] = s;
+                b.end[b.n] = e;
+                b.total[b.n] = total;
+                if (++b.n == BATCH) {
+                    put(full, b);
+                    current[0] = take(free);
+                }
+                rows++;
+            });
+            if (current[0].n > 0) put(full, current[0]);
+        } finally {
+            for (int w = 0; w < workers; w++) put(full, poison);
+            for (Thread t : threads) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (failure.get() != null) throw new IllegalStateException("Błąd agregacji raportu.", failure.get());
+
+        for (long[][] acc : partials) {
+            for (int i = 0; i < days.length; i++) {
+                days[i] += acc[0][i];
+                revenue[i] += acc[1][i];
+            }
+        }
+    }
+
+    private static <T> T take(BlockingQueue<T> q) {
+        try {
+            return q.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Przerwano raport.", e);
+        }
+    }
+
+    private static <T> void put(BlockingQueue<T> q, T item) {
+        try {
+            q.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Przerwano raport.", e);
+        }
+    }
+
+    FleetReport build(boolean pushedDown, long elapsedMillis) {
+        long periodDays = toDay - fromDay + 1;
+        int n = cars.size();
+
+        List<FleetReport.CarLine> carLines = new ArrayList<>(n);
+        Map<String, long[]> byBrand = new LinkedHashMap<>(); // [auta, dni, przychód]
+        long[] monthDays = new long[months];
+        long[] monthRevenue = new long[months];
+        long totalDays = 0, totalRevenue = 0;
+
+        for (int slot = 0; slot < n; slot++) {
+            CarRow car = cars.get(slot);
+            long d = 0, r = 0;
+            for (int m = 0; m < months; m++) {
+                d += days[slot * months + m];
+                r += revenue[slot * months + m];
+                monthDays[m] += days[slot * months + m];
+                monthRevenue[m] += revenue[slot * months + m];
+            }
+            carLines.add(new FleetReport.CarLine(car.getCarId(), car.getBrand(), car.getModel(),
+                    d, ratio(d, periodDays), r));
+            long[] b = byBrand.computeIfAbsent(car.getBrand(), k -> new long[3]);
+            b[0]++;
+            b[1] += d;
+            b[2] += r;
+            totalDays += d;
+            totalRevenue += r;
+        }
+
+        List<FleetReport.BrandLine> brandLines = new ArrayList<>();
+        byBrand.forEach((brand, b) -> brandLines.add(
+                new FleetReport.BrandLine(brand, (int) b[0], b[1], ratio(b[1], b[0] * periodDays), b[2])));
+        brandLines.sort(Comparator.comparing(FleetReport.BrandLine::brand));
+
+        List<FleetReport.MonthLine> monthLines = new ArrayList<>(months);
+        YearMonth first = YearMonth.from(from);
+        for (int m = 0; m < months; m++) {
+            long inRange = Math.min(monthStart[m + 1] - 1, toDay) - Math.max(monthStart[m], fromDay) + 1;
+            monthLines.add(new FleetReport.MonthLine(first.plusMonths(m), monthDays[m],
+                    ratio(monthDays[m], n * inRange), monthRevenue[m]));
+        }
+
+        return new FleetReport(from, to, carLines, brandLines, monthLines,
+                totalDays, ratio(totalDays, n * periodDays), totalRevenue, rows, pushedDown, elapsedMillis);
+    }
+
+    private static double ratio(long part, long whole) {
+        return whole <= 0 ? 0 : (double) part / whole;
+    }
+}
@@ -0,0 +1,142 @@
+package pl.dk.wypozyczalnia;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Lokalna kopia listy aut i klientów na szybki start: plik czytany jednym odczytem do pamięci
+// zamiast zapytania przez wolne łącze (bez mapowania - zmapowanego pliku Windows nie pozwala
+// potem podmienić przy zapisie). Po wczytaniu aplikacja i tak dociąga deltę od zapisanego
+// znacznika (updated_at) - kopia tylko skraca czas do pierwszej wypełnionej tabeli.
+//
+// Format: "WSN2", znacznik (ms + ns), czas zapisu, tablica napisów (marki, modele, statusy, imiona,
+// nazwiska - każdy raz), auta o stałej szerokości (id, marka, model, rok, cena w groszach,
+// status jak w bazie), klienci (id, imię, nazwisko). Napisy przez indeks, więc plik ma kilkadziesiąt bajtów na auto.
+final class FleetSnapshot {
+
+    private static final int MAGIC = 0x57534E32; // "WSN2"
+
+    record Data(List<CarRow> cars, List<ClientRow> clients, Timestamp watermark, long savedAtMillis) {}
+
+    private final Path file;
+
+    FleetSnapshot(Path file) {
+        this.file = file;
+    }
+
+    // null = brak pliku albo plik nieczytelny (np. inna wersja) - wtedy zwykły start z bazy
+    Data load() {
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) return null;
+            ByteBuffer buf = ByteBuffer.allocate((int) ch.size());
+            while (buf.hasRemaining() && ch.read(buf) >= 0) { }
+            buf.flip();
+            if (buf.getInt() != MAGIC) return null;
+
+            Timestamp watermark = new Timestamp(buf.getLong());
+            watermark.setNanos(buf.getInt());
+            long savedAt = buf.getLong();
+
+            String[] strings = new String[buf.getInt()];
+            byte[] tmp = new byte[256];
+            for (int i = 0; i < strings.length; i++) {
+                int len = Short.toUnsignedInt(buf.getShort());
+                if (len > tmp.length) tmp = new byte[len];
+                buf.get(tmp, 0, len);
+                strings[i] = new String(tmp, 0, len, StandardCharsets.UTF_8);
+            }
+
+            int carCount = buf.getInt();
+            List<CarRow> cars = new ArrayList<>(carCount);
+            for (int i = 0; i < carCount; i++) {
+                int id = buf.getInt();
+                String brand = strings[buf.getInt()];
+                String model = strings[buf.getInt()];
+                int year = buf.getShort();
+                long price = buf.getLong();
+                cars.add(new CarRow(id, brand, model, year, price, strings[buf.getInt()]));
+            }
+
+            int clientCount = buf.getInt();
+            List<ClientRow> clients = new ArrayList<>(clientCount);
+            for (int i = 0; i < clientCount; i++) {
+                clients.add(new ClientRow(buf.getInt(), strings[buf.getInt()], strings[buf.getInt()]));
+            }
+            return new Data(cars, clients, watermark, savedAt);
+        } catch (IOException | RuntimeException ex) {
+            System.out.println("WARN: pomijam lokalną kopię floty (" + ex + ").");
+            return null;
+        }
+    }
+
+    // Zapis przez plik tymczasowy i przeniesienie - przerwany zapis nie psuje poprzedniej kopii
+    void save(List<CarRow> cars, List<ClientRow> clients, Timestamp watermark) throws IOException {
+        Map<String, Integer> index = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int stringBytes = 0;
+        int[] carRefs = new int[cars.size() * 3];
+        int[] clientRefs = new int[clients.size() * 2];
+        for (int i = 0; i < cars.size(); i++) {
+            carRefs[3 * i] = ref(cars.get(i).getBrand(), index, strings);
+            carRefs[3 * i + 1] = ref(cars.get(i).getModel(), index, strings);
+            carRefs[3 * i + 2] = ref(cars.get(i).getStatusText(), index, strings);
+        }
+        for (int i = 0; i < clients.size(); i++) {
+            clientRefs[2 * i] = ref(clients.get(i).getFirstName(), index, strings);
+            clientRefs[2 * i + 1] = ref(clients.get(i).getLastName(), index, strings);
+        }
+        for (byte[] s : strings) stringBytes += 2 + s.length;
+
+        int size = 4 + 12 + 8 + 4 + stringBytes + 4 + cars.size() * 26 + 4 + clients.size() * 12;
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(MAGIC);
+        buf.putLong(watermark.getTime()).putInt(watermark.getNanos());
+        buf.putLong(System.currentTimeMillis());
+        buf.putInt(strings.size());
+        for (byte[] s : strings) buf.putShort((short) s.length).put(s);
+
+        buf.putInt(cars.size());
+        for (int i = 0; i < cars.size(); i++) {
+            CarRow c = cars.get(i);
+            buf.putInt(c.getCarId()).putInt(carRefs[3 * i]).putInt(carRefs[3 * i + 1])
+                    .putShort((short) c.getYear()).putLong(c.getDailyPriceMinor()).putInt(carRefs[3 * i + 2]);
+        }
+        buf.putInt(clients.size());
+        for (int i = 0; i < clients.size(); i++) {
+            buf.putInt(clients.get(i).getClientId()).putInt(clientRefs[2 * i]).putInt(clientRefs[2 * i + 1]);
+        }
+        buf.flip();
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) ch.write(buf);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int ref(String s, Map<String, Integer> index, List<byte[]> strings) {
+        String v = (s == null) ? "" : s;
+        Integer i = index.get(v);
+        if (i == null) {
+            byte[] bytes = v.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) throw new IllegalArgumentException("Za długi napis w kopii floty.");
+            i = strings.size();
+            strings.add(bytes);
+            index.put(v, i);
+        }
+        return i;
+    }
+}
@@ -0,0 +1,316 @@
+package pl.dk.wypozyczalnia;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPInputStream;
+
+// Repozytorium terminala w trybie klienta (-Dwypozyczalnia.api=http://serwer:8080): wszystkie
+// operacje przez API RentalServer, bez własnych połączeń JDBC. Błędy z serwera wracają jako
+// SQLException z tym samym komunikatem i SQLSTATE, więc UI obsługuje je tak jak przy Db.
+public class HttpRentalRepository implements RentalRepository {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    // long polling: serwer odpowiada najpóźniej po 25 s
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(40);
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    private final URI base;
+    private final String token;
+    private final HttpClient http = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final QuoteEngine quotes = new QuoteEngine(
+            () -> RentalApi.rates(get("/api/rates")),
+            Long.getLong("wypozyczalnia.rates.ttlMs", 300_000L));
+
+    public HttpRentalRepository(String baseUrl, String token) {
+        this.base = URI.create(baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl);
+        this.token = (token == null || token.isBlank()) ? null : token;
+    }
+
+    @Override
+    public List<CarRow> listCars() throws SQLException {
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try {
+            List<CarRow> cars = RentalApi.cars(get("/api/cars"));
+            ok = true;
+            return cars;
+        } finally {
+            Metrics.record(Metrics.Op.LIST_CARS, t0, ok);
+        }
+    }
+
+    @Override
+    public Db.CarDelta listCarsChangedSince(Timestamp since) throws SQLException {
+        return RentalApi.delta(get(since == null ? "/api/cars/delta" : "/api/cars/delta?since=" + RentalApi.since(since)));
+    }
+
+    @Override
+    public CarRow getCar(int carId) throws SQLException {
+        Object v = get("/api/cars/" + carId);
+        return v == null ? null : RentalApi.car(v);
+    }
+
+    @Override
+    public List<ClientRow> listClients() throws SQLException {
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try {
+            List<ClientRow> clients = RentalApi.clients(get("/api/clients"));
+            ok = true;
+            return clients;
+        } finally {
+            Metrics.record(Metrics.Op.LIST_CLIENTS, t0, ok);
+        }
+    }
+
+    @Override
+    public int countClients() throws SQLException {
+        return ((Number) get("/api/clients/count")).intValue();
+    }
+
+    @Override
+    public List<ClientRow> searchClients(String query, int limit) throws SQLException {
+        return RentalApi.clients(get("/api/clients/search?q=" + encode(query) + "&limit=" + limit));
+    }
+
+    @Override
+    public void rentCar(int clientId, int carId, Date start, Date end) throws SQLException {
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try {
+            StringBuilder sb = new StringBuilder("{");
+            Json.key(sb, "clientId").append(clientId);
+            Json.key(sb, "carId").append(carId);
+            Json.str(Json.key(sb, "start"), start.toString());
+            Json.str(Json.key(sb, "end"), end.toString());
+            post("/api/rent", sb.append('}').toString());
+            ok = true;
+        } finally {
+            Metrics.record(Metrics.Op.RENT_CAR, t0, ok);
+        }
+    }
+
+    @Override
+    public void returnCar(int carId) throws SQLException {
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try {
+            post("/api/return", "{\"carId\":" + carId + "}");
+            ok = true;
+        } finally {
+            Metrics.record(Metrics.Op.RETURN_CAR, t0, ok);
+        }
+    }
+
+    @Override
+    public List<Db.BulkResult> rentCars(List<Db.RentRequest> requests) throws SQLException {
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try {
+            List<Db.BulkResult> out = RentalApi.bulkResults(post("/api/rent-bulk", RentalApi.rentRequests(requests)));
+            ok = true;
+            return out;
+        } finally {
+            Metrics.record(Metrics.Op.RENT_CARS, t0, ok);
+        }
+    }
+
+    @Override
+    public List<Db.BulkResult> returnCars(List<Integer> carIds) throws SQLException {
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try {
+            List<Db.BulkResult> out = RentalApi.bulkResults(post("/api/return-bulk", RentalApi.ids(carIds)));
+            ok = true;
+            return out;
+        } finally {
+            Metrics.record(Metrics.Op.RETURN_CARS, t0, ok);
+        }
+    }
+
+    @Override
+    public List<AvailabilityIndex.Booking> listActiveRentals() throws SQLException {
+        return RentalApi.bookings(get("/api/rentals/active"));
+    }
+
+    @Override
+    public List<AvailabilityIndex.Booking> listActiveRentals(Collection<Integer> carIds) throws SQLException {
+        if (carIds.isEmpty()) return List.of();
+        StringJoiner ids = new StringJoiner(",");
+        for (Integer id : carIds) ids.add(id.toString());
+        return RentalApi.bookings(get("/api/rentals/active?cars=" + ids));
+    }
+
+    @Override
+    public FleetReport fleetReport(LocalDate from, LocalDate to) throws SQLException {
+        return RentalApi.report(get("/api/report?from=" + from + "&to=" + to));
+    }
+
+    @Override
+    public void streamRentalHistory(LocalDate from, LocalDate to, RentalExport.RowSink sink) throws SQLException, IOException {
+        HttpResponse<InputStream> resp = send(request("/api/history?from=" + from + "&to=" + to).GET(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(resp.body(), StandardCharsets.UTF_8))) {
+            if (resp.statusCode() / 100 != 2) throw error(resp.statusCode(), in.lines().reduce("", String::concat));
+            RentalExport.Row row = new RentalExport.Row();
+            String line;
+            while ((line = in.readLine()) != null) {
+                // ostatnia linia {"rows":N} - bez niej strumień został przerwany po stronie serwera
+                if (line.startsWith("{")) return;
+                RentalApi.historyLine(line, row);
+                sink.accept(row);
+            }
+        }
+        throw new SQLException("Przerwany strumień historii z serwera.", "08006");
+    }
+
+    // Plik idzie w całości do serwera; postęp znany dopiero po zakończeniu (jedna "paczka")
+    @Override
+    public CsvImport.Result importCsv(CsvImport.Kind kind, Path file, LongConsumer onBatch) throws SQLException {
+        HttpRequest.Builder req;
+        try {
+            req = request("/api/import?kind=" + kind.name()).POST(HttpRequest.BodyPublishers.ofFile(file))
+                    .header("Content-Type", "text/csv");
+        } catch (IOException ex) {
+            throw new SQLException("Nie można odczytać pliku: " + ex.getMessage(), ex);
+        }
+        CsvImport.Result result = RentalApi.importResult(json(send(req, HttpResponse.BodyHandlers.ofString())));
+        onBatch.accept(result.imported());
+        return result;
+    }
+
+    @Override
+    public QuoteEngine quotes() {
+        return quotes;
+    }
+
+    // Long polling /api/changes na wątku w tle; reset (restart serwera, utracone zmiany)
+    // i powrót po błędzie łączności kończą się onReconnect - terminal nadrabia deltą
+    @Override
+    public AutoCloseable subscribe(Consumer<List<CarChangeFeed.CarChange>> onChanges, Runnable onReconnect) {
+        Thread t = new Thread(() -> {
+            long epoch = 0;
+            long seq = 0;
+            long backoff = 500;
+            boolean failed = false;
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    HttpRequest.Builder req = request("/api/changes?epoch=" + epoch + "&after=" + seq)
+                            .timeout(POLL_TIMEOUT).GET();
+                    Map<String, Object> o = Json.object(json(send(req, HttpResponse.BodyHandlers.ofString())));
+                    boolean first = epoch == 0;
+                    epoch = Json.num(o, "epoch");
+                    seq = Json.num(o, "seq");
+                    if (failed || (!first && Json.bool(o, "reset"))) {
+                        onReconnect.run();
+                    } else {
+                        List<CarChangeFeed.CarChange> changes = RentalApi.changes(o);
+                        if (!changes.isEmpty()) onChanges.accept(changes);
+                    }
+                    failed = false;
+                    backoff = 500;
+                } catch (SQLException | RuntimeException ex) {
+                    if (Thread.currentThread().isInterrupted()) return;
+                    if (!failed) System.out.println("WARN: utracono połączenie z serwerem zmian (" + ex.getMessage() + ").");
+                    failed = true;
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+                }
+            }
+        }, "api-change-feed");
+        t.setDaemon(true);
+        t.start();
+        return t::interrupt;
+    }
+
+    // --- HTTP ---
+
+    private Object get(String path) throws SQLException {
+        HttpRequest.Builder req = request(path).header("Accept-Encoding", "gzip").GET();
+        HttpResponse<InputStream> resp = send(req, HttpResponse.BodyHandlers.ofInputStream());
+        String body;
+        try (InputStream raw = resp.body();
+             InputStream in = "gzip".equals(resp.headers().firstValue("Content-Encoding").orElse(""))
+                     ? new GZIPInputStream(raw) : raw) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            throw unavailable(ex);
+        }
+        if (resp.statusCode() / 100 != 2) throw error(resp.statusCode(), body);
+        return Json.parse(body);
+    }
+
+    private Object post(String path, String json) throws SQLException {
+        HttpRequest.Builder req = request(path)
+                .header("Content-Type", RentalServer.JSON)
+                .POST(HttpRequest.BodyPublishers.ofString(json, StandardCharsets.UTF_8));
+        return json(send(req, HttpResponse.BodyHandlers.ofString()));
+    }
+
+    private HttpRequest.Builder request(String path) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(base + path)).timeout(TIMEOUT);
+        if (token != null) b.header("Authorization", "Bearer " + token);
+        return b;
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest.Builder req, HttpResponse.BodyHandler<T> handler) throws SQLException {
+        try {
+            return http.send(req.build(), handler);
+        } catch (IOException ex) {
+            throw unavailable(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Przerwano zapytanie do serwera.", "57014", ex);
+        }
+    }
+
+    private static Object json(HttpResponse<String> resp) throws SQLException {
+        if (resp.statusCode() / 100 != 2) throw error(resp.statusCode(), resp.body());
+        return Json.parse(resp.body());
+    }
+
+    // Odpowiedź błędu: {"error": "...", "sqlState": "..."} - komunikat domenowy bez zmian
+    private static SQLException error(int status, String body) {
+        try {
+            Map<String, Object> o = Json.object(Json.parse(body));
+            return new SQLException(Json.text(o, "error"), Json.text(o, "sqlState"));
+        } catch (IllegalArgumentException ex) {
+            return new SQLException("Błąd serwera (HTTP " + status + ").");
+        }
+    }
+
+    private SQLException unavailable(IOException ex) {
+        String why = ex.getMessage() != null ? ex.getMessage() : ex.getClass().getSimpleName();
+        return new SQLException("Serwer niedostępny (" + base + "): " + why, "08006", ex);
+    }
+
+    private static String encode(String s) {
+        return URLEncoder.encode(s == null ? "" : s, StandardCharsets.UTF_8);
+    }
+}
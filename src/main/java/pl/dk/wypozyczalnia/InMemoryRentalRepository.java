@@ -0,0 +1,460 @@
+package pl.dk.wypozyczalnia;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+// Repozytorium w pamięci o tej samej semantyce co ścieżka FOR UPDATE w Db:
+// każde auto chronione jest blokadą z puli pasków (striped locks), operacje grupowe
+// biorą paski w rosnącej kolejności - tak jak ORDER BY car_id FOR UPDATE.
+public class InMemoryRentalRepository implements RentalRepository {
+
+    private static final int STRIPES = 64;
+    private static final int IMPORT_BATCH_ROWS = 50_000;
+
+    private static final class Car {
+        final int carId;
+        final String brand;
+        final String model;
+        final int year;
+        final long dailyPriceMinor;
+        CarStatus status;
+        long updatedAt;
+        final List<Rental> active = new ArrayList<>();
+        final List<Rental> returned = new ArrayList<>();   // historia (raporty)
+
+        Car(int carId, String brand, String model, int year, long dailyPriceMinor, CarStatus status) {
+            this.carId = carId;
+            this.brand = brand;
+            this.model = model;
+            this.year = year;
+            this.dailyPriceMinor = dailyPriceMinor;
+            this.status = status;
+            this.updatedAt = System.currentTimeMillis();
+        }
+
+        CarRow toRow() {
+            return new CarRow(carId, brand, model, year, dailyPriceMinor, status);
+        }
+    }
+
+    private record Rental(long rentalId, int clientId, LocalDate start, LocalDate end, long totalMinor) {}
+
+    private final Map<Integer, Car> cars = new ConcurrentHashMap<>();
+    private final List<ClientRow> clients = new CopyOnWriteArrayList<>();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final List<Consumer<List<CarChangeFeed.CarChange>>> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong rentalIds = new AtomicLong();
+    private volatile RateTable rates = RateTable.FLAT;
+    private final QuoteEngine quotes = new QuoteEngine(() -> rates, Long.MAX_VALUE);
+
+    public InMemoryRentalRepository() {
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new ReentrantLock();
+    }
+
+    // Przykładowa flota i klienci (tryb demo, benchmarki)
+    public static InMemoryRentalRepository demo(int carCount, int clientCount, long seed) {
+        String[][] models = {
+                {"Toyota", "Corolla"}, {"Toyota", "Yaris"}, {"Skoda", "Octavia"}, {"Skoda", "Fabia"},
+                {"Volkswagen", "Golf"}, {"Volkswagen", "Passat"}, {"Ford", "Focus"}, {"Opel", "Astra"},
+                {"Kia", "Ceed"}, {"Hyundai", "i30"}, {"Renault", "Clio"}, {"Dacia", "Duster"}
+        };
+        String[] firstNames = {"Anna", "Piotr", "Katarzyna", "Tomasz", "Małgorzata", "Paweł", "Agnieszka", "Łukasz"};
+        String[] lastNames = {"Nowak", "Kowalski", "Wiśniewska", "Wójcik", "Kamińska", "Lewandowski", "Zieliński", "Żak"};
+
+        Random rnd = new Random(seed);
+        InMemoryRentalRepository repo = new InMemoryRentalRepository();
+        // sezon letni +30%, weekend +20%, od 7 dni -10%, od 30 dni -20%, umowa klienta nr 1 -15%
+        repo.setRates(new RateTable(LocalDate.now(), 366, 12_000,
+                List.of(new RateTable.Season(LocalDate.now().withMonth(7).withDayOfMonth(1),
+                        LocalDate.now().withMonth(8).withDayOfMonth(31), 13_000)),
+                List.of(new RateTable.LongTerm(7, 1_000), new RateTable.LongTerm(30, 2_000)),
+                List.of(new RateTable.Contract(1, 1_500, null))));
+        for (int i = 1; i <= carCount; i++) {
+            String[] m = models[rnd.nextInt(models.length)];
+            long price = (90 + rnd.nextInt(250)) * 100L;
+            CarStatus status = rnd.nextInt(20) == 0 ? CarStatus.SERVICE : CarStatus.AVAILABLE;
+            repo.addCar(new CarRow(i, m[0], m[1], 2012 + rnd.nextInt(13), price, status));
+        }
+        for (int i = 1; i <= clientCount; i++) {
+            repo.addClient(new ClientRow(i,
+                    firstNames[rnd.nextInt(firstNames.length)],
+                    lastNames[rnd.nextInt(lastNames.length)] + (clientCount > 64 ? "-" + i : "")));
+        }
+        return repo;
+    }
+
+    public void addCar(CarRow row) {
+        cars.put(row.getCarId(), new Car(row.getCarId(), row.getBrand(), row.getModel(),
+                row.getYear(), row.getDailyPriceMinor(), row.getStatus()));
+    }
+
+    public void addClient(ClientRow client) {
+        clients.add(client);
+    }
+
+    public void setRates(RateTable table) {
+        rates = table;
+        quotes.invalidate();
+    }
+
+    @Override
+    public List<CarRow> listCars() {
+        return listCarsChangedSince(null).cars();
+    }
+
+    @Override
+    public Db.CarDelta listCarsChangedSince(Timestamp since) {
+        // ten sam zapas co w bazie: zmiana w tej samej milisekundzie co znacznik nie może przepaść
+        long from = (since == null) ? Long.MIN_VALUE : since.getTime() - Db.DELTA_OVERLAP_MS;
+        long watermark = (since == null) ? 0 : since.getTime();
+        List<CarRow> out = new ArrayList<>();
+        for (Car c : cars.values()) {
+            ReentrantLock lock = lockFor(c.carId);
+            lock.lock();
+            try {
+                if (c.updatedAt > from) {
+                    out.add(c.toRow());
+                    watermark = Math.max(watermark, c.updatedAt);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (since == null) {
+            out.sort(Comparator.comparing(CarRow::getBrand).thenComparing(CarRow::getModel));
+        } else {
+            out.sort(Comparator.comparingInt(CarRow::getCarId));
+        }
+        return new Db.CarDelta(out, new Timestamp(watermark));
+    }
+
+    @Override
+    public CarRow getCar(int carId) {
+        Car c = cars.get(carId);
+        if (c == null) return null;
+        ReentrantLock lock = lockFor(carId);
+        lock.lock();
+        try {
+            return c.toRow();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<ClientRow> listClients() {
+        List<ClientRow> out = new ArrayList<>(clients);
+        out.sort(Comparator.comparing(ClientRow::getLastName).thenComparing(ClientRow::getFirstName));
+        return out;
+    }
+
+    @Override
+    public int countClients() {
+        return clients.size();
+    }
+
+    @Override
+    public List<ClientRow> searchClients(String query, int limit) {
+        String q = (query == null) ? "" : query.trim().toLowerCase();
+        List<ClientRow> out = new ArrayList<>();
+        for (ClientRow c : listClients()) {
+            if (out.size() >= limit) break;
+            if (c.getLastName().toLowerCase().startsWith(q) || c.getFirstName().toLowerCase().startsWith(q)) out.add(c);
+        }
+        return out;
+    }
+
+    @Override
+    public void rentCar(int clientId, int carId, Date start, Date end) throws SQLException {
+        ReentrantLock lock = lockFor(carId);
+        lock.lock();
+        try {
+            String err = tryRent(clientId, carId, start.toLocalDate(), end.toLocalDate());
+            if (err != null) throw new SQLException(err);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void returnCar(int carId) throws SQLException {
+        ReentrantLock lock = lockFor(carId);
+        lock.lock();
+        try {
+            String err = tryReturn(carId);
+            if (err != null) throw new SQLException(err);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Db.BulkResult> rentCars(List<Db.RentRequest> requests) throws SQLException {
+        Map<Integer, Integer> occurrences = new HashMap<>();
+        for (Db.RentRequest r : requests) occurrences.merge(r.carId(), 1, Integer::sum);
+
+        List<ReentrantLock> locks = lockAll(occurrences.keySet());
+        try {
+            Map<Integer, Db.BulkResult> results = new HashMap<>();
+            for (Db.RentRequest r : requests) {
+                if (occurrences.get(r.carId()) > 1) {
+                    results.put(r.carId(), new Db.BulkResult(r.carId(), false, "Auto podane więcej niż raz."));
+                    continue;
+                }
+                String err = tryRent(r.clientId(), r.carId(), r.start().toLocalDate(), r.end().toLocalDate());
+                results.put(r.carId(), new Db.BulkResult(r.carId(), err == null, err == null ? "Wypożyczono." : err));
+            }
+            return inRequestOrder(requests.stream().map(Db.RentRequest::carId).toList(), results);
+        } finally {
+            unlockAll(locks);
+        }
+    }
+
+    @Override
+    public List<Db.BulkResult> returnCars(List<Integer> carIds) {
+        List<ReentrantLock> locks = lockAll(carIds);
+        try {
+            Map<Integer, Db.BulkResult> results = new HashMap<>();
+            for (Integer id : new TreeSet<>(carIds)) {
+                String err = tryReturn(id);
+                results.put(id, new Db.BulkResult(id, err == null, err == null ? "Zwrócono." : err));
+            }
+            return inRequestOrder(carIds, results);
+        } finally {
+            unlockAll(locks);
+        }
+    }
+
+    @Override
+    public List<AvailabilityIndex.Booking> listActiveRentals() {
+        return listActiveRentals(cars.keySet());
+    }
+
+    @Override
+    public List<AvailabilityIndex.Booking> listActiveRentals(Collection<Integer> carIds) {
+        List<AvailabilityIndex.Booking> out = new ArrayList<>();
+        for (Integer id : carIds) {
+            Car c = cars.get(id);
+            if (c == null) continue;
+            ReentrantLock lock = lockFor(id);
+            lock.lock();
+            try {
+                for (Rental r : c.active) out.add(new AvailabilityIndex.Booking(id, r.start(), r.end()));
+            } finally {
+                lock.unlock();
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public FleetReport fleetReport(LocalDate from, LocalDate to) {
+        long t0 = System.nanoTime();
+        List<CarRow> fleet = listCars();
+        FleetReportBuilder builder = new FleetReportBuilder(from, to, fleet);
+        for (CarRow row : fleet) {
+            Car c = cars.get(row.getCarId());
+            ReentrantLock lock = lockFor(c.carId);
+            lock.lock();
+            try {
+                for (Rental r : c.active) add(builder, c.carId, r);
+                for (Rental r : c.returned) add(builder, c.carId, r);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return builder.build(false, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+    }
+
+    private static void add(FleetReportBuilder builder, int carId, Rental r) {
+        builder.add(carId, r.start().toEpochDay(), r.end().toEpochDay(), r.totalMinor());
+    }
+
+    // Kolejność: auto po aucie (w bazie po rental_id); wiersze kopiowane pod blokadą auta, wysyłane poza nią
+    @Override
+    public void streamRentalHistory(LocalDate from, LocalDate to, RentalExport.RowSink sink) throws IOException {
+        Map<Integer, ClientRow> byId = new HashMap<>();
+        for (ClientRow cl : clients) byId.put(cl.getClientId(), cl);
+        RentalExport.Row row = new RentalExport.Row();
+        List<Rental> picked = new ArrayList<>();
+        List<String> statuses = new ArrayList<>();
+        for (CarRow car : listCars()) {
+            Car c = cars.get(car.getCarId());
+            picked.clear();
+            statuses.clear();
+            ReentrantLock lock = lockFor(c.carId);
+            lock.lock();
+            try {
+                for (Rental r : c.returned) {
+                    if (!r.start().isBefore(from) && !r.start().isAfter(to)) { picked.add(r); statuses.add("RETURNED"); }
+                }
+                for (Rental r : c.active) {
+                    if (!r.start().isBefore(from) && !r.start().isAfter(to)) { picked.add(r); statuses.add("ACTIVE"); }
+                }
+            } finally {
+                lock.unlock();
+            }
+            for (int i = 0; i < picked.size(); i++) {
+                Rental r = picked.get(i);
+                ClientRow cl = byId.get(r.clientId());
+                row.rentalId = r.rentalId();
+                row.clientId = r.clientId();
+                row.firstName = (cl == null) ? "" : cl.getFirstName();
+                row.lastName = (cl == null) ? "" : cl.getLastName();
+                row.carId = c.carId;
+                row.brand = c.brand;
+                row.model = c.model;
+                row.year = c.year;
+                row.startDay = (int) r.start().toEpochDay();
+                row.endDay = (int) r.end().toEpochDay();
+                row.status = statuses.get(i);
+                row.totalMinor = r.totalMinor();
+                sink.accept(row);
+            }
+        }
+    }
+
+    // Ta sama walidacja co przy COPY; nowe id po największym istniejącym
+    @Override
+    public synchronized CsvImport.Result importCsv(CsvImport.Kind kind, Path file, LongConsumer onBatch) throws SQLException {
+        int[] nextId = {1 + (kind == CsvImport.Kind.CARS
+                ? cars.keySet().stream().mapToInt(Integer::intValue).max().orElse(0)
+                : clients.stream().mapToInt(ClientRow::getClientId).max().orElse(0))};
+        long[] added = {0};
+        try {
+            return CsvImport.run(file, kind, new CsvImport.RowSink() {
+                @Override
+                public void accept(String[] f) {
+                    if (kind == CsvImport.Kind.CARS) {
+                        addCar(new CarRow(nextId[0]++, f[0], f[1], Integer.parseInt(f[2]), Money.parse(f[3]), f[4]));
+                    } else {
+                        addClient(new ClientRow(nextId[0]++, f[0], f[1]));
+                    }
+                    if (++added[0] % IMPORT_BATCH_ROWS == 0) onBatch.accept(added[0]);
+                }
+
+                @Override
+                public void finish() {
+                    if (added[0] % IMPORT_BATCH_ROWS != 0) onBatch.accept(added[0]);
+                }
+            });
+        } catch (IOException ex) {
+            throw new SQLException("Nie można odczytać pliku: " + ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public QuoteEngine quotes() {
+        return quotes;
+    }
+
+    @Override
+    public AutoCloseable subscribe(Consumer<List<CarChangeFeed.CarChange>> onChanges, Runnable onReconnect) {
+        listeners.add(onChanges);
+        return () -> listeners.remove(onChanges);
+    }
+
+    // --- pod blokadą paska auta ---
+
+    private String tryRent(int clientId, int carId, LocalDate start, LocalDate end) throws SQLException {
+        Car c = cars.get(carId);
+        if (c == null) return "Nie ma takiego auta (car_id=" + carId + ").";
+
+        boolean startsNow = !start.isAfter(LocalDate.now());
+        if (startsNow && c.status != CarStatus.AVAILABLE) return "Auto nie jest dostępne (status=" + c.status + ").";
+        for (Rental r : c.active) {
+            if (!r.start().isAfter(end) && !r.end().isBefore(start)) {
+                return "Auto jest już zarezerwowane w terminie " + start + " – " + end + ".";
+            }
+        }
+
+        long total = quotes.table().total(clientId, c.dailyPriceMinor, start.toEpochDay(), end.toEpochDay());
+        c.active.add(new Rental(rentalIds.incrementAndGet(), clientId, start, end, total));
+        if (startsNow) {
+            c.status = CarStatus.RENTED;
+            c.updatedAt = System.currentTimeMillis();
+            publish(carId, c.status);
+        }
+        return null;
+    }
+
+    private String tryReturn(int carId) {
+        Car c = cars.get(carId);
+        if (c == null) return "Nie ma takiego auta (car_id=" + carId + ").";
+
+        LocalDate today = LocalDate.now();
+        List<Rental> closing = new ArrayList<>();
+        for (Rental r : c.active) {
+            if (!r.start().isAfter(today)) closing.add(r);
+        }
+        if (closing.isEmpty()) return "To auto nie ma aktywnego wypożyczenia.";
+        c.active.removeAll(closing);
+        c.returned.addAll(closing);
+
+        c.status = CarStatus.AVAILABLE;
+        c.updatedAt = System.currentTimeMillis();
+        publish(carId, c.status);
+        return null;
+    }
+
+    private void publish(int carId, CarStatus status) {
+        List<CarChangeFeed.CarChange> change = List.of(new CarChangeFeed.CarChange(carId, status));
+        for (Consumer<List<CarChangeFeed.CarChange>> l : listeners) l.accept(change);
+    }
+
+    private ReentrantLock lockFor(int carId) {
+        return stripes[stripeOf(carId)];
+    }
+
+    private static int stripeOf(int carId) {
+        return Math.floorMod(carId * 0x9E3779B9, STRIPES);
+    }
+
+    // Paski w rosnącej kolejności indeksu - brak zakleszczeń między operacjami grupowymi
+    private List<ReentrantLock> lockAll(Collection<Integer> carIds) {
+        Set<Integer> stripeIdx = new TreeSet<>();
+        for (Integer id : carIds) {
+            stripeIdx.add(stripeOf(id));
+        }
+        List<ReentrantLock> taken = new ArrayList<>(stripeIdx.size());
+        for (Integer i : stripeIdx) {
+            stripes[i].lock();
+            taken.add(stripes[i]);
+        }
+        return taken;
+    }
+
+    private static void unlockAll(List<ReentrantLock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) locks.get(i).unlock();
+    }
+
+    private static List<Db.BulkResult> inRequestOrder(List<Integer> carIds, Map<Integer, Db.BulkResult> results) {
+        List<Db.BulkResult> out = new ArrayList<>(carIds.size());
+        Set<Integer> seen = new HashSet<>();
+        for (Integer id : carIds) {
+            if (seen.add(id)) out.add(results.get(id));
+        }
+        return out;
+    }
+}
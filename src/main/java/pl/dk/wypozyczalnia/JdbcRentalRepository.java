@@ -0,0 +1,111 @@
+package pl.dk.wypozyczalnia;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+// Repozytorium na PostgreSQL - deleguje do Db
+public class JdbcRentalRepository implements RentalRepository {
+
+    @Override
+    public void open() throws SQLException {
+        Db.migrate();
+    }
+
+    @Override
+    public List<CarRow> listCars() throws SQLException {
+        return Db.listCars();
+    }
+
+    @Override
+    public Db.CarDelta listCarsChangedSince(Timestamp since) throws SQLException {
+        return Db.listCarsChangedSince(since);
+    }
+
+    @Override
+    public CarRow getCar(int carId) throws SQLException {
+        return Db.getCar(carId);
+    }
+
+    @Override
+    public List<ClientRow> listClients() throws SQLException {
+        return Db.listClients();
+    }
+
+    @Override
+    public int countClients() throws SQLException {
+        return Db.countClients();
+    }
+
+    @Override
+    public List<ClientRow> searchClients(String query, int limit) throws SQLException {
+        return Db.searchClients(query, limit);
+    }
+
+    @Override
+    public void rentCar(int clientId, int carId, Date start, Date end) throws SQLException {
+        Db.rentCar(clientId, carId, start, end);
+    }
+
+    @Override
+    public void returnCar(int carId) throws SQLException {
+        Db.returnCar(carId);
+    }
+
+    @Override
+    public List<Db.BulkResult> rentCars(List<Db.RentRequest> requests) throws SQLException {
+        return Db.rentCars(requests);
+    }
+
+    @Override
+    public List<Db.BulkResult> returnCars(List<Integer> carIds) throws SQLException {
+        return Db.returnCars(carIds);
+    }
+
+    @Override
+    public List<AvailabilityIndex.Booking> listActiveRentals() throws SQLException {
+        return Db.listActiveRentals();
+    }
+
+    @Override
+    public List<AvailabilityIndex.Booking> listActiveRentals(Collection<Integer> carIds) throws SQLException {
+        return Db.listActiveRentals(carIds);
+    }
+
+    @Override
+    public FleetReport fleetReport(LocalDate from, LocalDate to) throws SQLException {
+        return Db.fleetReport(from, to);
+    }
+
+    @Override
+    public void streamRentalHistory(LocalDate from, LocalDate to, RentalExport.RowSink sink) throws SQLException, IOException {
+        Db.streamRentalHistory(from, to, sink);
+    }
+
+    @Override
+    public CsvImport.Result importCsv(CsvImport.Kind kind, Path file, LongConsumer onBatch) throws SQLException {
+        return Db.importCsv(kind, file, onBatch);
+    }
+
+    @Override
+    public QuoteEngine quotes() {
+        return Db.quotes();
+    }
+
+    @Override
+    public AutoCloseable subscribe(Consumer<List<CarChangeFeed.CarChange>> onChanges, Runnable onReconnect) {
+        return Db.startChangeFeed(onChanges, onReconnect);
+    }
+
+    @Override
+    public void close() {
+        Db.shutdown();
+    }
+}
@@ -0,0 +1,112 @@
+package pl.dk.wypozyczalnia;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// Odtwarzanie dziennika stanowiska w bazie: wątek "journal-replay" bierze najstarsze oczekujące
+// operacje paczkami (-Dwypozyczalnia.journal.batch) i zapisuje je jedną transakcją (Db.applyJournal).
+// Wyniki (zapisano / odrzucono z komunikatem) trafiają do dziennika i do onOutcomes (widok App).
+// Błąd przejściowy (brak połączenia) - ponowienie tej samej paczki z rosnącym odstępem.
+final class JournalReplayer implements AutoCloseable {
+
+    @FunctionalInterface
+    interface Applier {
+        List<RentalJournal.Outcome> apply(List<RentalJournal.Entry> batch) throws SQLException;
+    }
+
+    private static final long MIN_BACKOFF_MS = 200;
+    private static final long MAX_BACKOFF_MS = 10_000;
+
+    private final RentalJournal journal;
+    private final Applier applier;
+    private final int batchSize;
+    private final Consumer<List<RentalJournal.Outcome>> onOutcomes;
+    private final Thread worker;
+    private volatile boolean closed;
+
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private volatile String lastError;
+
+    JournalReplayer(RentalJournal journal, Applier applier, int batchSize,
+                    Consumer<List<RentalJournal.Outcome>> onOutcomes) {
+        this.journal = journal;
+        this.applier = applier;
+        this.batchSize = batchSize;
+        this.onOutcomes = onOutcomes;
+        this.worker = new Thread(this::run, "journal-replay");
+        worker.setDaemon(true);
+        Metrics.gauge("Dziennik operacji", this::describe);
+    }
+
+    // Po migracjach schematu (journal_applied); do tego czasu operacje tylko trafiają do dziennika
+    void start() {
+        worker.start();
+    }
+
+    // Zapis do dziennika (na dysku po zakończeniu przyszłości) i pobudka odtwarzania
+    CompletableFuture<RentalJournal.Entry> submit(RentalJournal.Entry e) {
+        CompletableFuture<RentalJournal.Entry> durable = journal.append(e);
+        LockSupport.unpark(worker);
+        return durable;
+    }
+
+    int pendingCount() {
+        return journal.pendingCount();
+    }
+
+    // Dziennik nie przyjmuje operacji (błąd dysku); już zapisane są dalej odtwarzane
+    boolean failed() {
+        return journal.failed();
+    }
+
+    private void run() {
+        long backoff = MIN_BACKOFF_MS;
+        while (!closed) {
+            List<RentalJournal.Entry> batch = journal.pending(batchSize);
+            if (batch.isEmpty()) {
+                LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+                continue;
+            }
+            try {
+                List<RentalJournal.Outcome> outcomes = applier.apply(batch);
+                for (RentalJournal.Outcome o : outcomes) {
+                    journal.complete(o);
+                    if (o.ok()) applied.increment();
+                    else rejected.increment();
+                }
+                lastError = null;
+                backoff = MIN_BACKOFF_MS;
+                onOutcomes.accept(outcomes);
+            } catch (SQLException | RuntimeException ex) {
+                lastError = ex.getMessage();
+                retries.increment();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoff));
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+            }
+        }
+    }
+
+    String describe() {
+        return journal.describe() + String.format("; w bazie %d, odrzucone %d, ponowienia %d%s",
+                applied.sum(), rejected.sum(), retries.sum(), lastError == null ? "" : ", ostatni błąd: " + lastError);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(worker);
+        try {
+            if (worker.isAlive()) worker.join(2_000);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+}
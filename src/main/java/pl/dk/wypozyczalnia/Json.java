@@ -0,0 +1,254 @@
+package pl.dk.wypozyczalnia;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Minimalny JSON dla API serwera (bez zależności): zapis do StringBuilder i parser do
+// Map/List/String/Long/Double/Boolean/null. Liczby całkowite zawsze jako Long.
+final class Json {
+
+    private Json() {}
+
+    // --- zapis ---
+
+    static StringBuilder str(StringBuilder sb, String s) {
+        if (s == null) return sb.append("null");
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"');
+    }
+
+    // Przecinek przed kolejnym elementem tablicy/pola (nie po '{' ani '[')
+    static StringBuilder sep(StringBuilder sb) {
+        char last = sb.length() == 0 ? '[' : sb.charAt(sb.length() - 1);
+        if (last != '{' && last != '[') sb.append(',');
+        return sb;
+    }
+
+    // "klucz": - z przecinkiem przed, jeśli to nie pierwsze pole obiektu
+    static StringBuilder key(StringBuilder sb, String key) {
+        return str(sep(sb), key).append(':');
+    }
+
+    static String error(String message, String sqlState) {
+        StringBuilder sb = new StringBuilder("{");
+        key(sb, "error");
+        str(sb, message);
+        key(sb, "sqlState");
+        str(sb, sqlState);
+        return sb.append('}').toString();
+    }
+
+    // --- odczyt ---
+
+    static Object parse(String text) {
+        Parser p = new Parser(text);
+        p.ws();
+        Object v = p.value();
+        p.ws();
+        if (p.pos != text.length()) throw p.fail("nadmiarowe znaki");
+        return v;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> object(Object v) {
+        if (!(v instanceof Map)) throw new IllegalArgumentException("Oczekiwano obiektu JSON.");
+        return (Map<String, Object>) v;
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Object> array(Object v) {
+        if (!(v instanceof List)) throw new IllegalArgumentException("Oczekiwano tablicy JSON.");
+        return (List<Object>) v;
+    }
+
+    static long num(Map<String, Object> o, String key) {
+        Object v = o.get(key);
+        if (v instanceof Number n) return n.longValue();
+        throw new IllegalArgumentException("Brak pola liczbowego: " + key);
+    }
+
+    static double dbl(Map<String, Object> o, String key) {
+        Object v = o.get(key);
+        if (v instanceof Number n) return n.doubleValue();
+        throw new IllegalArgumentException("Brak pola liczbowego: " + key);
+    }
+
+    static String text(Map<String, Object> o, String key) {
+        Object v = o.get(key);
+        return v == null ? null : v.toString();
+    }
+
+    static boolean bool(Map<String, Object> o, String key) {
+        return Boolean.TRUE.equals(o.get(key));
+    }
+
+    // Zagnieżdżenie obiektów/tablic - głębszy JSON (np. "[[[[...") to błąd składni, nie przepełnienie stosu
+    private static final int MAX_DEPTH = 64;
+
+    private static final class Parser {
+        final String s;
+        int pos;
+        int depth;
+
+        Parser(String s) {
+            this.s = s;
+        }
+
+        Object value() {
+            if (pos >= s.length()) throw fail("nieoczekiwany koniec");
+            char c = s.charAt(pos);
+            switch (c) {
+                case '{': return obj();
+                case '[': return arr();
+                case '"': return string();
+                case 't': return literal("true", Boolean.TRUE);
+                case 'f': return literal("false", Boolean.FALSE);
+                case 'n': return literal("null", null);
+                default: return number();
+            }
+        }
+
+        Map<String, Object> obj() {
+            Map<String, Object> out = new LinkedHashMap<>();
+            enter();
+            ws();
+            if (peek() == '}') { pos++; depth--; return out; }
+            while (true) {
+                ws();
+                String k = string();
+                ws();
+                expect(':');
+                ws();
+                out.put(k, value());
+                ws();
+                if (peek() == ',') { pos++; continue; }
+                expect('}');
+                depth--;
+                return out;
+            }
+        }
+
+        List<Object> arr() {
+            List<Object> out = new ArrayList<>();
+            enter();
+            ws();
+            if (peek() == ']') { pos++; depth--; return out; }
+            while (true) {
+                ws();
+                out.add(value());
+                ws();
+                if (peek() == ',') { pos++; continue; }
+                expect(']');
+                depth--;
+                return out;
+            }
+        }
+
+        void enter() {
+            if (++depth > MAX_DEPTH) throw fail("zagnieżdżenie ponad " + MAX_DEPTH);
+            pos++;
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder sb = null;
+            int start = pos;
+            while (pos < s.length()) {
+                char c = s.charAt(pos);
+                if (c == '"') {
+                    String out = (sb == null) ? s.substring(start, pos) : sb.append(s, start, pos).toString();
+                    pos++;
+                    return out;
+                }
+                if (c == '\\') {
+                    if (sb == null) sb = new StringBuilder();
+                    sb.append(s, start, pos);
+                    if (pos + 1 >= s.length()) throw fail("niezamknięty napis");
+                    char e = s.charAt(pos + 1);
+                    pos += 2;
+                    switch (e) {
+                        case 'n' -> sb.append('\n');
+                        case 'r' -> sb.append('\r');
+                        case 't' -> sb.append('\t');
+                        case 'b' -> sb.append('\b');
+                        case 'f' -> sb.append('\f');
+                        case 'u' -> {
+                            if (pos + 4 > s.length()) throw fail("niepełne \\u");
+                            int code = 0;
+                            for (int i = 0; i < 4; i++) {
+                                int digit = Character.digit(s.charAt(pos + i), 16);
+                                if (digit < 0) throw fail("niepoprawne \\u");
+                                code = code * 16 + digit;
+                            }
+                            sb.append((char) code);
+                            pos += 4;
+                        }
+                        default -> sb.append(e);
+                    }
+                    start = pos;
+                } else {
+                    pos++;
+                }
+            }
+            throw fail("niezamknięty napis");
+        }
+
+        Object number() {
+            int start = pos;
+            boolean fraction = false;
+            while (pos < s.length()) {
+                char c = s.charAt(pos);
+                if (c == '.' || c == 'e' || c == 'E') fraction = true;
+                else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) break;
+                pos++;
+            }
+            if (start == pos) throw fail("nieoczekiwany znak '" + s.charAt(pos) + "'");
+            String t = s.substring(start, pos);
+            try {
+                return fraction ? (Object) Double.parseDouble(t) : (Object) Long.parseLong(t);
+            } catch (NumberFormatException ex) {
+                throw fail("niepoprawna liczba");
+            }
+        }
+
+        Object literal(String word, Object value) {
+            if (!s.startsWith(word, pos)) throw fail("nieznany literał");
+            pos += word.length();
+            return value;
+        }
+
+        char peek() {
+            if (pos >= s.length()) throw fail("nieoczekiwany koniec");
+            return s.charAt(pos);
+        }
+
+        void expect(char c) {
+            if (peek() != c) throw fail("oczekiwano '" + c + "'");
+            pos++;
+        }
+
+        void ws() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+        }
+
+        IllegalArgumentException fail(String what) {
+            return new IllegalArgumentException("Niepoprawny JSON (" + what + ", pozycja " + pos + ").");
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package pl.dk.wypozyczalnia;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Histogram czasów w stylu HDR: kubełki logarytmiczno-liniowe (16 na każdą potęgę dwójki,
+// błąd względny ≤ 6,25%), stała tablica liczników - record() nic nie alokuje i nie blokuje.
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        long v = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(v));
+        total.incrementAndGet();
+        sum.addAndGet(v);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    long count() {
+        return total.get();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    long mean() {
+        long n = total.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    // Górna granica kubełka, w którym wypada percentyl p (0..100)
+    long percentile(double p) {
+        long n = total.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(n * p / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    static int indexOf(long v) {
+        if (v < 2 * SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB + (int) (v >>> shift) - SUB;
+    }
+
+    static long upperBound(int index) {
+        if (index < 2 * SUB) return index;
+        int shift = index / SUB - 1;
+        long mantissa = index % SUB + SUB;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,237 @@
+package pl.dk.wypozyczalnia;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Tryb bez okna (App --load): N wirtualnych wątków wykonuje mieszankę list/wypożycz/zwróć
+// na flocie z popularnością aut wg rozkładu Zipfa (kilka "gorących" aut - jak w szczycie w oddziałach).
+// Na koniec: przepustowość, p50/p99/p999 per operacja, odsetek konfliktów ("Auto nie jest dostępne")
+// i zakleszczenia (SQLSTATE 40P01). Backend: memory (w procesie) albo jdbc (lokalny PostgreSQL).
+//
+// -Dwypozyczalnia.load.backend=memory|jdbc   (domyślnie memory)
+// -Dwypozyczalnia.load.threads=64 .seconds=30 .mix=list:10,rent:45,return:45 .zipf=1.1
+// -Dwypozyczalnia.load.fleet=2000 .clients=500 .seed=42   (flota dla memory; jdbc używa aut z bazy)
+public final class LoadGenerator {
+
+    enum Op { LIST, RENT, RETURN }
+
+    enum Outcome { OK, CONFLICT, MISS, DEADLOCK, ERROR }
+
+    private final RentalRepository repo;
+    private final int threads;
+    private final long durationNanos;
+    private final int[] mix;              // skumulowane wagi LIST, RENT, RETURN
+    private final int[] carIds;           // carIds[ranga] - ranga 0 najpopularniejsza
+    private final double[] zipfCdf;
+    private final int clientCount;
+
+    private final LatencyHistogram[] latency = new LatencyHistogram[Op.values().length];
+    private final LongAdder[][] outcomes = new LongAdder[Op.values().length][Outcome.values().length];
+    private final List<String> sampleErrors = new ArrayList<>();
+
+    LoadGenerator(RentalRepository repo, int threads, long seconds, int[] weights, double zipf,
+                  List<Integer> cars, int clientCount, long seed) throws SQLException {
+        this.repo = repo;
+        this.threads = threads;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(seconds);
+        this.clientCount = clientCount;
+        this.mix = new int[weights.length];
+        for (int i = 0, sum = 0; i < weights.length; i++) mix[i] = sum += weights[i];
+        if (mix[mix.length - 1] <= 0) throw new IllegalArgumentException("Pusta mieszanka operacji.");
+
+        // kolejność popularności losowa, ale powtarzalna (seed)
+        carIds = cars.stream().mapToInt(Integer::intValue).toArray();
+        if (carIds.length == 0) throw new SQLException("Brak aut do testu obciążeniowego.");
+        Random rnd = new Random(seed);
+        for (int i = carIds.length - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int t = carIds[i];
+            carIds[i] = carIds[j];
+            carIds[j] = t;
+        }
+        zipfCdf = zipfCdf(carIds.length, zipf);
+
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = new LatencyHistogram();
+            for (int j = 0; j < Outcome.values().length; j++) outcomes[i][j] = new LongAdder();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String backend = System.getProperty("wypozyczalnia.load.backend", "memory");
+        int fleet = Integer.getInteger("wypozyczalnia.load.fleet", 2_000);
+        int clientCount = Integer.getInteger("wypozyczalnia.load.clients", 500);
+        long seed = Long.getLong("wypozyczalnia.load.seed", 42L);
+
+        if (!backend.equals("memory") && !backend.equals("jdbc")) {
+            throw new IllegalArgumentException("Nieznany backend: " + backend + " (memory|jdbc).");
+        }
+        RentalRepository repo = "jdbc".equals(backend)
+                ? new JdbcRentalRepository()
+                : InMemoryRentalRepository.demo(fleet, clientCount, seed);
+        try {
+            repo.open();
+            List<Integer> cars = new ArrayList<>();
+            for (CarRow c : repo.listCars()) cars.add(c.getCarId());
+            List<ClientRow> clients = repo.listClients();
+            int maxClient = clients.stream().mapToInt(ClientRow::getClientId).max().orElse(0);
+            if (maxClient == 0) throw new SQLException("Brak klientów do testu obciążeniowego.");
+
+            LoadGenerator load = new LoadGenerator(repo,
+                    Integer.getInteger("wypozyczalnia.load.threads", 64),
+                    Long.getLong("wypozyczalnia.load.seconds", 30L),
+                    parseMix(System.getProperty("wypozyczalnia.load.mix", "list:10,rent:45,return:45")),
+                    Double.parseDouble(System.getProperty("wypozyczalnia.load.zipf", "1.1")),
+                    cars, maxClient, seed);
+            boolean jdbc = "jdbc".equals(backend);
+            System.out.println("Test obciążeniowy: backend=" + backend + ", aut=" + cars.size() + ", wątków=" + load.threads
+                    + (jdbc ? ", tryb transakcji=" + Db.getTxMode() + ", pula=" + Db.poolStats() : ""));
+            long elapsed = load.run();
+            System.out.print(load.report(elapsed));
+            if (jdbc) System.out.print(Metrics.report()); // czas oczekiwania na FOR UPDATE, konflikty wersji
+        } finally {
+            repo.close();
+        }
+    }
+
+    // "list:10,rent:45,return:45" -> wagi w kolejności Op
+    static int[] parseMix(String spec) {
+        int[] weights = new int[Op.values().length];
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split(":");
+            if (kv.length != 2) throw new IllegalArgumentException("Niepoprawna mieszanka: " + spec);
+            weights[Op.valueOf(kv[0].trim().toUpperCase()).ordinal()] = Integer.parseInt(kv[1].trim());
+        }
+        return weights;
+    }
+
+    // Rozkład Zipfa: P(ranga k) ~ 1 / (k+1)^s; losowanie przez wyszukiwanie binarne w dystrybuancie
+    static double[] zipfCdf(int n, double s) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1.0 / Math.pow(k + 1, s);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < n; k++) cdf[k] /= sum;
+        return cdf;
+    }
+
+    private int pickCar(ThreadLocalRandom rnd) {
+        double u = rnd.nextDouble();
+        int lo = 0, hi = zipfCdf.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (zipfCdf[mid] < u) lo = mid + 1;
+            else hi = mid;
+        }
+        return carIds[lo];
+    }
+
+    private Op pickOp(ThreadLocalRandom rnd) {
+        int r = rnd.nextInt(mix[mix.length - 1]);
+        for (int i = 0; i < mix.length; i++) {
+            if (r < mix[i]) return Op.values()[i];
+        }
+        return Op.LIST;
+    }
+
+    // Zwraca czas trwania w nanosekundach
+    long run() {
+        long t0 = System.nanoTime();
+        long deadline = t0 + durationNanos;
+        try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < threads; i++) {
+                exec.submit(() -> {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) step(rnd);
+                });
+            }
+        }
+        return System.nanoTime() - t0;
+    }
+
+    private void step(ThreadLocalRandom rnd) {
+        Op op = pickOp(rnd);
+        long t0 = System.nanoTime();
+        Outcome outcome;
+        try {
+            switch (op) {
+                case LIST -> repo.listCars();
+                case RENT -> {
+                    LocalDate start = LocalDate.now();
+                    repo.rentCar(1 + rnd.nextInt(clientCount), pickCar(rnd),
+                            Date.valueOf(start), Date.valueOf(start.plusDays(1 + rnd.nextInt(7))));
+                }
+                case RETURN -> repo.returnCar(pickCar(rnd));
+            }
+            outcome = Outcome.OK;
+        } catch (SQLException ex) {
+            outcome = classify(ex);
+            if (outcome == Outcome.ERROR) {
+                synchronized (sampleErrors) {
+                    if (sampleErrors.size() < 5) sampleErrors.add(op + ": " + ex.getMessage());
+                }
+            }
+        }
+        latency[op.ordinal()].record(System.nanoTime() - t0);
+        outcomes[op.ordinal()][outcome.ordinal()].increment();
+    }
+
+    // Błędy domenowe mają stałe komunikaty (Db i InMemoryRentalRepository)
+    static Outcome classify(SQLException ex) {
+        for (Throwable t = ex; t != null; t = t.getCause()) {
+            if (t instanceof SQLException s && "40P01".equals(s.getSQLState())) return Outcome.DEADLOCK;
+        }
+        String msg = String.valueOf(ex.getMessage());
+        if (msg.startsWith("Auto nie jest dostępne") || msg.startsWith("Auto jest już zarezerwowane")
+                || msg.startsWith("Auto jest właśnie zmieniane")) {
+            return Outcome.CONFLICT;
+        }
+        if (msg.startsWith("To auto nie ma aktywnego wypożyczenia")) return Outcome.MISS;
+        return Outcome.ERROR;
+    }
+
+    String report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder sb = new StringBuilder();
+        long total = 0;
+        sb.append(String.format("%-8s %10s %9s %9s %9s %9s %9s %8s %8s %8s%n",
+                "operacja", "liczba", "op/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "konfl.", "brak", "zakl."));
+        for (Op op : Op.values()) {
+            LatencyHistogram h = latency[op.ordinal()];
+            long n = h.count();
+            total += n;
+            sb.append(String.format("%-8s %10d %9.0f %9.2f %9.2f %9.2f %9.2f %7.2f%% %7.2f%% %8d%n",
+                    op, n, n / seconds, ms(h.percentile(50)), ms(h.percentile(99)), ms(h.percentile(99.9)), ms(h.max()),
+                    percent(count(op, Outcome.CONFLICT), n), percent(count(op, Outcome.MISS), n),
+                    count(op, Outcome.DEADLOCK)));
+        }
+        long errors = 0;
+        for (Op op : Op.values()) errors += count(op, Outcome.ERROR);
+        sb.append(String.format("Razem: %d operacji w %.1f s = %.0f op/s, błędy: %d%n", total, seconds, total / seconds, errors));
+        for (String e : sampleErrors) sb.append("  ").append(e).append('\n');
+        return sb.toString();
+    }
+
+    private long count(Op op, Outcome o) {
+        return outcomes[op.ordinal()][o.ordinal()].sum();
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static double percent(long part, long all) {
+        return all == 0 ? 0 : 100.0 * part / all;
+    }
+}
@@ -0,0 +1,156 @@
+package pl.dk.wypozyczalnia;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Pomiary operacji Db: histogram czasów, liczba wywołań i błędów per operacja,
+// zdarzenia JFR oraz okresowy zrzut do pliku (-Dwypozyczalnia.metrics.file).
+// Ścieżka zapisu (record) nie alokuje, gdy nagrywanie JFR jest wyłączone.
+public final class Metrics {
+
+    public enum Op {
+        LIST_CARS("listCars"),
+        LIST_CLIENTS("listClients"),
+        RENT_CAR("rentCar"),
+        RETURN_CAR("returnCar"),
+        RENT_CARS("rentCars"),
+        RETURN_CARS("returnCars"),
+        LOCK_WAIT("FOR UPDATE"),
+        // tryb optymistyczny: nieudana próba (czas zmarnowanej pracy); błąd = wyczerpane ponowienia
+        VERSION_CONFLICT("konflikt wersji"),
+        // trasy odczytu (tylko z -Dwypozyczalnia.replica.url): czas całego odczytu na danej bazie
+        READ_REPLICA("odczyt: replika"),
+        READ_PRIMARY("odczyt: główna"),
+        // dziennik stanowiska: jedno fsync na grupę zapisów, paczka operacji odtworzona w bazie
+        JOURNAL_FSYNC("dziennik: fsync"),
+        JOURNAL_REPLAY("dziennik: paczka");
+
+        final String label;
+
+        Op(String label) {
+            this.label = label;
+        }
+    }
+
+    public record OpStats(Op op, long count, long errors,
+                          long p50Micros, long p99Micros, long p999Micros, long maxMicros, long meanMicros) {
+
+        public double errorRate() {
+            return count == 0 ? 0 : (double) errors / count;
+        }
+    }
+
+    private static final Op[] OPS = Op.values();
+    private static final LatencyHistogram[] LATENCY = new LatencyHistogram[OPS.length];
+    private static final LongAdder[] ERRORS = new LongAdder[OPS.length];
+    private static final DbOperationEvent JFR_PROBE = new DbOperationEvent();
+    private static final long STARTED = System.nanoTime();
+    private static final Map<String, Supplier<String>> GAUGES = new ConcurrentSkipListMap<>();
+    private static ScheduledExecutorService dumper;
+
+    static {
+        for (int i = 0; i < OPS.length; i++) {
+            LATENCY[i] = new LatencyHistogram();
+            ERRORS[i] = new LongAdder();
+        }
+    }
+
+    private Metrics() {}
+
+    // Użycie: long t0 = System.nanoTime(); ... finally { Metrics.record(op, t0, ok); }
+    public static void record(Op op, long startNanos, boolean ok) {
+        long elapsed = System.nanoTime() - startNanos;
+        LATENCY[op.ordinal()].record(elapsed);
+        if (!ok) ERRORS[op.ordinal()].increment();
+
+        if (JFR_PROBE.isEnabled()) {
+            DbOperationEvent ev = new DbOperationEvent();
+            ev.operation = op.label;
+            ev.success = ok;
+            ev.latency = elapsed;
+            ev.commit();
+        }
+    }
+
+    public static List<OpStats> snapshot() {
+        List<OpStats> out = new ArrayList<>(OPS.length);
+        for (Op op : OPS) {
+            LatencyHistogram h = LATENCY[op.ordinal()];
+            out.add(new OpStats(op, h.count(), ERRORS[op.ordinal()].sum(),
+                    micros(h.percentile(50)), micros(h.percentile(99)), micros(h.percentile(99.9)),
+                    micros(h.max()), micros(h.mean())));
+        }
+        return out;
+    }
+
+    // Tabela tekstowa - panel diagnostyki i zrzut do pliku
+    public static String report() {
+        double uptime = Math.max(1e-3, (System.nanoTime() - STARTED) / 1e9);
+        StringBuilder sb = new StringBuilder();
+        sb.append("Stan na ").append(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME))
+          .append(String.format(" (od startu %.0f s)%n%n", uptime));
+        sb.append(String.format("%-16s %9s %8s %7s %9s %9s %9s %9s %9s%n",
+                "operacja", "liczba", "op/s", "błędy", "p50 µs", "p99 µs", "p99.9 µs", "max µs", "śr. µs"));
+        for (OpStats s : snapshot()) {
+            sb.append(String.format("%-16s %9d %8.2f %6.1f%% %9d %9d %9d %9d %9d%n",
+                    s.op().label, s.count(), s.count() / uptime, 100 * s.errorRate(),
+                    s.p50Micros(), s.p99Micros(), s.p999Micros(), s.maxMicros(), s.meanMicros()));
+        }
+
+        if (!GAUGES.isEmpty()) sb.append(System.lineSeparator());
+        for (Map.Entry<String, Supplier<String>> g : GAUGES.entrySet()) {
+            sb.append(g.getKey()).append(": ").append(g.getValue().get()).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    // Dodatkowy wiersz raportu (np. stan puli połączeń)
+    public static void gauge(String name, Supplier<String> value) {
+        GAUGES.put(name, value);
+    }
+
+    // Okresowy zrzut raportu do pliku (zapis do pliku tymczasowego i podmiana)
+    public static synchronized void startFileDump(Path file, long periodMillis) {
+        if (dumper != null) return;
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(file), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized void stopFileDump(Path file) {
+        if (dumper == null) return;
+        dumper.shutdownNow();
+        dumper = null;
+        dump(file);
+    }
+
+    private static void dump(Path file) {
+        try {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(tmp, report());
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            System.out.println("WARN: nie udało się zapisać metryk do " + file + " (" + ex.getMessage() + ").");
+        }
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
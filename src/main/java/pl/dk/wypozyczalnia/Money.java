@@ -0,0 +1,30 @@
+package pl.dk.wypozyczalnia;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+// Kwoty w groszach (long) - arytmetyka bez BigDecimal i bez parsowania napisów przy każdym wyliczeniu
+public final class Money {
+
+    private Money() {}
+
+    public static long fromDecimal(BigDecimal value) {
+        return value.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal toDecimal(long minor) {
+        return BigDecimal.valueOf(minor, 2);
+    }
+
+    // "149,99" / "149.99" / "150" -> 14999 / 14999 / 15000
+    public static long parse(String s) {
+        return fromDecimal(new BigDecimal(s.trim().replace(",", ".")));
+    }
+
+    // 14999 -> "149.99"
+    public static String format(long minor) {
+        long abs = Math.abs(minor);
+        long cents = abs % 100;
+        return (minor < 0 ? "-" : "") + abs / 100 + (cents < 10 ? ".0" : ".") + cents;
+    }
+}
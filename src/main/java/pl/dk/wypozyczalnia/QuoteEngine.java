@@ -0,0 +1,72 @@
+package pl.dk.wypozyczalnia;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cennik w pamięci: wczytywany raz, odświeżany po TTL lub po invalidate().
+// UI wycenia z bieżącej kopii (current) bez czekania na bazę; zapis wypożyczenia (Db.rentCar)
+// bierze kopię aktualną (table), w razie potrzeby wczytując ją synchronicznie.
+// invalidate() tylko oznacza kopię jako nieaktualną - do wczytania nowej UI wycenia według poprzedniej.
+public class QuoteEngine {
+
+    private final DbAsync.SqlCall<RateTable> loader;
+    private final long ttlNanos;
+
+    private volatile RateTable table;   // null = jeszcze nie wczytano
+    private volatile long loadedAt;
+    private final AtomicLong generation = new AtomicLong();  // zmieniany przez invalidate()
+    private volatile long loadedGeneration;
+    private CompletableFuture<RateTable> loading;
+
+    public QuoteEngine(DbAsync.SqlCall<RateTable> loader, long ttlMillis) {
+        this.loader = loader;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    // Bieżący cennik do wyceny na żywo; przeterminowany odświeża się w tle
+    public RateTable current() {
+        RateTable t = table;
+        if (t == null || stale()) warmUp();
+        return t == null ? RateTable.FLAT : t;
+    }
+
+    // Kopia w pamięci bez odświeżania i bez czekania (null = jeszcze nie wczytano) - wycena
+    // operacji przyjmowanej do dziennika stanowiska, tak jak pokazał ją dialog wypożyczenia
+    public RateTable cached() {
+        return table;
+    }
+
+    // Aktualny cennik (blokująco) - do zapisu ceny przy wypożyczeniu
+    public RateTable table() throws SQLException {
+        RateTable t = table;
+        if (t != null && !stale()) return t;
+        return load();
+    }
+
+    public synchronized CompletableFuture<RateTable> warmUp() {
+        if (table != null && !stale()) return CompletableFuture.completedFuture(table);
+        if (loading != null && !loading.isDone()) return loading;
+        loading = DbAsync.supply(this::load);
+        return loading;
+    }
+
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    // Wczytanie rozpoczęte przed invalidate() zostaje zapisane, ale dalej jako nieaktualne
+    private RateTable load() throws SQLException {
+        long gen = generation.get();
+        RateTable t = loader.call();
+        loadedAt = System.nanoTime();
+        loadedGeneration = gen;
+        table = t;
+        return t;
+    }
+
+    private boolean stale() {
+        return loadedGeneration != generation.get() || System.nanoTime() - loadedAt >= ttlNanos;
+    }
+}
@@ -0,0 +1,143 @@
+package pl.dk.wypozyczalnia;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// Niezmienny cennik: mnożniki sezonowe i weekendowe rozpisane na dni (tablica w horyzoncie
+// od dnia wczytania), rabaty za długi najem i umowy klientów w posortowanych tablicach.
+// Wycena (total) to pętla po dniach i wyszukiwanie binarne - bez alokacji, na groszach (long).
+// Współczynniki w punktach bazowych: 10000 = 100%.
+public final class RateTable {
+
+    public static final int ONE = 10_000;
+
+    // Wpisy z bazy
+    public record Season(LocalDate start, LocalDate end, int multiplierBp) {}
+    public record LongTerm(int minDays, int discountBp) {}
+    public record Contract(int clientId, int discountBp, LocalDate validTo) {}
+
+    // Składniki ceny niezależne od ceny dziennej - Db przelicza z nich cenę w SQL (te same zaokrąglenia)
+    public record Terms(long factorBpDays, int longTermBp, int contractBp) {}
+
+    // Bez reguł: cena dzienna * liczba dni
+    public static final RateTable FLAT = new RateTable(LocalDate.now(), 0, ONE, List.of(), List.of(), List.of());
+
+    private final long firstDay;          // epochDay pierwszego dnia w dayFactor
+    private final int[] dayFactor;        // sezon * weekend, per dzień horyzontu
+    private final int weekendBp;
+    private final int[] longTermMinDays;  // rosnąco
+    private final int[] longTermBp;
+    private final int[] contractClient;   // rosnąco
+    private final int[] contractBp;
+    private final long[] contractValidTo; // epochDay, Long.MAX_VALUE = bezterminowo
+
+    // Reguły źródłowe - do przesłania cennika klientowi API (odtwarza tę samą tabelę)
+    private final LocalDate today;
+    private final int horizonDays;
+    private final List<Season> seasons;
+    private final List<LongTerm> longTerm;
+    private final List<Contract> contracts;
+
+    public RateTable(LocalDate today, int horizonDays, int weekendBp,
+                     List<Season> seasons, List<LongTerm> longTerm, List<Contract> contracts) {
+        this.today = today;
+        this.horizonDays = horizonDays;
+        this.seasons = List.copyOf(seasons);
+        this.longTerm = List.copyOf(longTerm);
+        this.contracts = List.copyOf(contracts);
+        this.firstDay = today.toEpochDay() - 31;
+        this.weekendBp = weekendBp;
+        this.dayFactor = new int[horizonDays <= 0 ? 0 : horizonDays + 31];
+
+        Arrays.fill(dayFactor, ONE);
+        // sezony w kolejności daty początku; nakładające się - późniejszy wygrywa
+        List<Season> ordered = seasons.stream().sorted(Comparator.comparing(Season::start)).toList();
+        for (Season s : ordered) {
+            long from = Math.max(s.start().toEpochDay(), firstDay);
+            long to = Math.min(s.end().toEpochDay(), firstDay + dayFactor.length - 1);
+            for (long d = from; d <= to; d++) dayFactor[(int) (d - firstDay)] = s.multiplierBp();
+        }
+        for (int i = 0; i < dayFactor.length; i++) {
+            if (isWeekend(firstDay + i)) dayFactor[i] = applyBp(dayFactor[i], weekendBp);
+        }
+
+        List<LongTerm> lt = longTerm.stream().sorted(Comparator.comparingInt(LongTerm::minDays)).toList();
+        longTermMinDays = lt.stream().mapToInt(LongTerm::minDays).toArray();
+        longTermBp = lt.stream().mapToInt(LongTerm::discountBp).toArray();
+
+        List<Contract> cs = contracts.stream().sorted(Comparator.comparingInt(Contract::clientId)).toList();
+        contractClient = cs.stream().mapToInt(Contract::clientId).toArray();
+        contractBp = cs.stream().mapToInt(Contract::discountBp).toArray();
+        contractValidTo = cs.stream()
+                .mapToLong(c -> c.validTo() == null ? Long.MAX_VALUE : c.validTo().toEpochDay())
+                .toArray();
+    }
+
+    public LocalDate today() { return today; }
+    public int horizonDays() { return horizonDays; }
+    public int weekendBp() { return weekendBp; }
+    public List<Season> seasons() { return seasons; }
+    public List<LongTerm> longTerm() { return longTerm; }
+    public List<Contract> contracts() { return contracts; }
+
+    // Cena łączna w groszach za dni [startDay, endDay] (epochDay, włącznie); clientId <= 0 = bez umowy
+    public long total(int clientId, long dailyMinor, long startDay, long endDay) {
+        return total(dailyMinor, factorBpDays(startDay, endDay),
+                longTermBp(endDay - startDay + 1), contractBp(clientId, startDay));
+    }
+
+    public Terms terms(int clientId, LocalDate start, LocalDate end) {
+        long s = start.toEpochDay();
+        long e = end.toEpochDay();
+        return new Terms(factorBpDays(s, e), longTermBp(e - s + 1), contractBp(clientId, s));
+    }
+
+    public static long total(long dailyMinor, Terms t) {
+        return total(dailyMinor, t.factorBpDays(), t.longTermBp(), t.contractBp());
+    }
+
+    // Kolejność i zaokrąglenia (połówki w górę) muszą zgadzać się z Db.totalPriceSql
+    static long total(long dailyMinor, long factorBpDays, int longTermBp, int contractBp) {
+        long base = divRound(dailyMinor * factorBpDays, ONE);
+        long afterLongTerm = divRound(base * (ONE - longTermBp), ONE);
+        return divRound(afterLongTerm * (ONE - contractBp), ONE);
+    }
+
+    // Suma współczynników dni (punkty bazowe * dni)
+    long factorBpDays(long startDay, long endDay) {
+        long sum = 0;
+        for (long d = startDay; d <= endDay; d++) {
+            long i = d - firstDay;
+            if (i >= 0 && i < dayFactor.length) sum += dayFactor[(int) i];
+            else sum += isWeekend(d) ? weekendBp : ONE; // poza horyzontem tylko reguła weekendowa
+        }
+        return sum;
+    }
+
+    int longTermBp(long days) {
+        int bp = 0;
+        for (int i = 0; i < longTermMinDays.length && longTermMinDays[i] <= days; i++) bp = longTermBp[i];
+        return bp;
+    }
+
+    int contractBp(int clientId, long onDay) {
+        int i = Arrays.binarySearch(contractClient, clientId);
+        if (i < 0 || contractValidTo[i] < onDay) return 0;
+        return contractBp[i];
+    }
+
+    private static boolean isWeekend(long epochDay) {
+        int dow = (int) Math.floorMod(epochDay + 3, 7L); // 0 = poniedziałek (1970-01-01 to czwartek)
+        return dow >= 5;
+    }
+
+    private static int applyBp(int value, int bp) {
+        return (int) divRound((long) value * bp, ONE);
+    }
+
+    private static long divRound(long value, long divisor) {
+        return (value + divisor / 2) / divisor;
+    }
+}
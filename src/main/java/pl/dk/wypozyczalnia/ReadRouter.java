@@ -0,0 +1,254 @@
+package pl.dk.wypozyczalnia;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Kierowanie odczytów (listy, raporty, eksport) do puli repliki, zapisów - zawsze do bazy głównej.
+// Bez -Dwypozyczalnia.replica.url wszystko idzie do głównej, bez dodatkowych zapytań.
+//
+// Odczyt własnych zapisów: po każdym zapisie Db zapamiętuje pozycję WAL bazy głównej
+// (pg_current_wal_lsn, na tym samym połączeniu zaraz po commit), a replika obsługuje odczyt dopiero, gdy jej pg_last_wal_replay_lsn
+// ją osiągnęła - do tego czasu odczyty idą do głównej. Sesją jest proces: terminal albo
+// RentalServer (wtedy wszystkie terminale za serwerem widzą zapisy każdego z nich).
+//
+// Kontrola stanu w tle (co -Dwypozyczalnia.replica.checkMs): obie trasy, pozycja WAL i opóźnienie
+// repliki. Replika niedostępna, nie w trybie recovery albo opóźniona ponad maxLagMs jest pomijana
+// do następnej udanej kontroli; błąd połączenia w trakcie odczytu - ponowienie na głównej.
+final class ReadRouter implements AutoCloseable {
+
+    enum Health { UP, LAGGING, NOT_STANDBY, DOWN }
+
+    @FunctionalInterface
+    interface ReadCall<T> {
+        T call(ConnectionPool.Lease lease) throws SQLException;
+    }
+
+    private final ConnectionPool primary;
+    private final ConnectionPool replica;   // null = brak repliki
+    private final long maxLagMillis;
+    private final ScheduledExecutorService checker;
+
+    // pozycje WAL w bajtach (pg_lsn - '0/0')
+    private final AtomicLong lastWriteLsn = new AtomicLong();
+    private final AtomicLong replayLsn = new AtomicLong();
+
+    private volatile Health replicaHealth = Health.DOWN;
+    private volatile Health primaryHealth = Health.UP;
+    private volatile long replicaLagMillis;
+    private volatile double primaryPingMillis;
+    private volatile double replicaPingMillis;
+    private volatile long lastCheckNanos;
+
+    private final LongAdder toReplica = new LongAdder();
+    private final LongAdder toPrimary = new LongAdder();
+    private final LongAdder afterWrite = new LongAdder();   // replika jeszcze bez ostatniego zapisu
+    private final LongAdder unhealthy = new LongAdder();    // replika pominięta wg kontroli stanu
+    private final LongAdder fallbacks = new LongAdder();    // błąd na replice, ponowienie na głównej
+
+    ReadRouter(ConnectionPool primary, ConnectionPool replica, long checkMillis, long maxLagMillis) {
+        this.primary = primary;
+        this.replica = replica;
+        this.maxLagMillis = maxLagMillis;
+        if (replica == null) {
+            checker = null;
+            return;
+        }
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-route-health");
+            t.setDaemon(true);
+            return t;
+        });
+        checker.scheduleWithFixedDelay(this::check, 0, checkMillis, TimeUnit.MILLISECONDS);
+        Metrics.gauge("Pula repliki", () -> replica.stats().toString());
+        Metrics.gauge("Trasy odczytu", this::describe);
+    }
+
+    // -Dwypozyczalnia.replica.url=jdbc:postgresql://host:5433/wypozyczalnia (.user/.pass domyślnie jak główna)
+    // -Dwypozyczalnia.replica.pool.max=8 .checkMs=1000 .maxLagMs=2000
+    static ReadRouter fromProperties(ConnectionPool primary, String user, String pass) {
+        String url = System.getProperty("wypozyczalnia.replica.url");
+        if (url == null || url.isBlank()) return new ReadRouter(primary, null, 0, 0);
+        ConnectionPool replica = new ConnectionPool(
+                url,
+                System.getProperty("wypozyczalnia.replica.user", user),
+                System.getProperty("wypozyczalnia.replica.pass", pass),
+                Integer.getInteger("wypozyczalnia.replica.pool.min", 1),
+                Integer.getInteger("wypozyczalnia.replica.pool.max", 8),
+                Long.getLong("wypozyczalnia.pool.idleTimeoutMs", 300_000L),
+                Long.getLong("wypozyczalnia.replica.borrowTimeoutMs", 1_000L),
+                Integer.getInteger("wypozyczalnia.pool.statementCache", 32));
+        return new ReadRouter(primary, replica,
+                Long.getLong("wypozyczalnia.replica.checkMs", 1_000L),
+                Long.getLong("wypozyczalnia.replica.maxLagMs", 2_000L));
+    }
+
+    boolean hasReplica() {
+        return replica != null;
+    }
+
+    // Odczyt przez replikę, jeśli może go obsłużyć; błąd połączenia albo konflikt z odtwarzaniem
+    // WAL na replice - ten sam odczyt jeszcze raz na głównej (call musi być powtarzalny)
+    <T> T read(ReadCall<T> call) throws SQLException {
+        if (replicaUsable()) {
+            long t0 = System.nanoTime();
+            boolean served = false;
+            boolean ok = false;
+            try (ConnectionPool.Lease lease = replica.borrow()) {
+                if (caughtUp(lease)) {
+                    served = true;
+                    T out = call.call(lease);
+                    ok = true;
+                    toReplica.increment();
+                    return out;
+                }
+            } catch (SQLException ex) {
+                if (!failover(ex)) throw ex;
+                fallbacks.increment();
+            } finally {
+                if (served) Metrics.record(Metrics.Op.READ_REPLICA, t0, ok);
+            }
+        }
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try (ConnectionPool.Lease lease = primary.borrow()) {
+            T out = call.call(lease);
+            ok = true;
+            toPrimary.increment();
+            return out;
+        } finally {
+            if (replica != null) Metrics.record(Metrics.Op.READ_PRIMARY, t0, ok);
+        }
+    }
+
+    // Połączenie do odczytu strumieniowego (kursor): zapis do ujścia nie da się powtórzyć,
+    // więc przełączenie na główną tylko przy pobraniu połączenia
+    ConnectionPool.Lease borrowForStream() throws SQLException {
+        if (replicaUsable()) {
+            ConnectionPool.Lease lease = null;
+            try {
+                lease = replica.borrow();
+                if (caughtUp(lease)) {
+                    toReplica.increment();
+                    return lease;
+                }
+                lease.close();
+            } catch (SQLException ex) {
+                if (lease != null) lease.close();
+                if (!failover(ex)) throw ex;
+                fallbacks.increment();
+            }
+        }
+        toPrimary.increment();
+        return primary.borrow();
+    }
+
+    // Po zatwierdzonym zapisie, na połączeniu, które go wykonało (bez drugiego pobrania z puli):
+    // pozycja WAL głównej, od której replika widzi ten zapis. Dopiero po commit - odczytana w transakcji
+    // byłaby sprzed rekordu commit, a replika na tej pozycji jeszcze zapisu nie pokazuje.
+    void afterWrite(ConnectionPool.Lease lease) {
+        if (replica == null) return;
+        try (ResultSet rs = lease.prepare("SELECT (pg_current_wal_lsn() - '0/0')::bigint").executeQuery()) {
+            rs.next();
+            lastWriteLsn.accumulateAndGet(rs.getLong(1), Math::max);
+        } catch (SQLException ex) {
+            // nieznana pozycja - odczyty zostają na głównej do następnej kontroli
+            lastWriteLsn.set(Long.MAX_VALUE);
+        }
+    }
+
+    private boolean replicaUsable() {
+        if (replica == null) return false;
+        if (replicaHealth != Health.UP) {
+            unhealthy.increment();
+            return false;
+        }
+        return true;
+    }
+
+    // Odczyt własnych zapisów: znana pozycja repliki wystarcza; jeśli nie - pytamy ją teraz
+    private boolean caughtUp(ConnectionPool.Lease lease) throws SQLException {
+        long needed = lastWriteLsn.get();
+        if (replayLsn.get() >= needed) return true;
+        if (needed != Long.MAX_VALUE) {
+            try (ResultSet rs = lease.prepare("SELECT (pg_last_wal_replay_lsn() - '0/0')::bigint").executeQuery()) {
+                rs.next();
+                long lsn = rs.getLong(1);
+                replayLsn.accumulateAndGet(lsn, Math::max);
+                if (lsn >= needed) return true;
+            }
+        }
+        afterWrite.increment();
+        return false;
+    }
+
+    // 08xxx - połączenie, 57P0x - serwer zatrzymany/restart (replika pomijana do następnej kontroli);
+    // pełna pula repliki i 40001 (konflikt z odtwarzaniem WAL) - tylko ponowienie na głównej
+    private boolean failover(SQLException ex) {
+        String state = ex.getSQLState();
+        boolean connection = state != null && (state.startsWith("08") || state.startsWith("57P0"));
+        if (connection) replicaHealth = Health.DOWN;
+        return connection || ex instanceof SQLTimeoutException || "40001".equals(state);
+    }
+
+    private void check() {
+        long t0 = System.nanoTime();
+        long primaryLsn = -1;
+        try (ConnectionPool.Lease lease = primary.borrow();
+             ResultSet rs = lease.prepare("SELECT (pg_current_wal_lsn() - '0/0')::bigint").executeQuery()) {
+            rs.next();
+            primaryLsn = rs.getLong(1);
+            primaryPingMillis = (System.nanoTime() - t0) / 1e6;
+            primaryHealth = Health.UP;
+        } catch (SQLException ex) {
+            primaryHealth = Health.DOWN;
+        }
+
+        long t1 = System.nanoTime();
+        try (ConnectionPool.Lease lease = replica.borrow();
+             ResultSet rs = lease.prepare(
+                     "SELECT pg_is_in_recovery(), (pg_last_wal_replay_lsn() - '0/0')::bigint, " +
+                     "  CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+                     "    ELSE (extract(epoch FROM now() - pg_last_xact_replay_timestamp()) * 1000)::bigint END")
+                     .executeQuery()) {
+            rs.next();
+            replicaPingMillis = (System.nanoTime() - t1) / 1e6;
+            if (!rs.getBoolean(1)) {
+                if (replicaHealth != Health.NOT_STANDBY) {
+                    System.out.println("WARN: baza z -Dwypozyczalnia.replica.url nie jest repliką (pg_is_in_recovery = false), odczyty idą do głównej.");
+                }
+                replicaHealth = Health.NOT_STANDBY;
+                return;
+            }
+            long lsn = rs.getLong(2);
+            replayLsn.accumulateAndGet(lsn, Math::max);
+            replicaLagMillis = rs.getLong(3);
+            // pozycja nieznana po błędzie afterWrite - wystarczy, że replika doszła do stanu głównej sprzed chwili
+            if (primaryLsn >= 0 && lsn >= primaryLsn) lastWriteLsn.compareAndSet(Long.MAX_VALUE, primaryLsn);
+            replicaHealth = replicaLagMillis > maxLagMillis ? Health.LAGGING : Health.UP;
+        } catch (SQLException ex) {
+            replicaHealth = Health.DOWN;
+        } finally {
+            lastCheckNanos = System.nanoTime();
+        }
+    }
+
+    String describe() {
+        long ago = lastCheckNanos == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastCheckNanos);
+        return String.format("replika %s (opóźnienie %d ms, ping %.1f ms), główna %s (ping %.1f ms), kontrola %d ms temu; "
+                        + "odczyty: replika %d, główna %d (po zapisie %d, replika pominięta %d, ponowione %d)",
+                replicaHealth, replicaLagMillis, replicaPingMillis, primaryHealth, primaryPingMillis, ago,
+                toReplica.sum(), toPrimary.sum(), afterWrite.sum(), unhealthy.sum(), fallbacks.sum());
+    }
+
+    @Override
+    public void close() {
+        if (checker != null) checker.shutdownNow();
+        if (replica != null) replica.close();
+    }
+}
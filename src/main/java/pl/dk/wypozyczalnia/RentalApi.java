@@ -0,0 +1,403 @@
+package pl.dk.wypozyczalnia;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Zapis/odczyt obiektów domeny w JSON - wspólny dla RentalServer i HttpRentalRepository,
+// żeby obie strony nie rozjechały się w nazwach pól. Kwoty w groszach, daty ISO (rrrr-mm-dd),
+// znacznik delty jako milisekundy + nanosekundy (bez stref czasowych).
+final class RentalApi {
+
+    private RentalApi() {}
+
+    // --- auta, klienci ---
+
+    static void car(StringBuilder sb, CarRow c) {
+        Json.sep(sb).append('{');
+        Json.key(sb, "id").append(c.getCarId());
+        Json.str(Json.key(sb, "brand"), c.getBrand());
+        Json.str(Json.key(sb, "model"), c.getModel());
+        Json.key(sb, "year").append(c.getYear());
+        Json.key(sb, "price").append(c.getDailyPriceMinor());
+        Json.str(Json.key(sb, "status"), c.getStatusText());
+        sb.append('}');
+    }
+
+    static CarRow car(Object v) {
+        Map<String, Object> o = Json.object(v);
+        return new CarRow((int) Json.num(o, "id"), Json.text(o, "brand"), Json.text(o, "model"),
+                (int) Json.num(o, "year"), Json.num(o, "price"), Json.text(o, "status"));
+    }
+
+    static String cars(List<CarRow> cars) {
+        StringBuilder sb = new StringBuilder(64 + cars.size() * 96).append('[');
+        for (CarRow c : cars) car(sb, c);
+        return sb.append(']').toString();
+    }
+
+    static List<CarRow> cars(Object v) {
+        List<Object> arr = Json.array(v);
+        List<CarRow> out = new ArrayList<>(arr.size());
+        for (Object o : arr) out.add(car(o));
+        return out;
+    }
+
+    static String delta(Db.CarDelta d) {
+        StringBuilder sb = new StringBuilder(64 + d.cars().size() * 96).append('{');
+        watermark(sb, d.watermark());
+        Json.key(sb, "cars").append('[');
+        for (CarRow c : d.cars()) car(sb, c);
+        return sb.append("]}").toString();
+    }
+
+    static Db.CarDelta delta(Object v) {
+        Map<String, Object> o = Json.object(v);
+        return new Db.CarDelta(cars(o.get("cars")), watermark(o));
+    }
+
+    private static void watermark(StringBuilder sb, Timestamp t) {
+        if (t == null) return;
+        Json.key(sb, "ms").append(t.getTime());
+        Json.key(sb, "nanos").append(t.getNanos());
+    }
+
+    private static Timestamp watermark(Map<String, Object> o) {
+        if (!o.containsKey("ms")) return null;
+        Timestamp t = new Timestamp(Json.num(o, "ms"));
+        t.setNanos((int) Json.num(o, "nanos"));
+        return t;
+    }
+
+    // parametr zapytania: "ms:nanos"
+    static String since(Timestamp t) {
+        return t.getTime() + ":" + t.getNanos();
+    }
+
+    static Timestamp since(String param) {
+        if (param == null || param.isEmpty()) return null;
+        int sep = param.indexOf(':');
+        Timestamp t = new Timestamp(Long.parseLong(param.substring(0, sep)));
+        t.setNanos(Integer.parseInt(param.substring(sep + 1)));
+        return t;
+    }
+
+    static String clients(List<ClientRow> clients) {
+        StringBuilder sb = new StringBuilder(16 + clients.size() * 64).append('[');
+        for (ClientRow c : clients) {
+            Json.sep(sb).append('{');
+            Json.key(sb, "id").append(c.getClientId());
+            Json.str(Json.key(sb, "first"), c.getFirstName());
+            Json.str(Json.key(sb, "last"), c.getLastName());
+            sb.append('}');
+        }
+        return sb.append(']').toString();
+    }
+
+    static List<ClientRow> clients(Object v) {
+        List<Object> arr = Json.array(v);
+        List<ClientRow> out = new ArrayList<>(arr.size());
+        for (Object e : arr) {
+            Map<String, Object> o = Json.object(e);
+            out.add(new ClientRow((int) Json.num(o, "id"), Json.text(o, "first"), Json.text(o, "last")));
+        }
+        return out;
+    }
+
+    // --- wypożyczenia ---
+
+    static String rentRequests(List<Db.RentRequest> requests) {
+        StringBuilder sb = new StringBuilder("[");
+        for (Db.RentRequest r : requests) {
+            Json.sep(sb).append('{');
+            Json.key(sb, "clientId").append(r.clientId());
+            Json.key(sb, "carId").append(r.carId());
+            Json.str(Json.key(sb, "start"), r.start().toString());
+            Json.str(Json.key(sb, "end"), r.end().toString());
+            sb.append('}');
+        }
+        return sb.append(']').toString();
+    }
+
+    static List<Db.RentRequest> rentRequests(Object v) {
+        List<Db.RentRequest> out = new ArrayList<>();
+        for (Object e : Json.array(v)) {
+            Map<String, Object> o = Json.object(e);
+            out.add(new Db.RentRequest((int) Json.num(o, "clientId"), (int) Json.num(o, "carId"),
+                    Date.valueOf(Json.text(o, "start")), Date.valueOf(Json.text(o, "end"))));
+        }
+        return out;
+    }
+
+    static String ids(List<Integer> ids) {
+        StringBuilder sb = new StringBuilder("[");
+        for (Integer id : ids) Json.sep(sb).append(id);
+        return sb.append(']').toString();
+    }
+
+    static List<Integer> ids(Object v) {
+        List<Integer> out = new ArrayList<>();
+        for (Object e : Json.array(v)) out.add(((Number) e).intValue());
+        return out;
+    }
+
+    static String bulkResults(List<Db.BulkResult> results) {
+        StringBuilder sb = new StringBuilder("[");
+        for (Db.BulkResult r : results) {
+            Json.sep(sb).append('{');
+            Json.key(sb, "carId").append(r.carId());
+            Json.key(sb, "ok").append(r.ok());
+            Json.str(Json.key(sb, "message"), r.message());
+            sb.append('}');
+        }
+        return sb.append(']').toString();
+    }
+
+    static List<Db.BulkResult> bulkResults(Object v) {
+        List<Db.BulkResult> out = new ArrayList<>();
+        for (Object e : Json.array(v)) {
+            Map<String, Object> o = Json.object(e);
+            out.add(new Db.BulkResult((int) Json.num(o, "carId"), Json.bool(o, "ok"), Json.text(o, "message")));
+        }
+        return out;
+    }
+
+    static String bookings(List<AvailabilityIndex.Booking> bookings) {
+        StringBuilder sb = new StringBuilder(16 + bookings.size() * 48).append('[');
+        for (AvailabilityIndex.Booking b : bookings) {
+            Json.sep(sb).append('{');
+            Json.key(sb, "carId").append(b.carId());
+            Json.str(Json.key(sb, "start"), b.start().toString());
+            Json.str(Json.key(sb, "end"), b.end().toString());
+            sb.append('}');
+        }
+        return sb.append(']').toString();
+    }
+
+    static List<AvailabilityIndex.Booking> bookings(Object v) {
+        List<AvailabilityIndex.Booking> out = new ArrayList<>();
+        for (Object e : Json.array(v)) {
+            Map<String, Object> o = Json.object(e);
+            out.add(new AvailabilityIndex.Booking((int) Json.num(o, "carId"),
+                    LocalDate.parse(Json.text(o, "start")), LocalDate.parse(Json.text(o, "end"))));
+        }
+        return out;
+    }
+
+    // Zmiany statusu aut dla klientów nasłuchujących (long polling): seq = numer ostatniej zmiany,
+    // epoch = "pokolenie" kanału zmian na serwerze (inne = terminal musi nadrobić deltą)
+    static String changes(long epoch, long seq, boolean reset, List<CarChangeFeed.CarChange> changes) {
+        StringBuilder sb = new StringBuilder("{");
+        Json.key(sb, "epoch").append(epoch);
+        Json.key(sb, "seq").append(seq);
+        Json.key(sb, "reset").append(reset);
+        Json.key(sb, "changes").append('[');
+        for (CarChangeFeed.CarChange c : changes) {
+            Json.sep(sb).append('{');
+            Json.key(sb, "carId").append(c.carId());
+            Json.str(Json.key(sb, "status"), c.status().name());
+            sb.append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    static List<CarChangeFeed.CarChange> changes(Map<String, Object> o) {
+        List<CarChangeFeed.CarChange> out = new ArrayList<>();
+        for (Object e : Json.array(o.get("changes"))) {
+            Map<String, Object> c = Json.object(e);
+            out.add(new CarChangeFeed.CarChange((int) Json.num(c, "carId"), CarStatus.of(Json.text(c, "status"))));
+        }
+        return out;
+    }
+
+    // --- cennik ---
+
+    static String rates(RateTable t) {
+        StringBuilder sb = new StringBuilder("{");
+        Json.str(Json.key(sb, "today"), t.today().toString());
+        Json.key(sb, "horizon").append(t.horizonDays());
+        Json.key(sb, "weekendBp").append(t.weekendBp());
+        Json.key(sb, "seasons").append('[');
+        for (RateTable.Season s : t.seasons()) {
+            Json.sep(sb).append('{');
+            Json.str(Json.key(sb, "start"), s.start().toString());
+            Json.str(Json.key(sb, "end"), s.end().toString());
+            Json.key(sb, "bp").append(s.multiplierBp());
+            sb.append('}');
+        }
+        sb.append(']');
+        Json.key(sb, "longTerm").append('[');
+        for (RateTable.LongTerm l : t.longTerm()) {
+            Json.sep(sb).append('{');
+            Json.key(sb, "minDays").append(l.minDays());
+            Json.key(sb, "bp").append(l.discountBp());
+            sb.append('}');
+        }
+        sb.append(']');
+        Json.key(sb, "contracts").append('[');
+        for (RateTable.Contract c : t.contracts()) {
+            Json.sep(sb).append('{');
+            Json.key(sb, "clientId").append(c.clientId());
+            Json.key(sb, "bp").append(c.discountBp());
+            Json.str(Json.key(sb, "validTo"), c.validTo() == null ? null : c.validTo().toString());
+            sb.append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    static RateTable rates(Object v) {
+        Map<String, Object> o = Json.object(v);
+        List<RateTable.Season> seasons = new ArrayList<>();
+        for (Object e : Json.array(o.get("seasons"))) {
+            Map<String, Object> s = Json.object(e);
+            seasons.add(new RateTable.Season(LocalDate.parse(Json.text(s, "start")),
+                    LocalDate.parse(Json.text(s, "end")), (int) Json.num(s, "bp")));
+        }
+        List<RateTable.LongTerm> longTerm = new ArrayList<>();
+        for (Object e : Json.array(o.get("longTerm"))) {
+            Map<String, Object> l = Json.object(e);
+            longTerm.add(new RateTable.LongTerm((int) Json.num(l, "minDays"), (int) Json.num(l, "bp")));
+        }
+        List<RateTable.Contract> contracts = new ArrayList<>();
+        for (Object e : Json.array(o.get("contracts"))) {
+            Map<String, Object> c = Json.object(e);
+            String validTo = Json.text(c, "validTo");
+            contracts.add(new RateTable.Contract((int) Json.num(c, "clientId"), (int) Json.num(c, "bp"),
+                    validTo == null ? null : LocalDate.parse(validTo)));
+        }
+        return new RateTable(LocalDate.parse(Json.text(o, "today")), (int) Json.num(o, "horizon"),
+                (int) Json.num(o, "weekendBp"), seasons, longTerm, contracts);
+    }
+
+    // --- raport, historia, import ---
+
+    static String report(FleetReport r) {
+        StringBuilder sb = new StringBuilder(256 + r.cars().size() * 96).append('{');
+        Json.str(Json.key(sb, "from"), r.from().toString());
+        Json.str(Json.key(sb, "to"), r.to().toString());
+        Json.key(sb, "cars").append('[');
+        for (FleetReport.CarLine l : r.cars()) {
+            Json.sep(sb).append('{');
+            Json.key(sb, "carId").append(l.carId());
+            Json.str(Json.key(sb, "brand"), l.brand());
+            Json.str(Json.key(sb, "model"), l.model());
+            Json.key(sb, "days").append(l.rentedDays());
+            Json.key(sb, "util").append(l.utilisation());
+            Json.key(sb, "revenue").append(l.revenueMinor());
+            sb.append('}');
+        }
+        sb.append(']');
+        Json.key(sb, "brands").append('[');
+        for (FleetReport.BrandLine l : r.brands()) {
+            Json.sep(sb).append('{');
+            Json.str(Json.key(sb, "brand"), l.brand());
+            Json.key(sb, "cars").append(l.cars());
+            Json.key(sb, "days").append(l.rentedDays());
+            Json.key(sb, "util").append(l.utilisation());
+            Json.key(sb, "revenue").append(l.revenueMinor());
+            sb.append('}');
+        }
+        sb.append(']');
+        Json.key(sb, "months").append('[');
+        for (FleetReport.MonthLine l : r.months()) {
+            Json.sep(sb).append('{');
+            Json.str(Json.key(sb, "month"), l.month().toString());
+            Json.key(sb, "days").append(l.rentedDays());
+            Json.key(sb, "util").append(l.utilisation());
+            Json.key(sb, "revenue").append(l.revenueMinor());
+            sb.append('}');
+        }
+        sb.append(']');
+        Json.key(sb, "days").append(r.rentedDays());
+        Json.key(sb, "util").append(r.utilisation());
+        Json.key(sb, "revenue").append(r.revenueMinor());
+        Json.key(sb, "rows").append(r.rowsScanned());
+        Json.key(sb, "pushedDown").append(r.pushedDown());
+        Json.key(sb, "ms").append(r.elapsedMillis());
+        return sb.append('}').toString();
+    }
+
+    static FleetReport report(Object v) {
+        Map<String, Object> o = Json.object(v);
+        List<FleetReport.CarLine> cars = new ArrayList<>();
+        for (Object e : Json.array(o.get("cars"))) {
+            Map<String, Object> l = Json.object(e);
+            cars.add(new FleetReport.CarLine((int) Json.num(l, "carId"), Json.text(l, "brand"), Json.text(l, "model"),
+                    Json.num(l, "days"), Json.dbl(l, "util"), Json.num(l, "revenue")));
+        }
+        List<FleetReport.BrandLine> brands = new ArrayList<>();
+        for (Object e : Json.array(o.get("brands"))) {
+            Map<String, Object> l = Json.object(e);
+            brands.add(new FleetReport.BrandLine(Json.text(l, "brand"), (int) Json.num(l, "cars"),
+                    Json.num(l, "days"), Json.dbl(l, "util"), Json.num(l, "revenue")));
+        }
+        List<FleetReport.MonthLine> months = new ArrayList<>();
+        for (Object e : Json.array(o.get("months"))) {
+            Map<String, Object> l = Json.object(e);
+            months.add(new FleetReport.MonthLine(YearMonth.parse(Json.text(l, "month")),
+                    Json.num(l, "days"), Json.dbl(l, "util"), Json.num(l, "revenue")));
+        }
+        return new FleetReport(LocalDate.parse(Json.text(o, "from")), LocalDate.parse(Json.text(o, "to")),
+                cars, brands, months, Json.num(o, "days"), Json.dbl(o, "util"), Json.num(o, "revenue"),
+                Json.num(o, "rows"), Json.bool(o, "pushedDown"), Json.num(o, "ms"));
+    }
+
+    // Wiersz historii jako jedna linia (tablica JSON) - strumień linia po linii, bez całości w pamięci
+    static void historyLine(StringBuilder sb, RentalExport.Row r) {
+        sb.append('[').append(r.rentalId).append(',').append(r.clientId).append(',');
+        Json.str(sb, r.firstName).append(',');
+        Json.str(sb, r.lastName).append(',').append(r.carId).append(',');
+        Json.str(sb, r.brand).append(',');
+        Json.str(sb, r.model).append(',').append(r.year).append(',')
+                .append(r.startDay).append(',').append(r.endDay).append(',');
+        Json.str(sb, r.status).append(',').append(r.totalMinor).append("]\n");
+    }
+
+    static void historyLine(String line, RentalExport.Row r) {
+        List<Object> a = Json.array(Json.parse(line));
+        r.rentalId = ((Number) a.get(0)).longValue();
+        r.clientId = ((Number) a.get(1)).intValue();
+        r.firstName = (String) a.get(2);
+        r.lastName = (String) a.get(3);
+        r.carId = ((Number) a.get(4)).intValue();
+        r.brand = (String) a.get(5);
+        r.model = (String) a.get(6);
+        r.year = ((Number) a.get(7)).intValue();
+        r.startDay = ((Number) a.get(8)).intValue();
+        r.endDay = ((Number) a.get(9)).intValue();
+        r.status = (String) a.get(10);
+        r.totalMinor = ((Number) a.get(11)).longValue();
+    }
+
+    static String importResult(CsvImport.Result r) {
+        StringBuilder sb = new StringBuilder("{");
+        Json.str(Json.key(sb, "kind"), r.kind().name());
+        Json.key(sb, "lines").append(r.lines());
+        Json.key(sb, "imported").append(r.imported());
+        Json.key(sb, "rejected").append(r.rejected());
+        Json.key(sb, "ms").append(r.elapsedMillis());
+        Json.key(sb, "samples").append('[');
+        for (CsvImport.Rejected s : r.samples()) {
+            Json.sep(sb).append('{');
+            Json.key(sb, "line").append(s.line());
+            Json.str(Json.key(sb, "reason"), s.reason());
+            sb.append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    static CsvImport.Result importResult(Object v) {
+        Map<String, Object> o = Json.object(v);
+        List<CsvImport.Rejected> samples = new ArrayList<>();
+        for (Object e : Json.array(o.get("samples"))) {
+            Map<String, Object> s = Json.object(e);
+            samples.add(new CsvImport.Rejected(Json.num(s, "line"), Json.text(s, "reason")));
+        }
+        return new CsvImport.Result(CsvImport.Kind.valueOf(Json.text(o, "kind")), Json.num(o, "lines"),
+                Json.num(o, "imported"), Json.num(o, "rejected"), samples, Json.num(o, "ms"));
+    }
+}
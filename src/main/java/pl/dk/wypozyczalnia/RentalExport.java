@@ -0,0 +1,419 @@
+package pl.dk.wypozyczalnia;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+// Eksport historii wypożyczeń (wypożyczenie + klient + auto) w stałej pamięci:
+// źródło podaje wiersz po wierszu (kursor), koder pisze do jednego bufora 1 MB,
+// bufor idzie do kanału pliku (opcjonalnie przez gzip). Plik powstaje jako ".part"
+// i jest przenoszony na miejsce dopiero po udanym końcu; przerwanie/błąd go usuwa.
+//
+// Format kolumnowy (.wrx): "WRX1", liczba kolumn, (nazwa, typ) per kolumna, potem bloki po
+// BLOCK_ROWS wierszy: varint liczba wierszy, kolejno kolumny - liczbowe jako zigzag-varint
+// różnicy względem poprzedniego wiersza w bloku, tekstowe jako słownik bloku + varint kody.
+// Koniec: varint 0 i 8 bajtów z liczbą wszystkich wierszy.
+public final class RentalExport {
+
+    public enum Format {
+        CSV("CSV", ".csv"),
+        COLUMNAR("Kolumnowy (.wrx)", ".wrx");
+
+        final String label;
+        final String extension;
+
+        Format(String label, String extension) {
+            this.label = label;
+            this.extension = extension;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    // Jeden wiersz historii. Obiekt wielokrotnego użytku - źródło nadpisuje pola przed każdym accept().
+    public static final class Row {
+        public long rentalId;
+        public int clientId;
+        public String firstName;
+        public String lastName;
+        public int carId;
+        public String brand;
+        public String model;
+        public int year;
+        public int startDay;      // dni od 1970-01-01
+        public int endDay;
+        public String status;
+        public long totalMinor;
+    }
+
+    @FunctionalInterface
+    public interface RowSink {
+        void accept(Row row) throws IOException;
+    }
+
+    public record Result(long rows, long bytes, long elapsedMillis) {}
+
+    static final int BLOCK_ROWS = 65_536;
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final int PROGRESS_EVERY = 50_000;
+
+    private final Path target;
+    private final Format format;
+    private final boolean gzip;
+    private final LongConsumer onProgress;
+    private volatile boolean cancelled;
+
+    public RentalExport(Path target, Format format, boolean gzip, LongConsumer onProgress) {
+        this.target = target;
+        this.format = format;
+        this.gzip = gzip;
+        this.onProgress = onProgress;
+    }
+
+    // Z dowolnego wątku; eksport kończy się CancellationException przy najbliższym wierszu
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @FunctionalInterface
+    public interface Source {
+        void stream(RowSink sink) throws SQLException, IOException;
+    }
+
+    public Result run(Source source) throws SQLException, IOException {
+        long t0 = System.nanoTime();
+        Path part = target.resolveSibling(target.getFileName() + ".part");
+        boolean done = false;
+        try (FileChannel file = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            GZIPOutputStream gz = gzip ? new FastGzip(Channels.newOutputStream(file)) : null;
+            WritableByteChannel out = gzip ? Channels.newChannel(gz) : file;
+            Encoder encoder = (format == Format.CSV) ? new CsvEncoder(out) : new ColumnarEncoder(out);
+            long[] rows = {0};
+            source.stream(row -> {
+                if (cancelled) throw new CancellationException("Eksport przerwany.");
+                encoder.write(row);
+                if (++rows[0] % PROGRESS_EVERY == 0) onProgress.accept(rows[0]);
+            });
+            encoder.finish(rows[0]);
+            if (gz != null) gz.finish(); // stopka gzip; close() zamknąłby też kanał pliku
+            long bytes = file.size();
+            file.force(false);
+            done = true;
+            onProgress.accept(rows[0]);
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new Result(rows[0], bytes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+        } finally {
+            if (!done) Files.deleteIfExists(part);
+        }
+    }
+
+    // Poziom 1: dla CSV ok. 2,5x szybciej niż domyślny 6, plik większy o ok. 20%
+    private static final class FastGzip extends GZIPOutputStream {
+        FastGzip(OutputStream out) throws IOException {
+            super(out, 64 * 1024);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+
+    // --- kodery ---
+
+    // Kodery piszą do zwykłej tablicy (pos), do kanału idzie ona jako ByteBuffer.wrap - bez
+    // sprawdzania granic ByteBuffer przy każdym bajcie.
+    private abstract static class Encoder {
+        // Po polu tekstowym zostaje co najmniej SLACK wolnych bajtów na separatory i liczby
+        static final int SLACK = 64;
+
+        private final WritableByteChannel out;
+        final byte[] buf = new byte[BUFFER_BYTES];
+        private final ByteBuffer view = ByteBuffer.wrap(buf);
+        int pos;
+
+        Encoder(WritableByteChannel out) {
+            this.out = out;
+        }
+
+        abstract void write(Row row) throws IOException;
+
+        void finish(long rows) throws IOException {
+            flush();
+        }
+
+        final void ensure(int bytes) throws IOException {
+            if (buf.length - pos < bytes) flush();
+        }
+
+        final void flush() throws IOException {
+            view.limit(pos).position(0);
+            while (view.hasRemaining()) out.write(view);
+            view.clear();
+            pos = 0;
+        }
+
+        final void put(int b) {
+            buf[pos++] = (byte) b;
+        }
+
+        // Tekst jako UTF-8; ASCII bez pośrednich tablic
+        final void putText(String s) throws IOException {
+            int n = s.length();
+            if (n + SLACK > buf.length) {
+                putBytes(s.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            ensure(n + SLACK);
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    putBytes(s.substring(i).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                buf[pos++] = (byte) c;
+            }
+        }
+
+        final void putBytes(byte[] b) throws IOException {
+            int off = 0;
+            while (off < b.length) {
+                if (pos == buf.length) flush();
+                int n = Math.min(buf.length - pos, b.length - off);
+                System.arraycopy(b, off, buf, pos, n);
+                pos += n;
+                off += n;
+            }
+            ensure(SLACK);
+        }
+    }
+
+    private static final class CsvEncoder extends Encoder {
+        private static final byte[] HEADER = ("rental_id,client_id,first_name,last_name,car_id,brand,model,year," +
+                "start_date,end_date,status,total_price\n").getBytes(StandardCharsets.US_ASCII);
+
+        CsvEncoder(WritableByteChannel out) throws IOException {
+            super(out);
+            putBytes(HEADER);
+        }
+
+        @Override
+        void write(Row r) throws IOException {
+            ensure(128);
+            putLong(r.rentalId); put(',');
+            putLong(r.clientId); put(',');
+            putField(r.firstName); put(',');
+            putField(r.lastName); put(',');
+            ensure(64);
+            putLong(r.carId); put(',');
+            putField(r.brand); put(',');
+            putField(r.model); put(',');
+            ensure(96);
+            putLong(r.year); put(',');
+            putDate(r.startDay); put(',');
+            putDate(r.endDay); put(',');
+            putField(r.status); put(',');
+            ensure(32);
+            putMoney(r.totalMinor);
+            put('\n');
+        }
+
+        private void putField(String s) throws IOException {
+            if (s == null) return;
+            boolean quote = false;
+            for (int i = 0; i < s.length() && !quote; i++) {
+                char c = s.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                putText(s);
+                return;
+            }
+            ensure(1);
+            put('"');
+            putText(s.replace("\"", "\"\""));
+            put('"');
+        }
+
+        // bez Long.toString - cyfry od końca, potem odwrócenie w miejscu
+        private void putLong(long v) {
+            if (v < 0) {
+                put('-');
+                v = -v;
+            }
+            int start = pos;
+            do {
+                buf[pos++] = (byte) ('0' + v % 10);
+                v /= 10;
+            } while (v != 0);
+            for (int i = start, j = pos - 1; i < j; i++, j--) {
+                byte t = buf[i];
+                buf[i] = buf[j];
+                buf[j] = t;
+            }
+        }
+
+        private void putMoney(long minor) {
+            if (minor < 0) {
+                put('-');
+                minor = -minor;
+            }
+            putLong(minor / 100);
+            int cents = (int) (minor % 100);
+            put('.');
+            put('0' + cents / 10);
+            put('0' + cents % 10);
+        }
+
+        // rrrr-mm-dd z dni od epoki, bez LocalDate (algorytm "civil from days")
+        private void putDate(int epochDay) {
+            long z = epochDay + 719_468L;
+            long era = Math.floorDiv(z, 146_097);
+            long doe = z - era * 146_097;
+            long yoe = (doe - doe / 1460 + doe / 36_524 - doe / 146_096) / 365;
+            long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+            long mp = (5 * doy + 2) / 153;
+            int d = (int) (doy - (153 * mp + 2) / 5 + 1);
+            int m = (int) (mp < 10 ? mp + 3 : mp - 9);
+            putLong(yoe + era * 400 + (m <= 2 ? 1 : 0));
+            put('-');
+            put('0' + m / 10);
+            put('0' + m % 10);
+            put('-');
+            put('0' + d / 10);
+            put('0' + d % 10);
+        }
+    }
+
+    private static final class ColumnarEncoder extends Encoder {
+        private static final String[] NUMBERS = {"rental_id", "client_id", "car_id", "year", "start_day", "end_day", "total_minor"};
+        private static final String[] TEXTS = {"first_name", "last_name", "brand", "model", "status"};
+
+        private final long[][] numbers = new long[NUMBERS.length][BLOCK_ROWS];
+        private final TextColumn[] texts = new TextColumn[TEXTS.length];
+        private int n;
+
+        ColumnarEncoder(WritableByteChannel out) throws IOException {
+            super(out);
+            for (int i = 0; i < texts.length; i++) texts[i] = new TextColumn();
+            putBytes("WRX1".getBytes(StandardCharsets.US_ASCII));
+            put(NUMBERS.length + TEXTS.length);
+            for (String name : NUMBERS) header(name, 0);
+            for (String name : TEXTS) header(name, 1);
+        }
+
+        private void header(String name, int type) throws IOException {
+            put(name.length());
+            putBytes(name.getBytes(StandardCharsets.US_ASCII));
+            put(type);
+        }
+
+        @Override
+        void write(Row r) throws IOException {
+            long[][] c = numbers;
+            c[0][n] = r.rentalId;
+            c[1][n] = r.clientId;
+            c[2][n] = r.carId;
+            c[3][n] = r.year;
+            c[4][n] = r.startDay;
+            c[5][n] = r.endDay;
+            c[6][n] = r.totalMinor;
+            texts[0].add(n, r.firstName);
+            texts[1].add(n, r.lastName);
+            texts[2].add(n, r.brand);
+            texts[3].add(n, r.model);
+            texts[4].add(n, r.status);
+            if (++n == BLOCK_ROWS) writeBlock();
+        }
+
+        @Override
+        void finish(long rows) throws IOException {
+            if (n > 0) writeBlock();
+            ensure(16);
+            putVarint(0);
+            for (int shift = 56; shift >= 0; shift -= 8) put((int) (rows >>> shift));
+            flush();
+        }
+
+        private void writeBlock() throws IOException {
+            ensure(5);
+            putVarint(n);
+            for (long[] col : numbers) {
+                long prev = 0;
+                for (int i = 0; i < n; i++) {
+                    ensure(10);
+                    long d = col[i] - prev;
+                    putVarint((d << 1) ^ (d >> 63));
+                    prev = col[i];
+                }
+            }
+            for (TextColumn col : texts) {
+                ensure(5);
+                putVarint(col.values.size());
+                for (String s : col.values) {
+                    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                    ensure(5);
+                    putVarint(b.length);
+                    putBytes(b);
+                }
+                for (int i = 0; i < n; i++) {
+                    ensure(5);
+                    putVarint(col.codes[i]);
+                }
+                col.reset();
+            }
+            n = 0;
+        }
+
+        private void putVarint(long v) {
+            while ((v & ~0x7FL) != 0) {
+                put((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            put((int) v);
+        }
+    }
+
+    // Słownik jednego bloku - pamięć ograniczona rozmiarem bloku
+    private static final class TextColumn {
+        final int[] codes = new int[BLOCK_ROWS];
+        final List<String> values = new ArrayList<>();
+        final Map<String, Integer> index = new HashMap<>();
+
+        void add(int row, String s) {
+            String v = (s == null) ? "" : s;
+            Integer code = index.get(v);
+            if (code == null) {
+                code = values.size();
+                values.add(v);
+                index.put(v, code);
+            }
+            codes[row] = code;
+        }
+
+        void reset() {
+            values.clear();
+            index.clear();
+            Arrays.fill(codes, 0);
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package pl.dk.wypozyczalnia;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+// Dziennik operacji stanowiska (write-ahead): wypożyczenie/zwrot trafia najpierw do lokalnego pliku
+// mapowanego w pamięć, do bazy - w tle (JournalReplayer). Operacja ma losowe id (UUID), po którym
+// baza rozpoznaje powtórzone odtworzenie (journal_applied).
+//
+// Rekord: długość, CRC32C, typ (RENT_AT / RETURN_AT / OUTCOME), id, dane; po ostatnim rekordzie zawsze
+// 0 - odczyt po awarii kończy się na nim albo na pierwszym uszkodzonym (urwanym) rekordzie.
+// Wynik z bazy (OUTCOME) zamyka operację; przy starcie oczekujące są te bez wyniku.
+// RENT_AT / RETURN_AT niosą chwilę przyjęcia - odtworzenie po godzinach czy dniach zapisuje zwrot
+// z tą godziną i sprawdza początek wypożyczenia względem dnia przyjęcia, nie dnia zapisu do bazy.
+// RENT_AT może nieść warunki cenowe z chwili przyjęcia (RateTable.Terms) - cena z wyceny pokazanej
+// klientowi, nie z cennika obowiązującego przy zapisie; bez nich (cennik nie był jeszcze wczytany)
+// wycena przy odtworzeniu. Starsze typy (RENT, RENT_PRICED, RETURN - bez chwili przyjęcia) są nadal
+// odczytywane; odtwarza się je z czasem bazy.
+//
+// Group commit: append() wraca od razu z przyszłością, wątek "journal-fsync" zbiera zapisy
+// z -Dwypozyczalnia.journal.groupCommitMs i robi jedno force() dla całej grupy.
+// Plik rośnie (podwojenie mapowania), gdy brak miejsca przy oczekujących operacjach;
+// gdy wszystko jest już w bazie - zapis wraca na początek pliku.
+// MAX_FORCE_FAILURES nieudanych force() z rzędu wyłącza dziennik: niezapisane operacje kończą się
+// błędem (i znikają z oczekujących), kolejne append() też - stanowisko zapisuje wtedy bezpośrednio do bazy.
+// Operacje już na dysku są dalej odtwarzane.
+final class RentalJournal implements AutoCloseable {
+
+    enum Kind { RENT, RETURN }
+
+    // terms: warunki cenowe z chwili przyjęcia (tylko RENT; null = wycena przy odtworzeniu);
+    // acceptedAt: chwila przyjęcia przy stanowisku (null = wpis ze starszego dziennika, czas bazy)
+    record Entry(UUID id, Kind kind, int clientId, int carId, LocalDate start, LocalDate end, RateTable.Terms terms,
+                 Instant acceptedAt) {}
+
+    record Outcome(UUID id, int carId, boolean ok, String message) {}
+
+    private static final byte T_RENT = 1;
+    private static final byte T_RETURN = 2;
+    private static final byte T_OUTCOME = 3;
+    private static final byte T_RENT_PRICED = 4;
+    private static final byte T_RENT_AT = 5;
+    private static final byte T_RETURN_AT = 6;
+    private static final int MAX_FORCE_FAILURES = 5;
+    private static final int HEADER = 8;      // długość + CRC
+    private static final int TERMINATOR = 4;
+
+    private record Waiter(int end, Entry entry, CompletableFuture<Entry> done) {}
+
+    private final Path file;
+    private final long groupCommitNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dirty = lock.newCondition();
+    private final LinkedHashMap<UUID, Entry> pending = new LinkedHashMap<>();
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private final Thread flusher;
+
+    private FileChannel channel;
+    private MappedByteBuffer buf;
+    private int position;
+    private int flushed;
+    private long generation;     // zmiana mapowania albo powrót na początek - wcześniejsze force nieaktualne
+    private volatile boolean closed;
+    private volatile boolean failed;
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder forces = new LongAdder();
+
+    private RentalJournal(Path file, int capacity, long groupCommitMillis) throws IOException {
+        this.file = file;
+        this.groupCommitNanos = TimeUnit.MILLISECONDS.toNanos(groupCommitMillis);
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, channel.size()));
+        recover();
+        flusher = new Thread(this::flushLoop, "journal-fsync");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // -Dwypozyczalnia.journal.file (domyślnie ~/.wypozyczalnia/journal.log) .sizeMb=4 .groupCommitMs=2
+    static RentalJournal open() throws IOException {
+        Path file = Path.of(System.getProperty("wypozyczalnia.journal.file",
+                Path.of(System.getProperty("user.home"), ".wypozyczalnia", "journal.log").toString()));
+        return new RentalJournal(file,
+                Integer.getInteger("wypozyczalnia.journal.sizeMb", 4) << 20,
+                Long.getLong("wypozyczalnia.journal.groupCommitMs", 2L));
+    }
+
+    static Entry rent(int clientId, int carId, LocalDate start, LocalDate end, RateTable.Terms terms) {
+        return new Entry(UUID.randomUUID(), Kind.RENT, clientId, carId, start, end, terms, Instant.now());
+    }
+
+    static Entry returnCar(int carId) {
+        return new Entry(UUID.randomUUID(), Kind.RETURN, 0, carId, null, null, null, Instant.now());
+    }
+
+    // Przyszłość kończy się, gdy rekord jest na dysku (force grupy)
+    CompletableFuture<Entry> append(Entry e) {
+        byte[] rec = encode(e);
+        lock.lock();
+        try {
+            if (closed) return CompletableFuture.failedFuture(new IOException("Dziennik zamknięty."));
+            if (failed) return CompletableFuture.failedFuture(new IOException("Dziennik wyłączony po błędach zapisu na dysk."));
+            ensureRoom(rec.length);
+            write(rec);
+            pending.put(e.id(), e);
+            appended.increment();
+            CompletableFuture<Entry> done = new CompletableFuture<>();
+            waiters.add(new Waiter(position, e, done));
+            dirty.signal();
+            return done;
+        } catch (IOException | UncheckedIOException ex) {
+            return CompletableFuture.failedFuture(ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Wynik z bazy; bez czekania na force - zgubiony wynik oznacza tylko powtórne (rozpoznane) odtworzenie
+    void complete(Outcome o) {
+        byte[] rec = encode(o);
+        lock.lock();
+        try {
+            if (pending.remove(o.id()) == null || closed || failed) return;
+            ensureRoom(rec.length);
+            write(rec);
+            dirty.signal();
+        } catch (IOException | UncheckedIOException ex) {
+            System.out.println("WARN: dziennik - nie zapisano wyniku operacji " + o.id() + ": " + ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Najstarsze operacje bez wyniku, w kolejności zapisu
+    List<Entry> pending(int max) {
+        lock.lock();
+        try {
+            List<Entry> out = new ArrayList<>(Math.min(max, pending.size()));
+            for (Entry e : pending.values()) {
+                if (out.size() == max) break;
+                out.add(e);
+            }
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Wyłączony po nieudanych force() - nowe operacje trzeba zapisywać z pominięciem dziennika
+    boolean failed() {
+        return failed;
+    }
+
+    int pendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String describe() {
+        long n = forces.sum();
+        return String.format("%soczekujące %d, zapisane %d, fsync %d (śr. %.1f zapisów na fsync), plik %d KB",
+                failed ? "WYŁĄCZONY (błąd zapisu na dysk), " : "", pendingCount(), appended.sum(), n,
+                n == 0 ? 0.0 : (double) appended.sum() / n, buf.capacity() >> 10);
+    }
+
+    private void ensureRoom(int len) throws IOException {
+        if (position + HEADER + len + TERMINATOR <= buf.capacity()) return;
+        if (pending.isEmpty()) {
+            rewind();
+            if (position + HEADER + len + TERMINATOR <= buf.capacity()) return;
+        }
+        long size = buf.capacity();
+        while (position + HEADER + len + TERMINATOR > size) size *= 2;
+        if (size > Integer.MAX_VALUE) throw new IOException("Dziennik przekroczył 2 GB oczekujących operacji.");
+        buf.force(0, position);
+        buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        flushed = position;
+        generation++;
+        releaseWaiters(position);
+    }
+
+    // Wszystko oczekujące jest już w bazie - nowe rekordy od początku pliku. Zerowa długość
+    // na początku (po force) oznacza pusty dziennik także wtedy, gdy dalej zostały stare rekordy.
+    private void rewind() {
+        buf.putInt(0, 0);
+        buf.force(0, TERMINATOR);
+        position = 0;
+        flushed = 0;
+        generation++;
+        releaseWaiters(Integer.MAX_VALUE);
+    }
+
+    private void write(byte[] rec) {
+        buf.put(position + HEADER, rec);
+        buf.putInt(position + HEADER + rec.length, 0);
+        CRC32C crc = new CRC32C();
+        crc.update(rec);
+        buf.putInt(position + 4, (int) crc.getValue());
+        buf.putInt(position, rec.length);
+        position += HEADER + rec.length;
+    }
+
+    private void releaseWaiters(int upTo) {
+        while (!waiters.isEmpty() && waiters.peek().end() <= upTo) {
+            Waiter w = waiters.poll();
+            w.done().completeAsync(w::entry); // zależne akcje poza blokadą dziennika
+        }
+    }
+
+    private void flushLoop() {
+        int failures = 0;
+        while (!closed) {
+            int from;
+            int upTo;
+            long gen;
+            MappedByteBuffer b;
+            lock.lock();
+            try {
+                while (position == flushed && !closed) dirty.awaitUninterruptibly();
+                if (closed) return;
+            } finally {
+                lock.unlock();
+            }
+            // kolejne stanowiskowe zapisy z tej chwili idą tym samym fsync
+            if (groupCommitNanos > 0) LockSupport.parkNanos(groupCommitNanos);
+            lock.lock();
+            try {
+                from = flushed;
+                upTo = position;
+                gen = generation;
+                b = buf;
+            } finally {
+                lock.unlock();
+            }
+            if (upTo <= from) continue;
+
+            long t0 = System.nanoTime();
+            boolean ok = false;
+            UncheckedIOException error = null;
+            try {
+                b.force(from, upTo + TERMINATOR - from);
+                ok = true;
+                forces.increment();
+            } catch (UncheckedIOException ex) {
+                error = ex;
+                System.out.println("WARN: dziennik - fsync nie powiódł się: " + ex.getMessage());
+            } finally {
+                Metrics.record(Metrics.Op.JOURNAL_FSYNC, t0, ok);
+            }
+            if (!ok) {
+                if (++failures >= MAX_FORCE_FAILURES) {
+                    fail(error.getCause());
+                    return;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                continue;
+            }
+            failures = 0;
+
+            lock.lock();
+            try {
+                if (gen == generation) {
+                    flushed = Math.max(flushed, upTo);
+                    releaseWaiters(upTo);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Rekordy za ostatnim force() odcięte zerem (gdyby strony trafiły na dysk później, nie zostaną
+    // odtworzone po restarcie - stanowisko zapisze te operacje bezpośrednio), ich operacje zakończone błędem
+    private void fail(IOException cause) {
+        IOException error = new IOException("Dziennik wyłączony: zapis na dysk nie powiódł się "
+                + MAX_FORCE_FAILURES + " razy z rzędu.", cause);
+        List<Waiter> dropped = new ArrayList<>();
+        lock.lock();
+        try {
+            failed = true;
+            position = flushed;
+            buf.putInt(position, 0);
+            while (!waiters.isEmpty()) {
+                Waiter w = waiters.poll();
+                // już w bazie (odtworzenie wyprzedziło fsync) - operacja przyjęta, nie ma czego powtarzać
+                if (pending.remove(w.entry().id()) == null) w.done().completeAsync(w::entry);
+                else dropped.add(w);
+            }
+        } finally {
+            lock.unlock();
+        }
+        System.out.println("WARN: " + error.getMessage() + " Niezapisane operacje: " + dropped.size());
+        for (Waiter w : dropped) w.done().completeExceptionally(error);
+    }
+
+    // Odczyt po starcie: rekordy do zera albo pierwszego uszkodzonego, operacje bez wyniku = oczekujące
+    private void recover() {
+        int pos = 0;
+        int torn = 0;
+        CRC32C crc = new CRC32C();
+        while (pos + HEADER + TERMINATOR <= buf.capacity()) {
+            int len = buf.getInt(pos);
+            if (len <= 0 || pos + HEADER + len + TERMINATOR > buf.capacity()) break;
+            byte[] rec = new byte[len];
+            buf.get(pos + HEADER, rec);
+            crc.reset();
+            crc.update(rec);
+            if ((int) crc.getValue() != buf.getInt(pos + 4)) {
+                torn++;
+                break;
+            }
+            decode(ByteBuffer.wrap(rec));
+            pos += HEADER + len;
+        }
+        position = pos;
+        flushed = pos;
+        buf.putInt(pos, 0);
+        buf.force(pos, TERMINATOR);
+        if (!pending.isEmpty() || torn > 0) {
+            System.out.println("Dziennik " + file + ": oczekujących operacji " + pending.size()
+                    + (torn > 0 ? " (urwany ostatni zapis pominięty)" : ""));
+        }
+    }
+
+    private void decode(ByteBuffer in) {
+        byte type = in.get();
+        UUID id = new UUID(in.getLong(), in.getLong());
+        switch (type) {
+            case T_RENT, T_RENT_PRICED -> {
+                int clientId = in.getInt();
+                int carId = in.getInt();
+                LocalDate start = LocalDate.ofEpochDay(in.getInt());
+                LocalDate end = LocalDate.ofEpochDay(in.getInt());
+                RateTable.Terms terms = type == T_RENT_PRICED
+                        ? new RateTable.Terms(in.getLong(), in.getInt(), in.getInt()) : null;
+                pending.put(id, new Entry(id, Kind.RENT, clientId, carId, start, end, terms, null));
+            }
+            case T_RENT_AT -> {
+                int clientId = in.getInt();
+                int carId = in.getInt();
+                LocalDate start = LocalDate.ofEpochDay(in.getInt());
+                LocalDate end = LocalDate.ofEpochDay(in.getInt());
+                Instant acceptedAt = Instant.ofEpochMilli(in.getLong());
+                RateTable.Terms terms = in.get() != 0
+                        ? new RateTable.Terms(in.getLong(), in.getInt(), in.getInt()) : null;
+                pending.put(id, new Entry(id, Kind.RENT, clientId, carId, start, end, terms, acceptedAt));
+            }
+            case T_RETURN -> pending.put(id, new Entry(id, Kind.RETURN, 0, in.getInt(), null, null, null, null));
+            case T_RETURN_AT -> {
+                int carId = in.getInt();
+                pending.put(id, new Entry(id, Kind.RETURN, 0, carId, null, null, null, Instant.ofEpochMilli(in.getLong())));
+            }
+            case T_OUTCOME -> pending.remove(id);
+            default -> { }
+        }
+    }
+
+    private static byte[] encode(Entry e) {
+        boolean priced = e.kind() == Kind.RENT && e.terms() != null;
+        ByteBuffer out = ByteBuffer.allocate(e.kind() == Kind.RENT ? (priced ? 58 : 42) : 29);
+        out.put(e.kind() == Kind.RENT ? T_RENT_AT : T_RETURN_AT);
+        out.putLong(e.id().getMostSignificantBits()).putLong(e.id().getLeastSignificantBits());
+        if (e.kind() == Kind.RENT) {
+            out.putInt(e.clientId()).putInt(e.carId())
+                    .putInt((int) e.start().toEpochDay()).putInt((int) e.end().toEpochDay())
+                    .putLong(e.acceptedAt().toEpochMilli())
+                    .put((byte) (priced ? 1 : 0));
+            if (priced) {
+                out.putLong(e.terms().factorBpDays()).putInt(e.terms().longTermBp()).putInt(e.terms().contractBp());
+            }
+        } else {
+            out.putInt(e.carId()).putLong(e.acceptedAt().toEpochMilli());
+        }
+        return out.array();
+    }
+
+    private static byte[] encode(Outcome o) {
+        ByteBuffer out = ByteBuffer.allocate(17);
+        out.put(T_OUTCOME);
+        out.putLong(o.id().getMostSignificantBits()).putLong(o.id().getLeastSignificantBits());
+        return out.array();
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            dirty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join(1_000);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            buf.force(0, position + TERMINATOR);
+            releaseWaiters(Integer.MAX_VALUE);
+            channel.close();
+        } catch (IOException | UncheckedIOException ex) {
+            System.out.println("WARN: dziennik - zamknięcie: " + ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
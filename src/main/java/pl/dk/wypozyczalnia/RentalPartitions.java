@@ -0,0 +1,207 @@
+package pl.dk.wypozyczalnia;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Partycje miesięczne tabeli rental (po start_date): rental_pRRRRMM + rental_default na terminy spoza
+// utworzonych miesięcy. Utrzymanie (raz na dobę w trybie serwera, przy starcie stanowiska tylko
+// z -Dwypozyczalnia.rental.maintainOnStart=true):
+//  - partycje od najstarszego wiersza w rental_default do bieżącego miesiąca + aheadMonths;
+//    wiersze z rental_default są przenoszone do nowej partycji przed jej podpięciem,
+//  - miesiące starsze niż archiveAfterMonths bez aktywnych wypożyczeń przechodzą do rental_archive
+//    (DETACH + ATTACH) - znikają z planów zapytań o bieżące wypożyczenia, a raporty i eksport
+//    widzą je dalej przez widok rental_history.
+// Każda partycja w osobnej krótkiej transakcji. ATTACH/DETACH czekają na blokadę rental najwyżej
+// lockTimeoutMs (w kolejce za nimi stają wypożyczenia i zwroty); po przekroczeniu reszta pracy zostaje
+// na następny przebieg. DETACH ... CONCURRENTLY odpada - Postgres nie pozwala na nie przy partycji DEFAULT.
+final class RentalPartitions {
+
+    static final String PREFIX = "rental_p";
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final long LOCK_KEY = 0x77797070L; // "wypp" - jedno utrzymanie naraz (kilka serwerów)
+    private static final String LOCK_NOT_AVAILABLE = "55P03";
+
+    // Nakładające się aktywne terminy jednego auta (wymaga btree_gist); działa w obrębie partycji
+    static final String NO_OVERLAP =
+            "EXCLUDE USING gist (car_id WITH =, daterange(start_date, end_date, '[]') WITH &&) WHERE (status = 'ACTIVE')";
+
+    record Result(int created, int archived, long movedRows) {}
+
+    private final int aheadMonths;
+    private final int archiveAfterMonths;
+    private final long lockTimeoutMs;
+
+    RentalPartitions(int aheadMonths, int archiveAfterMonths, long lockTimeoutMs) {
+        this.aheadMonths = aheadMonths;
+        this.archiveAfterMonths = archiveAfterMonths;
+        this.lockTimeoutMs = lockTimeoutMs;
+    }
+
+    // -Dwypozyczalnia.rental.partitionsAhead=3 .archiveAfterMonths=24 (0 = bez archiwizacji) .lockTimeoutMs=2000
+    static RentalPartitions fromProperties() {
+        return new RentalPartitions(Integer.getInteger("wypozyczalnia.rental.partitionsAhead", 3),
+                Integer.getInteger("wypozyczalnia.rental.archiveAfterMonths", 24),
+                Long.getLong("wypozyczalnia.rental.lockTimeoutMs", 2_000L));
+    }
+
+    static String name(YearMonth month) {
+        return PREFIX + month.format(SUFFIX);
+    }
+
+    // Pusty wynik, gdy utrzymanie trwa już na innym połączeniu
+    Result maintain(Connection conn, LocalDate today) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(true);
+        try (Statement st = conn.createStatement()) {
+            try (ResultSet rs = st.executeQuery("SELECT pg_try_advisory_lock(" + LOCK_KEY + ")")) {
+                if (!rs.next() || !rs.getBoolean(1)) return new Result(0, 0, 0);
+            }
+            try {
+                st.execute("SET lock_timeout = " + lockTimeoutMs);
+                return maintainLocked(conn, today);
+            } finally {
+                conn.setAutoCommit(true);
+                st.execute("RESET lock_timeout");
+                st.execute("SELECT pg_advisory_unlock(" + LOCK_KEY + ")");
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private Result maintainLocked(Connection conn, LocalDate today) throws SQLException {
+        YearMonth current = YearMonth.from(today);
+        YearMonth last = current.plusMonths(aheadMonths);
+        Set<String> existing = partitions(conn, "rental");
+        existing.addAll(partitions(conn, "rental_archive"));
+
+        YearMonth first = current;
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT min(start_date) FROM rental_default")) {
+            if (rs.next() && rs.getDate(1) != null) {
+                YearMonth oldest = YearMonth.from(rs.getDate(1).toLocalDate());
+                if (oldest.isBefore(first)) first = oldest;
+            }
+        }
+
+        conn.setAutoCommit(false);
+        int created = 0;
+        long moved = 0;
+        for (YearMonth m = first; !m.isAfter(last); m = m.plusMonths(1)) {
+            if (existing.contains(name(m))) continue;
+            try {
+                moved += create(conn, m);
+                conn.commit();
+            } catch (SQLException ex) {
+                if (!busy(conn, ex)) throw ex;
+                return new Result(created, 0, moved);
+            }
+            created++;
+        }
+        int archived = (archiveAfterMonths > 0) ? archive(conn, current.minusMonths(archiveAfterMonths)) : 0;
+        return new Result(created, archived, moved);
+    }
+
+    // Wycofuje transakcję; true, gdy powodem był lock_timeout (do ponowienia w następnym przebiegu)
+    private boolean busy(Connection conn, SQLException ex) throws SQLException {
+        conn.rollback();
+        if (!LOCK_NOT_AVAILABLE.equals(ex.getSQLState())) return false;
+        System.out.println("WARN: rental zajęta dłużej niż " + lockTimeoutMs + " ms - reszta utrzymania partycji przy następnym przebiegu");
+        return true;
+    }
+
+    // Pusta partycja od razu PARTITION OF (migracja przed kopiowaniem danych; rental_default pusta)
+    static void createEmpty(Statement st, YearMonth m) throws SQLException {
+        st.execute("CREATE TABLE " + name(m) + " PARTITION OF rental FOR VALUES FROM ('" + m.atDay(1)
+                + "') TO ('" + m.plusMonths(1).atDay(1) + "')");
+        if (overlapCheckEnabled(st.getConnection())) {
+            st.execute("ALTER TABLE " + name(m) + " ADD CONSTRAINT " + name(m) + "_no_overlap " + NO_OVERLAP);
+        }
+    }
+
+    // Nowa partycja z wierszami przeniesionymi z rental_default. CHECK przed ATTACH pozwala
+    // pominąć skanowanie przy podpinaniu; zwraca liczbę przeniesionych wierszy.
+    private static long create(Connection conn, YearMonth m) throws SQLException {
+        String table = name(m);
+        LocalDate from = m.atDay(1);
+        LocalDate to = m.plusMonths(1).atDay(1);
+        long moved;
+        try (Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE " + table + " (LIKE rental INCLUDING DEFAULTS)");
+            st.execute("ALTER TABLE " + table + " ADD CONSTRAINT " + table + "_range CHECK (start_date >= DATE '" + from
+                    + "' AND start_date < DATE '" + to + "')");
+            moved = st.executeUpdate("WITH moved AS (DELETE FROM rental_default WHERE start_date >= DATE '" + from
+                    + "' AND start_date < DATE '" + to + "' RETURNING *) INSERT INTO " + table + " SELECT * FROM moved");
+            st.execute("ALTER TABLE rental ATTACH PARTITION " + table + " FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+            st.execute("ALTER TABLE " + table + " DROP CONSTRAINT " + table + "_range");
+            if (overlapCheckEnabled(conn)) {
+                st.execute("ALTER TABLE " + table + " ADD CONSTRAINT " + table + "_no_overlap " + NO_OVERLAP);
+            }
+        }
+        return moved;
+    }
+
+    private int archive(Connection conn, YearMonth before) throws SQLException {
+        int archived = 0;
+        for (String table : partitions(conn, "rental")) {
+            if (!table.startsWith(PREFIX)) continue;
+            YearMonth m = YearMonth.parse(table.substring(PREFIX.length()), SUFFIX);
+            if (!m.isBefore(before)) continue;
+            try (Statement st = conn.createStatement()) {
+                try (ResultSet rs = st.executeQuery("SELECT 1 FROM " + table + " WHERE status = 'ACTIVE' LIMIT 1")) {
+                    if (rs.next()) {
+                        conn.rollback();
+                        continue; // stare, ale nadal otwarte wypożyczenie - zostaje
+                    }
+                }
+                st.execute("ALTER TABLE rental DETACH PARTITION " + table);
+                st.execute("ALTER TABLE rental_archive ATTACH PARTITION " + table + " FOR VALUES FROM ('"
+                        + m.atDay(1) + "') TO ('" + m.plusMonths(1).atDay(1) + "')");
+                conn.commit();
+            } catch (SQLException ex) {
+                if (!busy(conn, ex)) throw ex;
+                break;
+            }
+            archived++;
+        }
+        return archived;
+    }
+
+    static Set<String> partitions(Connection conn, String parent) throws SQLException {
+        Set<String> out = new HashSet<>();
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                "WHERE i.inhparent = to_regclass(?)")) {
+            ps.setString(1, parent);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(rs.getString(1));
+            }
+        }
+        return out;
+    }
+
+    // Miesiące od..do włącznie
+    static List<YearMonth> months(YearMonth from, YearMonth to) {
+        List<YearMonth> out = new ArrayList<>();
+        for (YearMonth m = from; !m.isAfter(to); m = m.plusMonths(1)) out.add(m);
+        return out;
+    }
+
+    // Włączone, jeśli migracja zdołała je założyć na rental_default (btree_gist, dane bez nakładek)
+    static boolean overlapCheckEnabled(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT 1 FROM pg_constraint WHERE conrelid = to_regclass('rental_default') AND conname = 'rental_default_no_overlap'")) {
+            return rs.next();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package pl.dk.wypozyczalnia;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+// Dostęp do danych wypożyczalni. Implementacje: JdbcRentalRepository (PostgreSQL przez Db)
+// i InMemoryRentalRepository (tryb demo, testy obciążeniowe). Błędy domenowe
+// ("Auto nie jest dostępne", ...) zgłaszane są jako SQLException z tym samym komunikatem.
+public interface RentalRepository {
+
+    // Przygotowanie przed pierwszym użyciem (PostgreSQL: migracje schematu i partycje rental)
+    default void open() throws SQLException {}
+
+    List<CarRow> listCars() throws SQLException;
+
+    Db.CarDelta listCarsChangedSince(Timestamp since) throws SQLException;
+
+    CarRow getCar(int carId) throws SQLException;
+
+    List<ClientRow> listClients() throws SQLException;
+
+    int countClients() throws SQLException;
+
+    List<ClientRow> searchClients(String query, int limit) throws SQLException;
+
+    void rentCar(int clientId, int carId, Date start, Date end) throws SQLException;
+
+    void returnCar(int carId) throws SQLException;
+
+    List<Db.BulkResult> rentCars(List<Db.RentRequest> requests) throws SQLException;
+
+    List<Db.BulkResult> returnCars(List<Integer> carIds) throws SQLException;
+
+    List<AvailabilityIndex.Booking> listActiveRentals() throws SQLException;
+
+    List<AvailabilityIndex.Booking> listActiveRentals(Collection<Integer> carIds) throws SQLException;
+
+    // Wykorzystanie floty i przychód w okresie (auta, marki, miesiące)
+    FleetReport fleetReport(LocalDate from, LocalDate to) throws SQLException;
+
+    // Historia wypożyczeń (start w okresie) z danymi klienta i auta, wiersz po wierszu
+    void streamRentalHistory(LocalDate from, LocalDate to, RentalExport.RowSink sink) throws SQLException, IOException;
+
+    // Import aut lub klientów z pliku CSV; onBatch dostaje liczbę zapisanych wierszy po każdej paczce
+    CsvImport.Result importCsv(CsvImport.Kind kind, Path file, LongConsumer onBatch) throws SQLException;
+
+    // Cennik do wyceny w oknie wypożyczenia (ta sama wycena zapisywana jest przy rentCar)
+    QuoteEngine quotes();
+
+    // Powiadomienia o zmianach statusu aut (z tego i innych stanowisk)
+    AutoCloseable subscribe(Consumer<List<CarChangeFeed.CarChange>> onChanges, Runnable onReconnect);
+
+    default void close() {}
+}
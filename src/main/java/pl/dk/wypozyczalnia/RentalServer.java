@@ -0,0 +1,538 @@
+package pl.dk.wypozyczalnia;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+// Tryb serwera (App --server): operacje repozytorium jako HTTP/JSON na wbudowanym serwerze JDK,
+// każde żądanie na wirtualnym wątku. Stanowiska w oddziałach łączą się przez HttpRentalRepository,
+// więc do PostgreSQL trafia tylko wspólna pula serwera (Db), a nie po kilka połączeń z każdego terminala.
+//
+// Pełna lista aut jest trzymana jako gotowe bajty (również w gzip) i unieważniana przy zapisie
+// i przy zmianie statusu z kanału zmian - przy wielu terminalach odświeżających naraz baza liczy ją raz.
+// Zmiany statusu trafiają do terminali przez long polling (/api/changes).
+//
+// -Dwypozyczalnia.server.port=8080 .host=127.0.0.1 .carsCacheMs=2000
+// -Dwypozyczalnia.server.maxBodyBytes=1048576 .maxImportBytes=268435456   (większe żądanie: 413)
+// -Dwypozyczalnia.api.token=...   (wymagany nagłówek "Authorization: Bearer ..."; bez tokenu serwer
+//                                  nasłuchuje tylko na adresie lokalnym - inny adres kończy start błędem)
+public final class RentalServer implements AutoCloseable {
+
+    static final String JSON = "application/json; charset=utf-8";
+    static final String NDJSON = "application/x-ndjson; charset=utf-8";
+
+    private static final int CHANGES_KEPT = 4_096;
+    private static final long POLL_MAX_MS = 25_000;
+    private static final int GZIP_MIN_BYTES = 1_024;
+    private static final long MAX_BODY_BYTES = Long.getLong("wypozyczalnia.server.maxBodyBytes", 1L << 20);
+    private static final int MAX_SEARCH_LIMIT = 200;
+    private static final long MAX_IMPORT_BYTES = Long.getLong("wypozyczalnia.server.maxImportBytes", 256L << 20);
+
+    private final RentalRepository repo;
+    private final HttpServer http;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final String token;
+    private final long carsCacheNanos;
+
+    private volatile CachedCars cachedCars;
+    private final ReentrantLock carsLock = new ReentrantLock();
+    private final AtomicLong carsGen = new AtomicLong();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    // Pierścień ostatnich zmian dla long pollingu; epoch zmienia się przy starcie i po zerwaniu
+    // nasłuchu - terminal z innym epoch dostaje reset (pełne nadrobienie deltą)
+    private final ReentrantLock changesLock = new ReentrantLock();
+    private final Condition changed = changesLock.newCondition();
+    private final CarChangeFeed.CarChange[] ring = new CarChangeFeed.CarChange[CHANGES_KEPT];
+    private long seq;
+    private long epoch = System.nanoTime();
+    private final AutoCloseable feed;
+
+    private record CachedCars(byte[] plain, byte[] gzip, long builtAt) {}
+
+    // Treść żądania ponad limit - odpowiedź 413
+    private static final class TooLarge extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        TooLarge(long max) {
+            super("Treść żądania przekracza limit " + max + " bajtów.");
+        }
+    }
+
+    public RentalServer(RentalRepository repo, InetSocketAddress address, String token, long carsCacheMillis) throws IOException {
+        this.repo = repo;
+        checkExposure(address, token);
+        this.token = (token == null || token.isBlank()) ? null : "Bearer " + token;
+        this.carsCacheNanos = TimeUnit.MILLISECONDS.toNanos(carsCacheMillis);
+        this.http = HttpServer.create(address, 0);
+        http.setExecutor(executor);
+        http.createContext("/api/", this::handle);
+        this.feed = repo.subscribe(this::onChanges, this::onFeedReconnect);
+        Metrics.gauge("Serwer: cache aut", () -> "trafienia " + cacheHits.sum() + ", chybienia " + cacheMisses.sum());
+    }
+
+    public static void main(String[] args) throws Exception {
+        InetSocketAddress address = new InetSocketAddress(System.getProperty("wypozyczalnia.server.host", "127.0.0.1"),
+                Integer.getInteger("wypozyczalnia.server.port", 8080));
+        String token = System.getProperty("wypozyczalnia.api.token");
+        checkExposure(address, token);
+        RentalRepository repo = List.of(args).contains("--demo") || Boolean.getBoolean("wypozyczalnia.demo")
+                ? InMemoryRentalRepository.demo(Integer.getInteger("wypozyczalnia.demo.cars", 2_000),
+                        Integer.getInteger("wypozyczalnia.demo.clients", 500), 42)
+                : new JdbcRentalRepository();
+        repo.open();
+        if (repo instanceof JdbcRentalRepository) schedulePartitionMaintenance();
+        RentalServer server = new RentalServer(repo, address, token,
+                Long.getLong("wypozyczalnia.server.carsCacheMs", 2_000L));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            repo.close();
+        }, "server-shutdown"));
+        server.start();
+        System.out.println("Serwer wypożyczalni: http://" + address.getHostString() + ":" + server.port() + "/api/");
+    }
+
+    // Bez tokenu API nie może być dostępne spoza maszyny serwera
+    private static void checkExposure(InetSocketAddress address, String token) {
+        if (token != null && !token.isBlank()) return;
+        if (address.getAddress() == null || !address.getAddress().isLoopbackAddress()) {
+            throw new IllegalArgumentException("Serwer bez -Dwypozyczalnia.api.token może nasłuchiwać tylko na adresie lokalnym (jest "
+                    + address.getHostString() + ").");
+        }
+    }
+
+    // Nowe partycje rental przed początkiem miesiąca i archiwizacja starych - przy starcie i raz na dobę
+    // (stanowiska same tego nie robią, chyba że z -Dwypozyczalnia.rental.maintainOnStart=true)
+    private static void schedulePartitionMaintenance() {
+        ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rental-partitions");
+            t.setDaemon(true);
+            return t;
+        });
+        maintenance.scheduleWithFixedDelay(() -> {
+            try {
+                RentalPartitions.Result r = Db.maintainPartitions();
+                if (r.created() > 0 || r.archived() > 0) {
+                    System.out.println("Partycje rental: nowe " + r.created() + ", zarchiwizowane " + r.archived());
+                }
+            } catch (SQLException e) {
+                System.out.println("WARN: utrzymanie partycji rental: " + e.getMessage());
+            }
+        }, 0, 1, TimeUnit.DAYS);
+    }
+
+    public void start() {
+        http.start();
+    }
+
+    public int port() {
+        return http.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        try { feed.close(); } catch (Exception ignored) {}
+        http.stop(1);
+        executor.shutdownNow();
+    }
+
+    // --- routing ---
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            if (token != null && !token.equals(ex.getRequestHeaders().getFirst("Authorization"))) {
+                send(ex, 401, Json.error("Brak uprawnień do API.", null));
+                return;
+            }
+            String path = ex.getRequestURI().getPath();
+            String method = ex.getRequestMethod();
+            Map<String, String> q = query(ex.getRequestURI().getRawQuery());
+            try {
+                route(ex, method, path, q);
+            } catch (SQLException e) {
+                send(ex, status(e), Json.error(e.getMessage(), e.getSQLState()));
+            } catch (IllegalArgumentException | DateTimeException e) {
+                send(ex, 400, Json.error(e.getMessage(), null));
+            } catch (TooLarge e) {
+                send(ex, 413, Json.error(e.getMessage(), null));
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                send(ex, 500, Json.error("Błąd serwera: " + e, null));
+            }
+        }
+    }
+
+    private void route(HttpExchange ex, String method, String path, Map<String, String> q) throws Exception {
+        boolean get = "GET".equals(method);
+        boolean post = "POST".equals(method);
+        switch (path) {
+            case "/api/cars" -> {
+                if (get) { cars(ex); return; }
+            }
+            case "/api/cars/delta" -> {
+                if (get) { send(ex, 200, RentalApi.delta(repo.listCarsChangedSince(RentalApi.since(q.get("since"))))); return; }
+            }
+            case "/api/clients" -> {
+                if (get) { send(ex, 200, RentalApi.clients(repo.listClients())); return; }
+            }
+            case "/api/clients/count" -> {
+                if (get) { send(ex, 200, Integer.toString(repo.countClients())); return; }
+            }
+            case "/api/clients/search" -> {
+                if (get) {
+                    send(ex, 200, RentalApi.clients(repo.searchClients(q.getOrDefault("q", ""), limit(q))));
+                    return;
+                }
+            }
+            case "/api/rent" -> {
+                if (post) {
+                    Map<String, Object> o = Json.object(body(ex));
+                    repo.rentCar((int) Json.num(o, "clientId"), (int) Json.num(o, "carId"),
+                            Date.valueOf(Json.text(o, "start")), Date.valueOf(Json.text(o, "end")));
+                    invalidateCars();
+                    send(ex, 200, "{}");
+                    return;
+                }
+            }
+            case "/api/return" -> {
+                if (post) {
+                    repo.returnCar((int) Json.num(Json.object(body(ex)), "carId"));
+                    invalidateCars();
+                    send(ex, 200, "{}");
+                    return;
+                }
+            }
+            case "/api/rent-bulk" -> {
+                if (post) {
+                    List<Db.BulkResult> out = repo.rentCars(RentalApi.rentRequests(body(ex)));
+                    invalidateCars();
+                    send(ex, 200, RentalApi.bulkResults(out));
+                    return;
+                }
+            }
+            case "/api/return-bulk" -> {
+                if (post) {
+                    List<Db.BulkResult> out = repo.returnCars(RentalApi.ids(body(ex)));
+                    invalidateCars();
+                    send(ex, 200, RentalApi.bulkResults(out));
+                    return;
+                }
+            }
+            case "/api/rentals/active" -> {
+                if (get) {
+                    String ids = q.get("cars");
+                    send(ex, 200, RentalApi.bookings(ids == null ? repo.listActiveRentals() : repo.listActiveRentals(intList(ids))));
+                    return;
+                }
+            }
+            case "/api/report" -> {
+                if (get) {
+                    send(ex, 200, RentalApi.report(repo.fleetReport(date(q, "from"), date(q, "to"))));
+                    return;
+                }
+            }
+            case "/api/rates" -> {
+                if (get) { send(ex, 200, RentalApi.rates(repo.quotes().table())); return; }
+            }
+            case "/api/history" -> {
+                if (get) { history(ex, date(q, "from"), date(q, "to")); return; }
+            }
+            case "/api/import" -> {
+                if (post) { importCsv(ex, kind(q)); return; }
+            }
+            case "/api/changes" -> {
+                if (get) { changes(ex, Long.parseLong(q.getOrDefault("epoch", "0")), Long.parseLong(q.getOrDefault("after", "0"))); return; }
+            }
+            default -> {
+                if (get && path.startsWith("/api/cars/")) {
+                    CarRow car = repo.getCar(Integer.parseInt(path.substring("/api/cars/".length())));
+                    if (car == null) { send(ex, 200, "null"); return; }
+                    StringBuilder sb = new StringBuilder();
+                    RentalApi.car(sb, car);
+                    send(ex, 200, sb.toString());
+                    return;
+                }
+                send(ex, 404, Json.error("Nieznany adres: " + path, null));
+                return;
+            }
+        }
+        send(ex, 405, Json.error("Metoda " + method + " nie jest obsługiwana dla " + path, null));
+    }
+
+    // 409 dla błędów domenowych (stałe komunikaty, bez SQLSTATE), 503 dla braku połączenia z bazą
+    private static int status(SQLException e) {
+        String state = e.getSQLState();
+        if (state == null) return 409;
+        if (state.startsWith("08")) return 503;
+        if (state.startsWith("40")) return 409; // zakleszczenie, serializacja - klient może ponowić
+        return 500;
+    }
+
+    // --- lista aut z cache ---
+
+    private void cars(HttpExchange ex) throws IOException, SQLException {
+        CachedCars c = cachedCars;
+        if (c == null || System.nanoTime() - c.builtAt() >= carsCacheNanos) {
+            cacheMisses.increment();
+            c = buildCars();
+        } else {
+            cacheHits.increment();
+        }
+        String enc = ex.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = c.gzip() != null && enc != null && enc.contains("gzip");
+        if (gzip) ex.getResponseHeaders().set("Content-Encoding", "gzip");
+        sendBytes(ex, 200, JSON, gzip ? c.gzip() : c.plain());
+    }
+
+    // Równoczesne chybienia czekają na jedno zapytanie zamiast zasypywać bazę tym samym SELECT-em
+    // (ReentrantLock, nie synchronized - wirtualny wątek czekający na bazę nie blokuje nośnika)
+    private CachedCars buildCars() throws SQLException, IOException {
+        carsLock.lock();
+        try {
+            return buildCarsLocked();
+        } finally {
+            carsLock.unlock();
+        }
+    }
+
+    private CachedCars buildCarsLocked() throws SQLException, IOException {
+        CachedCars c = cachedCars;
+        if (c != null && System.nanoTime() - c.builtAt() < carsCacheNanos) return c;
+        long gen = carsGen.get();
+        long t0 = System.nanoTime();
+        byte[] plain = RentalApi.cars(repo.listCars()).getBytes(StandardCharsets.UTF_8);
+        byte[] gzip = null;
+        if (plain.length >= GZIP_MIN_BYTES) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(plain.length / 4);
+            try (GZIPOutputStream gz = new GZIPOutputStream(bytes)) {
+                gz.write(plain);
+            }
+            gzip = bytes.toByteArray();
+        }
+        c = new CachedCars(plain, gzip, t0);
+        // zapis w trakcie zapytania - lista może być już nieaktualna, więc tylko dla tego żądania
+        if (carsGen.get() == gen) cachedCars = c;
+        return c;
+    }
+
+    private void invalidateCars() {
+        carsGen.incrementAndGet();
+        cachedCars = null;
+    }
+
+    // --- historia i import ---
+
+    // Strumień NDJSON (linia = wiersz) - serwer nie trzyma całej historii w pamięci.
+    // Ostatnia linia {"rows":N} potwierdza komplet; błąd w trakcie (nagłówki już wysłane)
+    // kończy strumień bez niej, a klient zgłasza przerwany eksport.
+    private void history(HttpExchange ex, LocalDate from, LocalDate to) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", NDJSON);
+        ex.sendResponseHeaders(200, 0);
+        try (Writer out = new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8)) {
+            StringBuilder sb = new StringBuilder(256);
+            long[] rows = {0};
+            repo.streamRentalHistory(from, to, row -> {
+                sb.setLength(0);
+                RentalApi.historyLine(sb, row);
+                out.append(sb);
+                rows[0]++;
+            });
+            out.append("{\"rows\":").append(Long.toString(rows[0])).append("}\n");
+        } catch (SQLException e) {
+            System.out.println("WARN: przerwany strumień historii (" + e.getMessage() + ").");
+        }
+    }
+
+    private void importCsv(HttpExchange ex, CsvImport.Kind kind) throws IOException, SQLException {
+        Path tmp = Files.createTempFile("import", ".csv");
+        try {
+            checkLength(ex, MAX_IMPORT_BYTES);
+            try (InputStream in = ex.getRequestBody(); OutputStream out = Files.newOutputStream(tmp)) {
+                byte[] buf = new byte[64 * 1024];
+                long total = 0;
+                for (int n; (n = in.read(buf)) > 0; ) {
+                    total += n;
+                    if (total > MAX_IMPORT_BYTES) throw new TooLarge(MAX_IMPORT_BYTES);
+                    out.write(buf, 0, n);
+                }
+            }
+            CsvImport.Result result = repo.importCsv(kind, tmp, n -> { });
+            invalidateCars();
+            send(ex, 200, RentalApi.importResult(result));
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // --- zmiany statusu (long polling) ---
+
+    private void onChanges(List<CarChangeFeed.CarChange> changes) {
+        invalidateCars();
+        changesLock.lock();
+        try {
+            for (CarChangeFeed.CarChange c : changes) ring[(int) (++seq % CHANGES_KEPT)] = c;
+            changed.signalAll();
+        } finally {
+            changesLock.unlock();
+        }
+    }
+
+    private void onFeedReconnect() {
+        invalidateCars();
+        changesLock.lock();
+        try {
+            epoch++;
+            changed.signalAll();
+        } finally {
+            changesLock.unlock();
+        }
+    }
+
+    private void changes(HttpExchange ex, long clientEpoch, long after) throws IOException, InterruptedException {
+        List<CarChangeFeed.CarChange> out = new ArrayList<>();
+        long now;
+        long currentEpoch;
+        boolean reset;
+        changesLock.lock();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(POLL_MAX_MS);
+            while (clientEpoch == epoch && after == seq) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) break;
+                changed.awaitNanos(left);
+            }
+            now = seq;
+            currentEpoch = epoch;
+            // inny epoch, numer z przyszłości albo zmiany wypadły już z pierścienia - terminal nadrabia deltą
+            reset = clientEpoch != epoch || after > seq || seq - after > CHANGES_KEPT;
+            if (!reset) {
+                for (long i = after + 1; i <= seq; i++) out.add(ring[(int) (i % CHANGES_KEPT)]);
+            }
+        } finally {
+            changesLock.unlock();
+        }
+        send(ex, 200, RentalApi.changes(currentEpoch, now, reset, out));
+    }
+
+    // --- pomocnicze ---
+
+    private static Object body(HttpExchange ex) throws IOException {
+        checkLength(ex, MAX_BODY_BYTES);
+        try (InputStream in = ex.getRequestBody()) {
+            byte[] bytes = in.readNBytes((int) Math.min(MAX_BODY_BYTES + 1, Integer.MAX_VALUE - 8));
+            if (bytes.length > MAX_BODY_BYTES) throw new TooLarge(MAX_BODY_BYTES);
+            return Json.parse(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    // Zadeklarowana długość ponad limit - odmowa bez czytania treści
+    private static void checkLength(HttpExchange ex, long max) throws TooLarge {
+        String declared = ex.getRequestHeaders().getFirst("Content-Length");
+        if (declared == null) return;
+        try {
+            if (Long.parseLong(declared.trim()) > max) throw new TooLarge(max);
+        } catch (NumberFormatException ignored) {
+            // niepoprawny nagłówek - limit i tak pilnowany przy czytaniu
+        }
+    }
+
+    // Wymagane parametry zapytania: brak albo zły format to 400 z nazwą parametru
+    private static String required(Map<String, String> q, String name) {
+        String v = q.get(name);
+        if (v == null || v.isBlank()) throw new IllegalArgumentException("Brak parametru: " + name + ".");
+        return v;
+    }
+
+    // Limit wyszukiwania klientów: domyślnie 50, obcinany do MAX_SEARCH_LIMIT (nie cała tabela na żądanie)
+    private static int limit(Map<String, String> q) {
+        String v = q.get("limit");
+        if (v == null || v.isBlank()) return 50;
+        try {
+            return Math.max(1, Math.min(Integer.parseInt(v.trim()), MAX_SEARCH_LIMIT));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Niepoprawna liczba w parametrze limit: " + v);
+        }
+    }
+
+    private static LocalDate date(Map<String, String> q, String name) {
+        String v = required(q, name);
+        try {
+            return LocalDate.parse(v);
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Niepoprawna data w parametrze " + name + ": " + v);
+        }
+    }
+
+    private static CsvImport.Kind kind(Map<String, String> q) {
+        String v = required(q, "kind");
+        try {
+            return CsvImport.Kind.valueOf(v);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Nieznany rodzaj importu: " + v + " (CARS albo CLIENTS).");
+        }
+    }
+
+    private static void send(HttpExchange ex, int status, String json) throws IOException {
+        sendBytes(ex, status, JSON, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendBytes(HttpExchange ex, int status, String type, byte[] body) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", type);
+        ex.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> out = new HashMap<>();
+        if (raw == null || raw.isEmpty()) return out;
+        for (String part : raw.split("&")) {
+            int eq = part.indexOf('=');
+            String k = eq < 0 ? part : part.substring(0, eq);
+            String v = eq < 0 ? "" : part.substring(eq + 1);
+            out.put(URLDecoder.decode(k, StandardCharsets.UTF_8), URLDecoder.decode(v, StandardCharsets.UTF_8));
+        }
+        return out;
+    }
+
+    private static List<Integer> intList(String csv) {
+        List<Integer> out = new ArrayList<>();
+        for (String s : csv.split(",")) {
+            if (!s.isBlank()) out.add(Integer.parseInt(s.trim()));
+        }
+        return out;
+    }
+}
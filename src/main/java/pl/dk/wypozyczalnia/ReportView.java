@@ -0,0 +1,123 @@
+package pl.dk.wypozyczalnia;
+
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.DatePicker;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
+import javafx.scene.control.Tab;
+import javafx.scene.control.TabPane;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.stage.Stage;
+
+import java.time.LocalDate;
+import java.util.function.Function;
+
+// Okno raportu: wykorzystanie floty i przychód per auto, marka i miesiąc.
+// Raport liczy się w tle (DbAsync); okno można zamknąć w trakcie.
+final class ReportView {
+
+    private final Stage stage = new Stage();
+    private final DatePicker from = new DatePicker(LocalDate.now().minusMonths(11).withDayOfMonth(1));
+    private final DatePicker to = new DatePicker(LocalDate.now());
+    private final Button generate = new Button("Generuj");
+    private final ProgressIndicator busy = new ProgressIndicator();
+    private final Label summary = new Label("Wybierz okres i kliknij Generuj.");
+
+    private final TableView<FleetReport.CarLine> carTable = new TableView<FleetReport.CarLine>();
+    private final TableView<FleetReport.BrandLine> brandTable = new TableView<FleetReport.BrandLine>();
+    private final TableView<FleetReport.MonthLine> monthTable = new TableView<FleetReport.MonthLine>();
+
+    ReportView(Stage owner) {
+        carTable.getColumns().add(column("Marka", FleetReport.CarLine::brand, 140));
+        carTable.getColumns().add(column("Model", FleetReport.CarLine::model, 160));
+        carTable.getColumns().add(column("Dni najmu", FleetReport.CarLine::rentedDays, 90));
+        carTable.getColumns().add(column("Wykorzystanie", l -> percent(l.utilisation()), 110));
+        carTable.getColumns().add(column("Przychód", l -> Money.format(l.revenueMinor()), 120));
+        brandTable.getColumns().add(column("Marka", FleetReport.BrandLine::brand, 160));
+        brandTable.getColumns().add(column("Aut", FleetReport.BrandLine::cars, 70));
+        brandTable.getColumns().add(column("Dni najmu", FleetReport.BrandLine::rentedDays, 90));
+        brandTable.getColumns().add(column("Wykorzystanie", l -> percent(l.utilisation()), 110));
+        brandTable.getColumns().add(column("Przychód", l -> Money.format(l.revenueMinor()), 120));
+        monthTable.getColumns().add(column("Miesiąc", l -> l.month().toString(), 110));
+        monthTable.getColumns().add(column("Dni najmu", FleetReport.MonthLine::rentedDays, 90));
+        monthTable.getColumns().add(column("Wykorzystanie", l -> percent(l.utilisation()), 110));
+        monthTable.getColumns().add(column("Przychód", l -> Money.format(l.revenueMinor()), 120));
+
+        TabPane tabs = new TabPane(
+                new Tab("Auta", carTable),
+                new Tab("Marki", brandTable),
+                new Tab("Miesiące", monthTable));
+        tabs.setTabClosingPolicy(TabPane.TabClosingPolicy.UNAVAILABLE);
+
+        generate.getStyleClass().add("primary");
+        generate.setOnAction(e -> run());
+        busy.setPrefSize(18, 18);
+        busy.setVisible(false);
+
+        HBox top = new HBox(10, new Label("Od:"), from, new Label("do:"), to, generate, busy);
+        top.getStyleClass().add("toolbar");
+
+        BorderPane statusBar = new BorderPane(summary);
+        statusBar.getStyleClass().add("statusbar");
+
+        BorderPane root = new BorderPane(tabs, top, null, statusBar, null);
+        root.setPadding(new Insets(0, 0, 0, 0));
+
+        Scene scene = new Scene(root, 820, 520);
+        scene.getStylesheets().addAll(owner.getScene().getStylesheets());
+        stage.initOwner(owner);
+        stage.setTitle("Raport floty");
+        stage.setScene(scene);
+    }
+
+    void show() {
+        stage.show();
+        stage.toFront();
+    }
+
+    private void run() {
+        LocalDate f = from.getValue();
+        LocalDate t = to.getValue();
+        if (f == null || t == null || t.isBefore(f)) {
+            summary.setText("Niepoprawny okres.");
+            return;
+        }
+
+        generate.setDisable(true);
+        busy.setVisible(true);
+        summary.setText("Liczenie raportu…");
+        DbAsync.supply(() -> DbAsync.repository().fleetReport(f, t)).whenCompleteAsync((report, err) -> {
+            generate.setDisable(false);
+            busy.setVisible(false);
+            if (err != null) {
+                summary.setText("Błąd raportu: " + DbAsync.unwrap(err).getMessage());
+                return;
+            }
+            carTable.getItems().setAll(report.cars());
+            brandTable.getItems().setAll(report.brands());
+            monthTable.getItems().setAll(report.months());
+            summary.setText(String.format("%s – %s: %d dni najmu, wykorzystanie %s, przychód %s PLN " +
+                            "(%d wypożyczeń, %s, %d ms)",
+                    report.from(), report.to(), report.rentedDays(), percent(report.utilisation()),
+                    Money.format(report.revenueMinor()), report.rowsScanned(),
+                    report.pushedDown() ? "agregacja w bazie" : "strumień", report.elapsedMillis()));
+        }, DbAsync.FX);
+    }
+
+    private static <S, T> TableColumn<S, T> column(String title, Function<S, T> value, double width) {
+        TableColumn<S, T> col = new TableColumn<S, T>(title);
+        col.setCellValueFactory(c -> new ReadOnlyObjectWrapper<T>(value.apply(c.getValue())));
+        col.setPrefWidth(width);
+        return col;
+    }
+
+    private static String percent(double ratio) {
+        return String.format("%.1f%%", 100 * ratio);
+    }
+}
@@ -0,0 +1,227 @@
+package pl.dk.wypozyczalnia;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Wersjonowany schemat bazy, uzgadniany przy starcie (Db.migrate). Zastosowane wersje są w tabeli
+// schema_version; każda brakująca migracja wykonuje się w osobnej transakcji, po kolei.
+// Równoczesny start kilku stanowisk/serwerów: blokada doradcza - migruje pierwszy, reszta czeka.
+// Migracje 1-3 są idempotentne (IF NOT EXISTS), więc istniejąca baza zakładana ręcznie wg starego
+// README przechodzi je bez zmian. Nowe zmiany schematu - tylko jako kolejna pozycja na liście.
+final class SchemaMigrations {
+
+    @FunctionalInterface
+    interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    // optional - błąd nie zatrzymuje startu, migracja zostaje niezastosowana i jest ponawiana przy kolejnym
+    record Migration(int version, String description, boolean optional, Step step) {}
+
+    private static final long LOCK_KEY = 0x77797079L; // "wypy"
+
+    static final List<Migration> ALL = List.of(
+            new Migration(1, "tabele car, client, rental", false, sql(
+                    "CREATE TABLE IF NOT EXISTS car (car_id serial PRIMARY KEY, brand text NOT NULL, model text NOT NULL, " +
+                    "year int NOT NULL, daily_price numeric(10,2) NOT NULL, status text NOT NULL DEFAULT 'AVAILABLE')",
+                    "CREATE TABLE IF NOT EXISTS client (client_id serial PRIMARY KEY, first_name text NOT NULL, last_name text NOT NULL)",
+                    "CREATE TABLE IF NOT EXISTS rental (rental_id serial PRIMARY KEY, " +
+                    "client_id int NOT NULL REFERENCES client, car_id int NOT NULL REFERENCES car, " +
+                    "start_date date NOT NULL, end_date date NOT NULL, status text NOT NULL DEFAULT 'ACTIVE', returned_at timestamptz)",
+                    "ALTER TABLE rental ADD COLUMN IF NOT EXISTS returned_at timestamptz")),
+            new Migration(2, "car.updated_at i car.version", false, sql(
+                    "ALTER TABLE car ADD COLUMN IF NOT EXISTS updated_at timestamptz NOT NULL DEFAULT now()",
+                    "CREATE INDEX IF NOT EXISTS car_updated_at_idx ON car (updated_at)",
+                    "ALTER TABLE car ADD COLUMN IF NOT EXISTS version int NOT NULL DEFAULT 0")),
+            new Migration(3, "cennik i rental.total_price", false, sql(
+                    "ALTER TABLE rental ADD COLUMN IF NOT EXISTS total_price numeric(12,2)",
+                    "CREATE TABLE IF NOT EXISTS rate_setting (key text PRIMARY KEY, value_bp int NOT NULL)",
+                    "CREATE TABLE IF NOT EXISTS rate_season (season_id serial PRIMARY KEY, start_date date NOT NULL, " +
+                    "end_date date NOT NULL, multiplier_bp int NOT NULL)",
+                    "CREATE TABLE IF NOT EXISTS rate_long_term (min_days int PRIMARY KEY, discount_bp int NOT NULL)",
+                    "CREATE TABLE IF NOT EXISTS client_contract (client_id int PRIMARY KEY REFERENCES client, " +
+                    "discount_bp int NOT NULL, valid_to date)")),
+            // Lista aut (ORDER BY brand, model) i klientów - odczyt z samego indeksu, bez sortowania
+            new Migration(4, "indeksy list aut i klientów", false, sql(
+                    "CREATE INDEX IF NOT EXISTS car_listing_idx ON car (brand, model) " +
+                    "INCLUDE (car_id, year, daily_price, status, updated_at)",
+                    "CREATE INDEX IF NOT EXISTS client_name_idx ON client (last_name, first_name) INCLUDE (client_id)")),
+            new Migration(5, "partycjonowanie rental po start_date", false, SchemaMigrations::partitionRental),
+            new Migration(6, "EXCLUDE na nakładające się aktywne terminy (btree_gist)", true, SchemaMigrations::noOverlap),
+            // Identyfikatory operacji z dziennika stanowisk już zapisanych w bazie (odtwarzanie bez dubli)
+            new Migration(7, "journal_applied", false, sql(
+                    "CREATE TABLE IF NOT EXISTS journal_applied (op_id uuid PRIMARY KEY, ok boolean NOT NULL, " +
+                    "message text, applied_at timestamptz NOT NULL DEFAULT now())"))
+    );
+
+    private SchemaMigrations() {}
+
+    // Zwraca liczbę zastosowanych teraz migracji
+    static int migrate(Connection conn) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(true);
+        try (Statement st = conn.createStatement()) {
+            st.execute("SELECT pg_advisory_lock(" + LOCK_KEY + ")");
+            try {
+                st.execute("CREATE TABLE IF NOT EXISTS schema_version (version int PRIMARY KEY, description text NOT NULL, " +
+                        "applied_at timestamptz NOT NULL DEFAULT now(), duration_ms bigint NOT NULL)");
+                Set<Integer> applied = applied(conn);
+                int known = ALL.get(ALL.size() - 1).version();
+                int newest = applied.stream().mapToInt(Integer::intValue).max().orElse(0);
+                if (newest > known) {
+                    System.out.println("WARN: schemat bazy w wersji " + newest + " jest nowszy niż znany aplikacji (" + known + ").");
+                }
+
+                int count = 0;
+                for (Migration m : ALL) {
+                    if (applied.contains(m.version())) continue;
+                    if (apply(conn, m)) {
+                        count++;
+                        newest = Math.max(newest, m.version());
+                    }
+                }
+                System.out.println("Schemat bazy: wersja " + newest + (count > 0 ? " (zastosowano migracji: " + count + ")" : ""));
+
+                // Utrzymanie partycji bierze blokady na rental - robi je serwer (raz na dobę), przy starcie
+                // stanowiska tylko na wyraźne życzenie administratora
+                if (Boolean.getBoolean("wypozyczalnia.rental.maintainOnStart")) {
+                    RentalPartitions.Result r = RentalPartitions.fromProperties().maintain(conn, LocalDate.now());
+                    if (r.created() > 0 || r.archived() > 0) {
+                        System.out.println("Partycje rental: nowe " + r.created() + " (przeniesione wiersze " + r.movedRows()
+                                + "), zarchiwizowane " + r.archived());
+                    }
+                }
+                return count;
+            } finally {
+                conn.setAutoCommit(true);
+                st.execute("SELECT pg_advisory_unlock(" + LOCK_KEY + ")");
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static boolean apply(Connection conn, Migration m) throws SQLException {
+        long t0 = System.nanoTime();
+        conn.setAutoCommit(false);
+        try {
+            m.step().apply(conn);
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO schema_version(version, description, duration_ms) VALUES (?, ?, ?)")) {
+                ps.setInt(1, m.version());
+                ps.setString(2, m.description());
+                ps.setLong(3, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+                ps.executeUpdate();
+            }
+            conn.commit();
+            return true;
+        } catch (SQLException ex) {
+            conn.rollback();
+            if (m.optional()) {
+                System.out.println("WARN: migracja " + m.version() + " (" + m.description() + ") pominięta: " + ex.getMessage());
+                return false;
+            }
+            throw new SQLException("Migracja " + m.version() + " (" + m.description() + ") nie powiodła się: "
+                    + ex.getMessage(), ex.getSQLState(), ex);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    static Set<Integer> applied(Connection conn) throws SQLException {
+        Set<Integer> out = new HashSet<>();
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT version FROM schema_version")) {
+            while (rs.next()) out.add(rs.getInt(1));
+        }
+        return out;
+    }
+
+    private static Step sql(String... statements) {
+        return conn -> {
+            try (Statement st = conn.createStatement()) {
+                for (String s : statements) st.execute(s);
+            }
+        };
+    }
+
+    // Zamiana zwykłej tabeli rental na partycjonowaną (miesiące po start_date) z przepisaniem danych.
+    // Klucz główny partycjonowanej tabeli musi zawierać start_date; rental_id dalej z sekwencji.
+    // Indeksy tworzone na rodzicu przechodzą na wszystkie partycje, także zakładane później:
+    //  - częściowy na aktywne wypożyczenia (zwrot: car_id + ACTIVE, kolizje terminów, dostępność),
+    //  - BRIN po end_date do raportów okresowych (start_date zawęża już wybór partycji).
+    // Już partycjonowana rental (np. przez administratora) nie jest przepisywana, ale brakujące
+    // rental_default, indeksy, rental_archive i rental_history są dokładane.
+    private static void partitionRental(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            boolean partitioned;
+            try (ResultSet rs = st.executeQuery("SELECT relkind FROM pg_class WHERE oid = to_regclass('rental')")) {
+                partitioned = rs.next() && "p".equals(rs.getString(1));
+            }
+            if (!partitioned) {
+                st.execute("ALTER TABLE rental RENAME TO rental_legacy");
+                st.execute("CREATE SEQUENCE IF NOT EXISTS rental_id_seq");
+                st.execute("SELECT setval('rental_id_seq', coalesce((SELECT max(rental_id) FROM rental_legacy), 0) + 1, false)");
+                st.execute("CREATE TABLE rental (" +
+                        "rental_id bigint NOT NULL DEFAULT nextval('rental_id_seq'), " +
+                        "client_id int NOT NULL REFERENCES client, car_id int NOT NULL REFERENCES car, " +
+                        "start_date date NOT NULL, end_date date NOT NULL, status text NOT NULL DEFAULT 'ACTIVE', " +
+                        "returned_at timestamptz, total_price numeric(12,2), " +
+                        "CONSTRAINT rental_pk PRIMARY KEY (rental_id, start_date)" +
+                        ") PARTITION BY RANGE (start_date)");
+                st.execute("ALTER SEQUENCE rental_id_seq OWNED BY rental.rental_id");
+            }
+            st.execute("CREATE TABLE IF NOT EXISTS rental_default PARTITION OF rental DEFAULT");
+            st.execute("CREATE INDEX IF NOT EXISTS rental_active_idx ON rental (car_id, start_date, end_date) WHERE status = 'ACTIVE'");
+            st.execute("CREATE INDEX IF NOT EXISTS rental_end_brin ON rental USING brin (end_date)");
+
+            if (!partitioned) {
+                YearMonth from = null;
+                YearMonth to = null;
+                try (ResultSet rs = st.executeQuery("SELECT min(start_date), max(start_date) FROM rental_legacy")) {
+                    if (rs.next() && rs.getDate(1) != null) {
+                        from = YearMonth.from(rs.getDate(1).toLocalDate());
+                        to = YearMonth.from(rs.getDate(2).toLocalDate());
+                    }
+                }
+                if (from != null) {
+                    for (YearMonth m : RentalPartitions.months(from, to)) RentalPartitions.createEmpty(st, m);
+                }
+                st.execute("INSERT INTO rental(rental_id, client_id, car_id, start_date, end_date, status, returned_at, total_price) " +
+                        "SELECT rental_id, client_id, car_id, start_date, end_date, status, returned_at, total_price FROM rental_legacy");
+                st.execute("DROP TABLE rental_legacy");
+            }
+
+            // Stare miesiące (RentalPartitions.archive) - poza rental, ale w raportach przez rental_history
+            st.execute("CREATE TABLE IF NOT EXISTS rental_archive (LIKE rental) PARTITION BY RANGE (start_date)");
+            st.execute("CREATE OR REPLACE VIEW rental_history AS SELECT * FROM rental UNION ALL SELECT * FROM rental_archive");
+            if (!partitioned) st.execute("ANALYZE rental");
+        }
+    }
+
+    // Ograniczenie zakładane na każdą partycję osobno (PostgreSQL nie pozwala na EXCLUDE
+    // na rodzicu bez klucza partycji w porównaniu równości) - zatrzymuje wyścig dwóch rezerwacji
+    // w tym samym miesiącu startu; szersze kolizje wyłapuje dalej sprawdzenie pod blokadą auta.
+    // Bez uprawnień do CREATE EXTENSION albo przy istniejących nakładkach - pominięte.
+    private static void noOverlap(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute("CREATE EXTENSION IF NOT EXISTS btree_gist");
+            // rental_default na końcu - jej ograniczenie oznacza włączenie dla nowych partycji
+            List<String> tables = RentalPartitions.partitions(conn, "rental").stream()
+                    .filter(t -> !t.equals("rental_default")).sorted().toList();
+            for (String table : tables) {
+                st.execute("ALTER TABLE " + table + " ADD CONSTRAINT " + table + "_no_overlap " + RentalPartitions.NO_OVERLAP);
+            }
+            st.execute("ALTER TABLE rental_default ADD CONSTRAINT rental_default_no_overlap " + RentalPartitions.NO_OVERLAP);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package pl.dk.wypozyczalnia;
+
+import javafx.css.PseudoClass;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableCell;
+import javafx.scene.control.Tooltip;
+
+// Komórka statusu (kropka + podpowiedź). Etykieta tworzona raz na komórkę, kolor z CSS
+// przez pseudo-klasy (.status-dot:available itd.), podpowiedzi wspólne dla wszystkich komórek -
+// updateItem przy przewijaniu tylko przełącza stan, nic nie alokuje. Nierozpoznany status
+// pokazuje w podpowiedzi surową wartość z bazy (CarRow.rawStatus) - ta podpowiedź jest per komórka.
+final class StatusCell extends TableCell<CarRow, CarStatus> {
+
+    private static final CarStatus[] STATUSES = CarStatus.values();
+    private static final PseudoClass[] PSEUDO = new PseudoClass[STATUSES.length];
+    private static final Tooltip[] TOOLTIPS = new Tooltip[STATUSES.length];
+
+    static {
+        for (CarStatus s : STATUSES) {
+            PSEUDO[s.ordinal()] = PseudoClass.getPseudoClass(s.name().toLowerCase());
+            TOOLTIPS[s.ordinal()] = new Tooltip(s.label());
+        }
+    }
+
+    private final Label dot = new Label("●");
+    private CarStatus shown;
+    private Tooltip rawTip;
+
+    StatusCell() {
+        dot.getStyleClass().add("status-dot");
+        setText(null);
+        setAlignment(Pos.CENTER);
+    }
+
+    @Override
+    protected void updateItem(CarStatus st, boolean empty) {
+        super.updateItem(st, empty);
+
+        if (empty || st == null) {
+            setGraphic(null);
+            setTooltip(null);
+            show(null);
+            return;
+        }
+
+        show(st);
+        if (getGraphic() != dot) setGraphic(dot);
+        Tooltip tip = TOOLTIPS[st.ordinal()];
+        if (st == CarStatus.UNKNOWN) {
+            CarRow row = getTableRow() == null ? null : getTableRow().getItem();
+            if (row != null && row.rawStatus != null) {
+                if (rawTip == null) rawTip = new Tooltip();
+                rawTip.setText(row.rawStatus);
+                tip = rawTip;
+            }
+        }
+        if (getTooltip() != tip) setTooltip(tip);
+    }
+
+    private void show(CarStatus st) {
+        if (st == shown) return;
+        if (shown != null) dot.pseudoClassStateChanged(PSEUDO[shown.ordinal()], false);
+        if (st != null) dot.pseudoClassStateChanged(PSEUDO[st.ordinal()], true);
+        shown = st;
+    }
+}
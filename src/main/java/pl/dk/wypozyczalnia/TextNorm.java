@@ -0,0 +1,45 @@
+package pl.dk.wypozyczalnia;
+
+// Normalizacja tekstu do wyszukiwania: małe litery + zdjęte polskie znaki diakrytyczne
+// ("Łódź" -> "lodz"), żeby "zolw" znajdowało "Żółw".
+final class TextNorm {
+
+    private TextNorm() {}
+
+    static String fold(String s) {
+        if (s == null || s.isEmpty()) return "";
+
+        char[] out = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            char f = foldChar(c);
+            if (f != c && out == null) {
+                out = s.toCharArray();
+            }
+            if (out != null) out[i] = f;
+        }
+        return out == null ? s : new String(out);
+    }
+
+    static char foldChar(char c) {
+        if (c < 128) {
+            return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+        }
+        switch (c) {
+            case 'ą': case 'Ą': return 'a';
+            case 'ć': case 'Ć': return 'c';
+            case 'ę': case 'Ę': return 'e';
+            case 'ł': case 'Ł': return 'l';
+            case 'ń': case 'Ń': return 'n';
+            case 'ó': case 'Ó': return 'o';
+            case 'ś': case 'Ś': return 's';
+            case 'ź': case 'Ź': case 'ż': case 'Ż': return 'z';
+            default: return Character.toLowerCase(c);
+        }
+    }
+
+    // Trigram zapisany jako long (3 x 16 bitów) - klucz w indeksach n-gramowych
+    static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+}